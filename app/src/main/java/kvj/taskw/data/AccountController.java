@@ -11,25 +11,22 @@ import android.text.TextUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.kvj.bravo7.log.Logger;
-import org.kvj.bravo7.util.Compat;
 import org.kvj.bravo7.util.DataUtil;
 import org.kvj.bravo7.util.Listeners;
 import org.kvj.bravo7.util.Tasks;
 
 import java.io.CharArrayWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -40,11 +37,18 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 
 import kvj.taskw.App;
+import kvj.taskw.BuildConfig;
 import kvj.taskw.R;
+import kvj.taskw.sync.ConnectionPool;
+import kvj.taskw.sync.CredentialCache;
+import kvj.taskw.sync.ProxyPump;
 import kvj.taskw.sync.SSLHelper;
+import kvj.taskw.sync.SessionCache;
+import kvj.taskw.sync.SyncRecorder;
+import kvj.taskw.sync.TaskdClient;
+import kvj.taskw.sync.TlsProfile;
 import kvj.taskw.ui.MainActivity;
 import kvj.taskw.ui.MainListAdapter;
 import kvj.taskw.ui.RunActivity;
@@ -56,7 +60,6 @@ public class AccountController {
 
     private static final String CONFIRM_YN = " (yes/no) ";
     private final String accountName;
-    private Thread acceptThread = null;
 
     private Set<NotificationType> notificationTypes = new HashSet<>();
 
@@ -163,8 +166,13 @@ public class AccountController {
 
     Logger logger = Logger.forInstance(this);
 
-    private final LocalServerSocket syncSocket;
+    private final LocalSocketRunner syncRunner;
     private final File tasksFolder;
+    private final ReloadCoordinator reloads = new ReloadCoordinator();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final SyncHistory syncHistory;
+    private final SyncScheduler syncScheduler = new SyncScheduler();
+    private volatile SyncHistory.Record syncRecord = null; // Sync in progress
 
     public interface StreamConsumer {
         public void eat(String line);
@@ -194,9 +202,10 @@ public class AccountController {
         this.accountName = name;
         this.id = folder;
         tasksFolder = initTasksFolder();
+        syncHistory = new SyncHistory(tasksFolder);
         socketName = UUID.randomUUID().toString().toLowerCase();
         initLogger();
-        syncSocket = openLocalSocket(socketName);
+        syncRunner = openLocalSocket(socketName);
         scheduleSync(TimerType.Periodical); // Schedule on start
         loadNotificationTypes();
     }
@@ -266,6 +275,62 @@ public class AccountController {
         }
     }
 
+    /**
+     * Handle of a single binary call. Cancelling it prevents the process from being started at all.
+     * Read-only calls run with rc.gc=off, so data files are never rewritten by them, and
+     * cancelling kills the process. Calls that modify data are left to finish, their output is discarded.
+     */
+    public static class TaskCall {
+
+        private final boolean readOnly;
+        private Process process = null;
+        private boolean cancelled = false;
+        private long spawnTime = -1;
+
+        public TaskCall() {
+            this(true);
+        }
+
+        private TaskCall(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * @return handle of a call that changes data and must not be killed
+         */
+        public static TaskCall modifying() {
+            return new TaskCall(false);
+        }
+
+        private synchronized boolean attach(Process process, long spawnTime) {
+            this.spawnTime = spawnTime;
+            this.process = process;
+            return !cancelled;
+        }
+
+        private synchronized void detach() {
+            process = null;
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (null != process && readOnly) { // Running and safe to kill
+                process.destroy();
+            }
+        }
+
+        public synchronized boolean cancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return time spent starting the process, ms
+         */
+        public synchronized long spawnTime() {
+            return spawnTime;
+        }
+    }
+
     public static class ListAggregator implements StreamConsumer {
 
         List<String> data = new ArrayList<>();
@@ -300,41 +365,67 @@ public class AccountController {
 
     public void stop() {
         controller.cancelAlarm(syncIntent("alarm"));
-        if (null != syncSocket) {
-            try {
-                syncSocket.close();
-            } catch (Exception e) {
-                logger.w(e, "Failed to close socket");
-            }
+        if (null != syncRunner) {
+            syncRunner.stop();
         }
     }
 
+    private double syncMinutes(Map<String, String> config, TimerType type) {
+        String value = config.get(androidConf(String.format("sync.%s", type.type)));
+        if (TextUtils.isEmpty(value)) {
+            return 0.0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (Exception e) {
+            logger.w("Failed to parse:", e.getMessage(), value);
+        }
+        return 0.0;
+    }
+
     public void scheduleSync(final TimerType type) {
-        new Tasks.SimpleTask<Double>() {
+        scheduleSync(type, false);
+    }
+
+    /**
+     * @param synced Periodical after successful sync: resets backoff
+     */
+    private void scheduleSync(final TimerType type, final boolean synced) {
+        new Tasks.SimpleTask<Long>() {
             @Override
-            protected Double doInBackground() {
-                Map<String, String> config = taskSettings(androidConf(String.format("sync.%s", type.type)));
-                if (config.isEmpty()) {
-                    return 0.0;
+            protected Long doInBackground() {
+                if (!syncScheduler.configured()) { // Once, until account is re-initialized
+                    Map<String, String> config = taskSettings(androidConf("sync.periodical"),
+                                                              androidConf("sync.onerror"),
+                                                              androidConf("sync.onchange"));
+                    syncScheduler.configure(syncMinutes(config, TimerType.Periodical),
+                                            syncMinutes(config, TimerType.AfterError),
+                                            syncMinutes(config, TimerType.AfterChange));
+                    debug(syncScheduler);
                 }
-                try {
-                    return Double.parseDouble(config.values().iterator().next());
-                } catch (Exception e) {
-                    logger.w("Failed to parse:", e.getMessage(), config);
+                long now = System.currentTimeMillis();
+                switch (type) {
+                    case AfterChange:
+                        return syncScheduler.changed(now);
+                    case AfterError:
+                        return syncScheduler.failed(now);
+                    default:
+                        return synced ? syncScheduler.succeeded(now) : syncScheduler.started(now);
                 }
-                return 0.0;
             }
 
             @Override
-            protected void onPostExecute(Double minutes) {
-                if (minutes <= 0) {
-                    logger.d("Ignore schedule - not configured", type);
+            protected void onPostExecute(Long at) {
+                if (at < 0) {
+                    logger.d("Schedule not changed:", type, syncScheduler);
                     return;
                 }
-                Calendar c = Calendar.getInstance();
-                c.add(Calendar.SECOND, (int) (minutes * 60.0));
-                controller.scheduleAlarm(c.getTime(), syncIntent("alarm"));
-                logger.d("Scheduled:", c.getTime(), type);
+                Date when = new Date(at);
+                controller.scheduleAlarm(when, syncIntent("alarm", type.type));
+                logger.d("Scheduled:", when, type);
+                if (type == TimerType.AfterError) {
+                    debug("Sync retry scheduled:", when, syncScheduler);
+                }
             }
         }.exec();
     }
@@ -357,6 +448,21 @@ public class AccountController {
     }
 
     public String taskSync() {
+        return taskSync("manual");
+    }
+
+    /**
+     * @return true if sync alarm fires before given time: such account can sync together with others
+     */
+    public boolean syncDue(long until) {
+        long next = syncScheduler.next();
+        return next > 0 && next <= until;
+    }
+
+    /**
+     * @param trigger what started the sync: TimerType, notification or manual
+     */
+    public String taskSync(String trigger) {
         NotificationCompat.Builder n = controller.newNotification(accountName);
         n.setOngoing(true);
         n.setContentText("Sync is in progress");
@@ -365,8 +471,20 @@ public class AccountController {
         toggleSyncNotification(n, NotificationType.Sync);
         StringAggregator err = new StringAggregator();
         StringAggregator out = new StringAggregator();
-        boolean result = callTask(out, err, "rc.taskd.socket=" + socketName, "sync");
-        debug("Sync result:", result);
+        SyncHistory.Record record = new SyncHistory.Record(trigger, BuildConfig.VERSION_NAME);
+        syncRecord = record;
+        boolean result;
+        if (null != syncRunner && null != syncRunner.client) { // No task binary and local socket
+            result = javaSync(syncRunner.client, record, out, err);
+        } else {
+            TaskCall call = TaskCall.modifying();
+            result = callTask(call, out, err, "rc.taskd.socket=" + socketName, "sync");
+            record.spawn = call.spawnTime();
+        }
+        syncRecord = null;
+        record.finish(result);
+        syncHistory.add(record);
+        debug("Sync result:", result, record);
         logger.d("Sync result:", result, "ERR:", err.text(), "OUT:", out.text());
         n = controller.newNotification(accountName);
         n.setOngoing(false);
@@ -375,7 +493,7 @@ public class AccountController {
             n.setPriority(NotificationCompat.PRIORITY_MIN);
             n.addAction(R.drawable.ic_action_sync, "Sync again", syncIntent("notification"));
             toggleSyncNotification(n, NotificationType.Success);
-            scheduleSync(TimerType.Periodical);
+            scheduleSync(TimerType.Periodical, true);
             return null;
         } else {
             String error = err.text();
@@ -392,6 +510,89 @@ public class AccountController {
         }
     }
 
+    /**
+     * Sync over TaskdClient: backlog.data is sent as is, received tasks are merged as they arrive
+     * and written to data files together with the new sync key once the response is complete.
+     * Same monitor as callTask, so no task call can modify data files in between.
+     */
+    private synchronized boolean javaSync(TaskdClient client, SyncHistory.Record record, StreamConsumer out, StreamConsumer err) {
+        if (null == tasksFolder) {
+            err.eat("Invalid folder");
+            return false;
+        }
+        Map<String, String> udaTypes = udaTypes();
+        taskStarted();
+        try {
+            TaskData data = new TaskData(new File(tasksFolder, DATA_FOLDER), udaTypes);
+            TaskData.Backlog backlog = data.backlog();
+            debug("Java sync: local changes:", backlog.changes.size(), "key:", backlog.syncKey);
+            final TaskData.Update update = data.update();
+            TaskdClient.Response response = client.sync(backlog.syncKey, backlog.changes,
+                                                        new TaskdClient.LineConsumer() {
+                @Override
+                public void line(String line) throws IOException {
+                    update.put(line);
+                }
+            });
+            record.connect = response.connect;
+            record.handshake = response.handshake;
+            record.resumed = response.resumed;
+            record.sent = response.sent;
+            record.received = response.received;
+            record.response = response.response;
+            syncRunner.connections.transferred(response.sent, response.received);
+            debug(response);
+            if (!response.success()) {
+                err.eat(String.format("Sync failed: %d %s", response.code, response.status));
+                return false;
+            }
+            if (response.noChange()) {
+                out.eat(String.format("Sync successful. %d local changes sent, no changes received",
+                                      backlog.changes.size()));
+                return true;
+            }
+            if (null == response.syncKey) {
+                err.eat("Sync failed: no sync key received");
+                return false;
+            }
+            update.commit(response.syncKey);
+            out.eat(String.format("Sync successful. %d local changes sent, %d changes received",
+                                  backlog.changes.size(), update.size()));
+            return true;
+        } catch (Exception e) {
+            syncRunner.endpoint.invalidate(); // Next attempt will do full handshake
+            logger.e(e, "Java sync failed");
+            err.eat(e.getMessage());
+            debug("Java sync failure:");
+            debug(e);
+            return false;
+        } finally {
+            taskFinished();
+        }
+    }
+
+    private void taskStarted() {
+        active = true;
+        taskListeners.emit(new Listeners.ListenerEmitter<TaskListener>() {
+            @Override
+            public boolean emit(TaskListener listener) {
+                listener.onStart();
+                return true;
+            }
+        });
+    }
+
+    private void taskFinished() {
+        taskListeners.emit(new Listeners.ListenerEmitter<TaskListener>() {
+            @Override
+            public boolean emit(TaskListener listener) {
+                listener.onFinish();
+                return true;
+            }
+        });
+        active = false;
+    }
+
     Pattern linePatthern = Pattern.compile("^([A-Za-z0-9\\._]+)\\s+(\\S.*)$");
 
     private String taskSetting(String name) {
@@ -499,12 +700,34 @@ public class AccountController {
         }
     }
 
+    /**
+     * @return UDA name to type, Java sync converts values by it
+     */
+    private Map<String, String> udaTypes() {
+        final Map<String, String> result = new HashMap<>();
+        callTask(new PatternLineConsumer() {
+
+            @Override
+            void eat(String key, String value) {
+                if (key.startsWith("uda.") && key.endsWith(".type")) {
+                    result.put(key.substring(4, key.length() - 5), value);
+                }
+            }
+        }, errConsumer, "show", "uda.");
+        return result;
+    }
+
     public ReportInfo taskReportInfo(String name, final String query) {
         final ReportInfo info = new ReportInfo();
+        final String groupKey = androidConf(String.format("report.%s.group", name));
         callTask(new PatternLineConsumer() {
 
             @Override
             void eat(String key, String value) {
+                if (groupKey.equals(key)) { // Also matches filter of show
+                    info.group = value;
+                    return;
+                }
                 if (key.endsWith(".columns")) {
                     String[] parts = value.split(",");
                     for (String p : parts) {
@@ -638,15 +861,15 @@ public class AccountController {
         return folder;
     }
 
-    private synchronized int callTask(StreamConsumer out, StreamConsumer err, boolean api, String... arguments) {
-        active = true;
-        taskListeners.emit(new Listeners.ListenerEmitter<TaskListener>() {
-            @Override
-            public boolean emit(TaskListener listener) {
-                listener.onStart();
-                return true;
-            }
-        });
+    private int callTask(StreamConsumer out, StreamConsumer err, boolean api, String... arguments) {
+        return callTask(null, out, err, api, arguments);
+    }
+
+    private synchronized int callTask(TaskCall call, StreamConsumer out, StreamConsumer err, boolean api, String... arguments) {
+        if (null != call && call.cancelled()) { // Superseded while waiting
+            return 255;
+        }
+        taskStarted();
         try {
             if (null == controller.executable) {
                 debug("Error in binary call: executable not found");
@@ -665,12 +888,19 @@ public class AccountController {
             } else {
                 args.add("rc.verbose=none");
             }
+            if (null != call && call.readOnly) { // No garbage collection - can be killed any time
+                args.add("rc.gc=off");
+            }
             Collections.addAll(args, arguments);
             ProcessBuilder pb = new ProcessBuilder(args);
             pb.directory(tasksFolder);
             pb.environment().put("TASKRC", new File(tasksFolder, TASKRC).getAbsolutePath());
             pb.environment().put("TASKDATA", new File(tasksFolder, DATA_FOLDER).getAbsolutePath());
+            long spawnStarted = System.currentTimeMillis();
             Process p = pb.start();
+            if (null != call && !call.attach(p, System.currentTimeMillis() - spawnStarted)) { // Cancelled right before start
+                p.destroy();
+            }
             logger.d("Calling now:", tasksFolder, args);
 //            debug("Execute:", args);
             Thread outThread = readStream(p.getInputStream(), p.getOutputStream(), out);
@@ -688,14 +918,8 @@ public class AccountController {
             debug(e);
             return 255;
         } finally {
-            taskListeners.emit(new Listeners.ListenerEmitter<TaskListener>() {
-                @Override
-                public boolean emit(TaskListener listener) {
-                    listener.onFinish();
-                    return true;
-                }
-            });
-            active = false;
+            if (null != call) call.detach();
+            taskFinished();
         }
     }
 
@@ -704,6 +928,11 @@ public class AccountController {
         return result == 0;
     }
 
+    private boolean callTask(TaskCall call, StreamConsumer out, StreamConsumer err, String... arguments) {
+        int result = callTask(call, out, err, true, arguments);
+        return result == 0;
+    }
+
     private File fileFromConfig(String path) {
         if (TextUtils.isEmpty(path)) { // Invalid path
             return null;
@@ -719,8 +948,11 @@ public class AccountController {
 
         private final int port;
         private final String host;
-        private final SSLSocketFactory factory;
+        private final SessionCache.Endpoint endpoint;
         private final LocalServerSocket socket;
+        private final ConnectionPool.Account connections = controller.connections().account(accountName);
+        private final TaskdClient client; // Java sync enabled
+        private final boolean recordSessions; // Saved to account folder
 
         private LocalSocketRunner(String name, Map<String, String> config) throws Exception {
             SSLHelper.TrustType trustType = SSLHelper.parseTrustType(config.get("taskd.trust"));
@@ -737,11 +969,40 @@ public class AccountController {
                 debug("Key file:",
                         fileLogger.logFile(fileFromConfig(config.get("taskd.key"))));
             }
-            this.factory = SSLHelper.tlsSocket(
-                    new FileInputStream(fileFromConfig(config.get("taskd.ca"))),
-                    new FileInputStream(fileFromConfig(config.get("taskd.certificate"))),
-                    new FileInputStream(fileFromConfig(config.get("taskd.key"))), trustType);
-            debug("Credentials loaded");
+            int lifetime = sessionLifetime(config.get(androidConf("sync.session")));
+            CredentialCache.Credentials credentials = controller.credentials().load(
+                    fileFromConfig(config.get("taskd.ca")),
+                    fileFromConfig(config.get("taskd.certificate")),
+                    fileFromConfig(config.get("taskd.key")));
+            debug("Credentials loaded:", credentials);
+            TlsProfile profile = tlsProfile(config.get(androidConf("sync.tls")));
+            String key = String.format("%s|%s|%s", trustType, credentials.hash, profile);
+            SessionCache.Endpoint cached = controller.sessions().get(host, port, key, lifetime);
+            if (null != cached) { // Same server and credentials - keep TLS sessions
+                this.endpoint = cached;
+                debug("TLS context reused:", cached);
+            } else {
+                File pinFile = controller.credentials().pinFile(accountName, credentials.hash);
+                this.endpoint = controller.sessions().put(host, port, key,
+                        SSLHelper.tlsContext(credentials.keyStore, trustType, pinFile), lifetime, profile);
+                debug("TLS context created, session lifetime:", lifetime, "profile:", profile);
+            }
+            String unsupported = endpoint.unsupportedProfile();
+            if (null != unsupported) { // Old platform: connections go with its defaults
+                debug("TLS profile not applied:", unsupported);
+            }
+            TaskdClient javaClient = null;
+            if ("y".equalsIgnoreCase(config.get(androidConf("sync.java")))) {
+                try {
+                    javaClient = new TaskdClient(endpoint, config.get("taskd.credentials"),
+                                                 String.format("taskwarrior-android %s", BuildConfig.VERSION_NAME));
+                    debug("Java sync enabled");
+                } catch (IllegalArgumentException e) {
+                    debug("Java sync disabled:", e.getMessage());
+                }
+            }
+            this.client = javaClient;
+            this.recordSessions = "y".equalsIgnoreCase(config.get(androidConf("sync.record")));
             logger.d("Connecting to:", this.host, this.port);
             this.socket = new LocalServerSocket(name);
         }
@@ -749,80 +1010,113 @@ public class AccountController {
         public void accept() throws IOException {
             LocalSocket conn = socket.accept();
             logger.d("New incoming connection");
-            new LocalSocketThread(conn).start();
+            if (!connections.submit(new LocalSocketThread(conn))) { // Over the limit or stopped
+                logger.w("Connection rejected:", connections);
+                debug("Connection rejected:", connections);
+            }
         }
 
-        private class LocalSocketThread extends Thread {
+        private void stop() {
+            try {
+                socket.close();
+            } catch (Exception e) {
+                logger.w(e, "Failed to close socket");
+            }
+            connections.shutdown(ConnectionPool.SHUTDOWN_GRACE); // Let running syncs finish
+        }
+
+        private class LocalSocketThread implements ConnectionPool.Connection {
 
             private final LocalSocket socket;
+            private volatile SSLSocket remoteSocket = null;
 
             private LocalSocketThread(LocalSocket socket) {
                 this.socket = socket;
             }
 
-            private long recvSend(InputStream from, OutputStream to) throws IOException {
-                byte[] head = new byte[4]; // Read it first
-                from.read(head);
-                to.write(head);
-                to.flush();
-                long size = ByteBuffer.wrap(head, 0, 4).order(ByteOrder.BIG_ENDIAN).getInt();
-                long bytes = 4;
-                byte[] buffer = new byte[1024];
-                logger.d("Will transfer:", size);
-                while (bytes < size) {
-                    int recv = from.read(buffer);
-//                logger.d("Actually get:", recv);
-                    if (recv == -1) {
-                        return bytes;
+            @Override
+            public void abort() {
+                close(remoteSocket);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+
+            private void close(SSLSocket remote) {
+                if (null != remote) {
+                    try {
+                        remote.close();
+                    } catch (IOException e) {
                     }
-                    to.write(buffer, 0, recv);
-                    to.flush();
-                    bytes += recv;
                 }
-                logger.d("Transfer done", bytes, size);
-                return bytes;
             }
 
             @Override
-            public void run() {
-                SSLSocket remoteSocket = null;
+            public void run() throws Exception {
                 debug("Communication taskw<->android started");
+                SyncHistory.Record record = syncRecord;
+                if (null == record) { // Not started from taskSync - don't record
+                    record = new SyncHistory.Record(null, null);
+                }
+                SyncRecorder recorder = null;
                 try {
-                    remoteSocket = (SSLSocket) factory.createSocket(host, port);
-                    final SSLSocket finalRemoteSocket = remoteSocket;
-                    Compat.levelAware(16, new Runnable() {
-                        @Override
-                        public void run() {
-                            finalRemoteSocket.setEnabledProtocols(new String[]{"TLSv1", "TLSv1.1", "TLSv1.2"});
-                        }
-                    }, new Runnable() {
-                        @Override
-                        public void run() {
-                            finalRemoteSocket.setEnabledProtocols(new String[]{"TLSv1"});
-                        }
-                    });
+                    socket.setSoTimeout(ProxyPump.READ_TIMEOUT);
+                    socket.setSendBufferSize(ProxyPump.SOCKET_BUFFER_SIZE);
+                    socket.setReceiveBufferSize(ProxyPump.SOCKET_BUFFER_SIZE);
+                    long connectStarted = System.currentTimeMillis();
+                    remoteSocket = endpoint.connect();
+                    record.connect = System.currentTimeMillis() - connectStarted;
                     debug("Ready to establish TLS connection to:", host, port);
+                    long handshakeStarted = System.currentTimeMillis();
+                    record.resumed = endpoint.handshake(remoteSocket);
+                    record.handshake = System.currentTimeMillis() - handshakeStarted;
+                    debug("TLS handshake:", record.resumed ? "resumed" : "full", record.handshake, "ms.", endpoint);
+                    debug("TLS session:", remoteSocket.getSession().getProtocol(),
+                          remoteSocket.getSession().getCipherSuite());
+                    String trustCheck = SSLHelper.lastTrustCheck();
+                    if (null != trustCheck) { // Pinned mode, full handshake
+                        debug("Server certificate:", trustCheck);
+                    }
                     InputStream localInput = socket.getInputStream();
                     OutputStream localOutput = socket.getOutputStream();
                     InputStream remoteInput = remoteSocket.getInputStream();
                     OutputStream remoteOutput = remoteSocket.getOutputStream();
                     debug("Connected to taskd server");
                     logger.d("Connected, will read first piece", remoteSocket.getSession().getCipherSuite());
-                    long bread = recvSend(localInput, remoteOutput);
-                    long bwrite = recvSend(remoteInput, localOutput);
+                    if (recordSessions) {
+                        try {
+                            recorder = SyncRecorder.create(tasksFolder);
+                            debug("Recording session to:", recorder.file());
+                        } catch (IOException e) {
+                            debug("Failed to start recording:", e.getMessage());
+                        }
+                    }
+                    if (null != recorder) {
+                        remoteOutput = recorder.tee(SyncRecorder.REQUEST, remoteOutput);
+                        localOutput = recorder.tee(SyncRecorder.RESPONSE, localOutput);
+                    }
+                    ProxyPump pump = new ProxyPump();
+                    long bread = pump.relay(localInput, remoteOutput);
+                    long requestSent = System.currentTimeMillis();
+                    record.sent = bread;
+                    long bwrite = pump.relay(remoteInput, localOutput);
+                    record.response = pump.headerAt() - requestSent;
+                    record.received = bwrite;
+                    connections.transferred(bread, bwrite);
                     logger.d("Sync success");
-                    debug("Transfer complete. Bytes sent:", bread, "Bytes received:", bwrite);
+                    debug("Transfer complete. Bytes sent:", bread, "Bytes received:", bwrite, connections);
                 } catch (Exception e) {
+                    endpoint.invalidate(); // Next attempt will do full handshake
                     logger.e(e, "Failed to transfer data");
                     debug("Transfer failure");
                     debug(e);
+                    throw e;
                 } finally {
-                    if (null != remoteSocket) {
-                        try {
-                            remoteSocket.close();
-                        } catch (IOException e) {
-                        }
+                    if (null != recorder) {
+                        recorder.close();
                     }
+                    close(remoteSocket);
                     try {
                         socket.close();
                     } catch (IOException e) {
@@ -833,11 +1127,40 @@ public class AccountController {
     }
 
 
-    private LocalServerSocket openLocalSocket(String name) {
+    private int sessionLifetime(String minutes) {
+        if (TextUtils.isEmpty(minutes)) {
+            return SessionCache.DEFAULT_LIFETIME;
+        }
         try {
-            final Map<String, String> config = taskSettings("taskd.ca", "taskd.certificate", "taskd.key", "taskd.server", "taskd.trust");
-            logger.d("Will run with config:", config);
-            debug("taskd.* config:", config);
+            return (int) (Double.parseDouble(minutes) * 60.0);
+        } catch (Exception e) {
+            logger.w("Failed to parse:", e.getMessage(), minutes);
+        }
+        return SessionCache.DEFAULT_LIFETIME;
+    }
+
+    private TlsProfile tlsProfile(String value) {
+        try {
+            return TlsProfile.parse(value);
+        } catch (IllegalArgumentException e) {
+            logger.w("Failed to parse:", e.getMessage(), value);
+            debug("TLS profile ignored:", e.getMessage());
+        }
+        return TlsProfile.DEFAULT;
+    }
+
+    private LocalSocketRunner openLocalSocket(String name) {
+        try {
+            final Map<String, String> config = taskSettings("taskd.ca", "taskd.certificate", "taskd.key", "taskd.server", "taskd.trust",
+                                                            "taskd.credentials", androidConf("sync.session"),
+                                                            androidConf("sync.java"), androidConf("sync.record"),
+                                                            androidConf("sync.tls"));
+            Map<String, String> printable = new LinkedHashMap<>(config);
+            if (printable.containsKey("taskd.credentials")) { // Has user key
+                printable.put("taskd.credentials", "***");
+            }
+            logger.d("Will run with config:", printable);
+            debug("taskd.* config:", printable);
             if (!config.containsKey("taskd.server")) {
                 // Not configured
                 logger.d("Sync not configured - give up");
@@ -854,7 +1177,7 @@ public class AccountController {
                 controller.toastMessage("Sync disabled: certificate load failure", true);
                 return null;
             }
-            acceptThread = new Thread() {
+            runner.connections.listen(new Runnable() {
                 @Override
                 public void run() {
                     while (true) {
@@ -869,10 +1192,9 @@ public class AccountController {
                         }
                     }
                 }
-            };
-            acceptThread.start();
+            });
             controller.toastMessage("Sync configured", false);
-            return runner.socket; // Close me later on stop
+            return runner; // Stop me later
         } catch (Exception e) {
             logger.e(e, "Failed to open local socket");
         }
@@ -880,6 +1202,10 @@ public class AccountController {
     }
 
     public List<JSONObject> taskList(String query) {
+        return taskList(query, null);
+    }
+
+    public List<JSONObject> taskList(String query, TaskCall call) {
         if (TextUtils.isEmpty(query)) {
             query = "status:pending";
         } else {
@@ -897,11 +1223,15 @@ public class AccountController {
             logger.d("Context query:", cQuery, query);
         }
         final List<JSONObject> result = new ArrayList<>();
+        if (null != call && call.cancelled()) { // Superseded - don't export
+            debug("List cancelled:", query);
+            return result;
+        }
         List<String> params = new ArrayList<>();
         params.add("rc.json.array=off");
         params.add("export");
         params.add(escape(query));
-        callTask(new StreamConsumer() {
+        callTask(call, new StreamConsumer() {
             @Override
             public void eat(String line) {
                 if (!TextUtils.isEmpty(line)) {
@@ -921,6 +1251,23 @@ public class AccountController {
         return query.replace(" ", "\\ "); //.replace("(", "\\(").replace(")", "\\)");
     }
 
+    public SyncHistory syncHistory() {
+        return syncHistory;
+    }
+
+    public void logSyncHistory() {
+        debug("Sync history, newest first:");
+        for (String line : syncHistory.lines()) {
+            debug(line);
+        }
+    }
+
+    public Intent intentForSyncHistory() {
+        Intent intent = intentForRunTask();
+        intent.putStringArrayListExtra(App.KEY_RUN_OUTPUT, syncHistory.lines());
+        return intent;
+    }
+
     public Intent intentForRunTask() {
         Intent intent = new Intent(controller.context(), RunActivity.class);
         intent.putExtra(App.KEY_ACCOUNT, id);
@@ -1049,9 +1396,22 @@ public class AccountController {
         return taskListeners;
     }
 
+    public ReloadCoordinator reloads() {
+        return reloads;
+    }
+
+    public SearchIndex searchIndex() {
+        return searchIndex;
+    }
+
     public PendingIntent syncIntent(String type) {
+        return syncIntent(type, type);
+    }
+
+    private PendingIntent syncIntent(String type, String trigger) {
         Intent intent = new Intent(controller.context(), SyncIntentReceiver.class);
         intent.putExtra(App.KEY_ACCOUNT, id);
+        intent.putExtra(App.KEY_SYNC_TRIGGER, trigger); // Extra: doesn't affect alarm matching
         intent.setData(Uri.fromParts("tw", type, id));
         return PendingIntent.getBroadcast(controller.context(), App.SYNC_REQUEST, intent, PendingIntent.FLAG_CANCEL_CURRENT);
     }
@@ -39,6 +39,10 @@ import java.util.UUID;
 
 import kvj.taskw.App;
 import kvj.taskw.R;
+import kvj.taskw.sync.ConnectionPool;
+import kvj.taskw.sync.CredentialCache;
+import kvj.taskw.sync.SessionCache;
+import kvj.taskw.sync.SyncOrchestrator;
 
 /**
  * Created by vorobyev on 10/4/15.
@@ -59,6 +63,10 @@ public class Controller extends org.kvj.bravo7.ng.Controller {
     final Collection<String> BUILTIN_REPORTS = new ArrayList<>();
 
     private final Listeners<ToastMessageListener> toastListeners = new Listeners<>();
+    private final SessionCache sessions = new SessionCache();
+    private final CredentialCache credentials;
+    private final ConnectionPool connections = new ConnectionPool();
+    private final SyncOrchestrator orchestrator = new SyncOrchestrator();
 
     public Controller(Context context, String name) {
         super(context, name);
@@ -66,6 +74,7 @@ public class Controller extends org.kvj.bravo7.ng.Controller {
         accountManager = AccountManager.get(context);
         executable = eabiExecutable();
         notificationManager = NotificationManagerCompat.from(context);
+        credentials = new CredentialCache(new File(context.getFilesDir(), "credentials"));
     }
 
     public File fileFromIntentUri(Intent intent) {
@@ -332,6 +341,8 @@ public class Controller extends org.kvj.bravo7.ng.Controller {
         return controllerMap.get(name);
     }
 
+    public static final String SYNC_GROUP = "kvj.taskw.sync";
+
     public enum NotificationType {
         Sync(1);
 
@@ -356,9 +367,87 @@ public class Controller extends org.kvj.bravo7.ng.Controller {
         n.setContentTitle(account);
         n.setSmallIcon(R.drawable.ic_stat_logo);
         n.setWhen(System.currentTimeMillis());
+        n.setGroup(SYNC_GROUP);
         return n;
     }
 
+    /**
+     * Syncs account together with other accounts which are due to sync soon, in parallel.
+     * Caller holds one wake lock for all of them.
+     */
+    public List<SyncOrchestrator.Result> syncAccounts(String account, String trigger) throws InterruptedException {
+        List<SyncOrchestrator.Target> targets = new ArrayList<>();
+        long until = System.currentTimeMillis() + SyncOrchestrator.PIGGYBACK_WINDOW;
+        for (Account acc : accounts()) {
+            final String id = accountID(acc);
+            final AccountController ac = accountController(id);
+            if (null == ac) {
+                continue;
+            }
+            if (id.equals(account) || ac.syncDue(until)) { // Requested or will sync soon anyway
+                targets.add(new SyncOrchestrator.Target() {
+                    @Override
+                    public String name() {
+                        return ac.name();
+                    }
+
+                    @Override
+                    public String sync(String trigger) {
+                        return ac.taskSync(trigger);
+                    }
+                });
+            }
+        }
+        long started = System.currentTimeMillis();
+        List<SyncOrchestrator.Result> results = orchestrator.sync(targets, trigger);
+        logger.d("Synced accounts:", results, System.currentTimeMillis() - started, "ms");
+        if (results.size() > 1) { // Several notifications - add summary
+            notifySyncSummary(results);
+        }
+        return results;
+    }
+
+    private void notifySyncSummary(List<SyncOrchestrator.Result> results) {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        int synced = 0;
+        int failed = 0;
+        for (SyncOrchestrator.Result result : results) {
+            if (result.skipped) {
+                continue;
+            }
+            synced++;
+            if (!result.success()) {
+                failed++;
+            }
+            style.addLine(result.toString());
+        }
+        String text = failed > 0 ?
+                String.format("%d of %d accounts failed to sync", failed, synced) :
+                String.format("%d accounts synced", synced);
+        NotificationCompat.Builder n = new NotificationCompat.Builder(context);
+        n.setContentTitle(context.getString(R.string.app_name));
+        n.setContentText(text);
+        n.setSmallIcon(R.drawable.ic_stat_logo);
+        n.setWhen(System.currentTimeMillis());
+        n.setStyle(style.setSummaryText(text));
+        n.setGroup(SYNC_GROUP);
+        n.setGroupSummary(true);
+        n.setPriority(failed > 0 ? NotificationCompat.PRIORITY_DEFAULT : NotificationCompat.PRIORITY_MIN);
+        notificationManager.notify(SYNC_GROUP, NotificationType.Sync.id, n.build());
+    }
+
+    public ConnectionPool connections() {
+        return connections;
+    }
+
+    public CredentialCache credentials() {
+        return credentials;
+    }
+
+    public SessionCache sessions() {
+        return sessions;
+    }
+
     public Listeners<ToastMessageListener> toastListeners() {
         return toastListeners;
     }
@@ -0,0 +1,103 @@
+package kvj.taskw.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps at most one report export in flight per key (report query of an account).
+ * Requests arriving while an export runs supersede it: the running binary (read-only, rc.gc=off) is killed and
+ * all such requests are coalesced into a single follow-up export.
+ */
+public class ReloadCoordinator {
+
+    private class Slot {
+        AccountController.TaskCall running = null;
+        boolean pending = false;
+    }
+
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    private int started = 0;
+    private int coalesced = 0;
+    private int cancelled = 0;
+    private int delivered = 0;
+
+    private Slot slot(String key) {
+        Slot slot = slots.get(key);
+        if (null == slot) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Requests an export for the key.
+     * @return handle to run the export with or null when request was coalesced into a running one
+     */
+    public synchronized AccountController.TaskCall start(String key) {
+        Slot slot = slot(key);
+        if (null != slot.running) { // Busy - supersede current and schedule a follow-up
+            if (!slot.running.cancelled()) {
+                slot.running.cancel();
+                cancelled++;
+            }
+            slot.pending = true;
+            coalesced++;
+            return null;
+        }
+        slot.running = new AccountController.TaskCall();
+        slot.pending = false;
+        started++;
+        return slot.running;
+    }
+
+    /**
+     * Marks export as finished.
+     * @return true if result of the call is still actual and should be shown
+     */
+    public synchronized boolean finish(String key, AccountController.TaskCall call) {
+        Slot slot = slots.get(key);
+        if (null == slot || slot.running != call) { // Not ours anymore
+            return false;
+        }
+        slot.running = null;
+        if (call.cancelled()) {
+            return false;
+        }
+        delivered++;
+        return true;
+    }
+
+    /**
+     * Checks (and resets) follow-up flag. Called after finish().
+     */
+    public synchronized boolean pending(String key) {
+        Slot slot = slots.get(key);
+        if (null == slot || null != slot.running || !slot.pending) {
+            return false;
+        }
+        slot.pending = false;
+        return true;
+    }
+
+    /**
+     * Drops running export and follow-up for the key, e.g. when another report is opened.
+     */
+    public synchronized void cancel(String key) {
+        Slot slot = slots.remove(key);
+        if (null == slot) {
+            return;
+        }
+        if (null != slot.running && !slot.running.cancelled()) {
+            slot.running.cancel();
+            cancelled++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Reloads: started %d, delivered %d, coalesced %d, cancelled %d",
+                             started, delivered, coalesced, cancelled);
+    }
+}
@@ -19,10 +19,11 @@ public class ReportInfo {
     public String query = "";
     public String description = "Untitled";
     public List<String> priorities = new ArrayList<>();
+    public String group = null; // Field to group tasks by, flat list if empty
 
     @Override
     public String toString() {
-        return String.format("ReportInfo: %s [%s %s] %s", query, fields.toString(), sort.toString(), description);
+        return String.format("ReportInfo: %s [%s %s] %s %s", query, fields.toString(), sort.toString(), description, group);
     }
 
     public void sort(List<JSONObject> list) {
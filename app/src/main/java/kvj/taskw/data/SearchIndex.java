@@ -0,0 +1,224 @@
+package kvj.taskw.data;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory trigram index over description and annotations of account tasks.
+ * Filled from report exports as they are loaded, tasks are re-indexed only when their modification time changes.
+ * Search narrows a loaded report: only its tasks are matched, report order is kept for equal matches.
+ */
+public class SearchIndex {
+
+    private static final int GRAM = 3;
+
+    private static class Entry {
+        String modified;
+        String description;
+        String annotations;
+        Set<String> grams = new HashSet<>();
+    }
+
+    private static class Match {
+        final JSONObject json;
+        final int score;
+        final int position; // In the report
+
+        private Match(JSONObject json, int score, int position) {
+            this.json = json;
+            this.score = score;
+            this.position = position;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Set<String>> grams = new HashMap<>();
+
+    private static String normalize(String text) {
+        return null == text ? "" : text.toLowerCase(Locale.getDefault());
+    }
+
+    private static void addGrams(Set<String> to, String text) {
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            to.add(text.substring(i, i + GRAM));
+        }
+    }
+
+    /**
+     * Adds tasks of the list, changed ones are re-indexed. Other tasks stay.
+     */
+    public synchronized void update(Collection<JSONObject> list) {
+        for (JSONObject json : list) {
+            put(json);
+        }
+    }
+
+    public synchronized void put(JSONObject json) {
+        String uuid = json.optString("uuid");
+        String modified = json.optString("modified");
+        Entry current = entries.get(uuid);
+        if (null != current && modified.equals(current.modified)) { // Not changed - keep grams
+            return;
+        }
+        remove(uuid);
+        Entry entry = new Entry();
+        entry.modified = modified;
+        entry.description = normalize(json.optString("description"));
+        StringBuilder ann = new StringBuilder();
+        JSONArray annotations = json.optJSONArray("annotations");
+        if (null != annotations) {
+            for (int i = 0; i < annotations.length(); i++) { // Join all texts
+                JSONObject annJson = annotations.optJSONObject(i);
+                if (null == annJson) continue;
+                ann.append(normalize(annJson.optString("description"))).append('\n');
+            }
+        }
+        entry.annotations = ann.toString();
+        addGrams(entry.grams, entry.description);
+        addGrams(entry.grams, entry.annotations);
+        for (String gram : entry.grams) {
+            Set<String> posting = grams.get(gram);
+            if (null == posting) {
+                posting = new HashSet<>();
+                grams.put(gram, posting);
+            }
+            posting.add(uuid);
+        }
+        entries.put(uuid, entry);
+    }
+
+    public synchronized void remove(String uuid) {
+        Entry entry = entries.remove(uuid);
+        if (null == entry) {
+            return;
+        }
+        for (String gram : entry.grams) {
+            Set<String> posting = grams.get(gram);
+            if (null == posting) continue;
+            posting.remove(uuid);
+            if (posting.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        grams.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Splits text to words, skipping filter syntax (pro:x, +tag, -tag).
+     */
+    public static List<String> terms(String text) {
+        List<String> result = new ArrayList<>();
+        for (String word : normalize(text).split("\\s+")) {
+            if (word.isEmpty() || word.contains(":") || word.startsWith("+") || word.startsWith("-")) {
+                continue;
+            }
+            result.add(word);
+        }
+        return result;
+    }
+
+    private Collection<String> candidates(String term, Map<String, Integer> positions) {
+        if (term.length() < GRAM) { // Too short - check every task of the report
+            return positions.keySet();
+        }
+        Set<String> result = null;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            Set<String> posting = grams.get(term.substring(i, i + GRAM));
+            if (null == posting) {
+                return Collections.emptySet();
+            }
+            if (null == result) {
+                result = new HashSet<>(posting);
+            } else {
+                result.retainAll(posting);
+            }
+        }
+        return result;
+    }
+
+    private static int score(Entry entry, String term) {
+        if (entry.description.startsWith(term)) return 4; // Whole description prefix
+        int index = entry.description.indexOf(term);
+        if (index > 0 && !Character.isLetterOrDigit(entry.description.charAt(index - 1))) return 3; // Word prefix
+        if (index > 0) return 2;
+        if (entry.annotations.contains(term)) return 1;
+        return 0;
+    }
+
+    /**
+     * Returns tasks of the report matching every word of the text, best matches first, report order otherwise.
+     * Returns null when text has no searchable words.
+     * @param report loaded (and sorted) report, its tasks should be in the index (see update)
+     */
+    public synchronized List<JSONObject> search(String text, List<JSONObject> report) {
+        List<String> terms = terms(text);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < report.size(); i++) {
+            positions.put(report.get(i).optString("uuid"), i);
+        }
+        // Start from the most selective term
+        Collection<String> uuids = null;
+        for (String term : terms) {
+            Collection<String> c = candidates(term, positions);
+            if (null == uuids || c.size() < uuids.size()) {
+                uuids = c;
+            }
+        }
+        List<Match> matches = new ArrayList<>();
+        for (String uuid : uuids) {
+            Integer position = positions.get(uuid);
+            Entry entry = entries.get(uuid);
+            if (null == position || null == entry) { // Not in the report or not indexed
+                continue;
+            }
+            int total = 0;
+            for (String term : terms) {
+                int s = score(entry, term);
+                if (s == 0) { // Every word should match
+                    total = 0;
+                    break;
+                }
+                total += s;
+            }
+            if (total > 0) {
+                matches.add(new Match(report.get(position), total, position));
+            }
+        }
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match lhs, Match rhs) {
+                if (lhs.score != rhs.score) {
+                    return lhs.score > rhs.score ? -1 : 1;
+                }
+                return lhs.position < rhs.position ? -1 : (lhs.position == rhs.position ? 0 : 1);
+            }
+        });
+        List<JSONObject> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.json);
+        }
+        return result;
+    }
+}
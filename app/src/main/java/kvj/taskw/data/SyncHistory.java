@@ -0,0 +1,178 @@
+package kvj.taskw.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Timings of last syncs of an account. Fixed size ring, saved to account folder after every sync.
+ */
+public class SyncHistory {
+
+    public static final int CAPACITY = 50;
+    public static final String FILE = "sync.history.txt";
+
+    public static class Record {
+
+        public final long started;
+        public final String trigger;
+        public final String version;
+        public volatile long spawn = -1; // Process start
+        public volatile long connect = -1; // TCP connect to taskd
+        public volatile long handshake = -1;
+        public volatile boolean resumed = false;
+        public volatile long sent = 0;
+        public volatile long received = 0;
+        public volatile long response = -1; // Request sent -> response header received
+        public volatile long total = -1;
+        public volatile boolean success = false;
+
+        public Record(String trigger, String version) {
+            this(System.currentTimeMillis(), trigger, version);
+        }
+
+        private Record(long started, String trigger, String version) {
+            this.started = started;
+            this.trigger = null == trigger ? "" : trigger;
+            this.version = null == version ? "" : version;
+        }
+
+        public void finish(boolean success) {
+            this.success = success;
+            this.total = System.currentTimeMillis() - started;
+        }
+
+        private String format() {
+            return String.format(Locale.US, "%d\t%s\t%s\t%d\t%d\t%d\t%s\t%d\t%d\t%d\t%d\t%s",
+                                 started, trigger, version, spawn, connect, handshake, resumed,
+                                 sent, received, response, total, success);
+        }
+
+        private static Record parse(String line) {
+            String[] parts = line.split("\t");
+            if (parts.length < 12) {
+                return null;
+            }
+            try {
+                Record record = new Record(Long.parseLong(parts[0]), parts[1], parts[2]);
+                record.spawn = Long.parseLong(parts[3]);
+                record.connect = Long.parseLong(parts[4]);
+                record.handshake = Long.parseLong(parts[5]);
+                record.resumed = Boolean.parseBoolean(parts[6]);
+                record.sent = Long.parseLong(parts[7]);
+                record.received = Long.parseLong(parts[8]);
+                record.response = Long.parseLong(parts[9]);
+                record.total = Long.parseLong(parts[10]);
+                record.success = Boolean.parseBoolean(parts[11]);
+                return record;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static String ms(long value) {
+            return value < 0 ? "-" : String.format(Locale.US, "%d ms", value);
+        }
+
+        @Override
+        public String toString() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            return String.format(Locale.US,
+                                 "%s %s %s [%s]: total %s, spawn %s, connect %s, handshake %s%s, response %s, sent %d, received %d",
+                                 format.format(new Date(started)), trigger, success ? "ok" : "failed", version,
+                                 ms(total), ms(spawn), ms(connect), ms(handshake), resumed ? " (resumed)" : "",
+                                 ms(response), sent, received);
+        }
+    }
+
+    private final File file;
+    private final Record[] ring = new Record[CAPACITY];
+    private int head = 0; // Next write position
+    private int size = 0;
+
+    /**
+     * @param folder account folder, in memory only if null
+     */
+    public SyncHistory(File folder) {
+        file = null == folder ? null : new File(folder, FILE);
+        load();
+    }
+
+    private void put(Record record) {
+        ring[head] = record;
+        head = (head + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+    }
+
+    private void load() {
+        if (null == file || !file.isFile()) {
+            return;
+        }
+        try {
+            BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+            String line;
+            while ((line = br.readLine()) != null) {
+                Record record = Record.parse(line);
+                if (null != record) {
+                    put(record);
+                }
+            }
+            br.close();
+        } catch (Exception e) {
+            // Start from scratch
+        }
+    }
+
+    private void save() {
+        if (null == file) {
+            return;
+        }
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
+            for (Record record : records()) {
+                writer.write(record.format());
+                writer.write('\n');
+            }
+            writer.close();
+        } catch (Exception e) {
+            // Not critical
+        }
+    }
+
+    public synchronized void add(Record record) {
+        put(record);
+        save();
+    }
+
+    /**
+     * Oldest first.
+     */
+    public synchronized List<Record> records() {
+        List<Record> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(ring[(head - size + i + ring.length) % ring.length]);
+        }
+        return result;
+    }
+
+    /**
+     * Newest first, for display.
+     */
+    public synchronized ArrayList<String> lines() {
+        ArrayList<String> result = new ArrayList<>(size);
+        List<Record> records = records();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            result.add(records.get(i).toString());
+        }
+        return result;
+    }
+}
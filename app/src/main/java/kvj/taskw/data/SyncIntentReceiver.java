@@ -9,7 +9,10 @@ import android.text.TextUtils;
 import org.kvj.bravo7.log.Logger;
 import org.kvj.bravo7.util.Tasks;
 
+import java.util.List;
+
 import kvj.taskw.App;
+import kvj.taskw.sync.SyncOrchestrator;
 
 /**
  * Created by vorobyev on 11/25/15.
@@ -33,7 +36,30 @@ public class SyncIntentReceiver extends BroadcastReceiver {
                 if (TextUtils.isEmpty(account)) {
                     account = controller.currentAccount();
                 }
-                return controller.accountController(account).taskSync();
+                String trigger = intent.getStringExtra(App.KEY_SYNC_TRIGGER);
+                if (TextUtils.isEmpty(trigger) && null != intent.getData()) { // Older intents
+                    trigger = intent.getData().getSchemeSpecificPart();
+                }
+                try {
+                    // Accounts due soon sync under the same lock
+                    List<SyncOrchestrator.Result> results = controller.syncAccounts(account, trigger);
+                    StringBuilder errors = new StringBuilder();
+                    for (SyncOrchestrator.Result result : results) {
+                        if (null == result.error) {
+                            continue;
+                        }
+                        if (errors.length() > 0) {
+                            errors.append('\n');
+                        }
+                        if (results.size() > 1) {
+                            errors.append(result.name).append(": ");
+                        }
+                        errors.append(result.error);
+                    }
+                    return errors.length() > 0 ? errors.toString() : null;
+                } catch (InterruptedException e) {
+                    return "Sync interrupted";
+                }
             }
 
             @Override
@@ -0,0 +1,140 @@
+package kvj.taskw.data;
+
+import java.util.Random;
+
+/**
+ * Decides when next sync alarm of an account should fire. Config (android.sync.*) is read once
+ * and kept until account is re-initialized, so changes don't need task binary calls.
+ * Bursts of changes are coalesced into one sync after a quiet period, failures are retried
+ * with exponential backoff and jitter.
+ */
+public class SyncScheduler {
+
+    public static final int MAX_BACKOFF_FACTOR = 32; // onerror * 32 at most
+    public static final int MAX_COALESCE_FACTOR = 4; // Burst is delayed at most onchange * 4
+    public static final long GRANULARITY = 1000; // Don't re-arm alarm for a smaller shift, ms
+
+    private final Random random;
+    private boolean configured = false;
+    private long periodical = 0; // ms, 0 - disabled
+    private long onError = 0;
+    private long onChange = 0;
+
+    private int failures = 0;
+    private long burstStart = -1; // First change not synced yet
+    private long notBefore = -1; // Backoff: changes don't pull sync earlier
+    private long scheduled = -1; // Current alarm
+    private boolean byChange = false; // Current alarm is for a burst of changes
+
+    public SyncScheduler() {
+        this(new Random());
+    }
+
+    SyncScheduler(Random random) {
+        this.random = random;
+    }
+
+    private static long millis(double minutes) {
+        return minutes > 0 ? (long) (minutes * 60000.0) : 0;
+    }
+
+    public synchronized boolean configured() {
+        return configured;
+    }
+
+    /**
+     * @param periodical, onError, onChange minutes, zero or less to disable
+     */
+    public synchronized void configure(double periodical, double onError, double onChange) {
+        this.periodical = millis(periodical);
+        this.onError = millis(onError);
+        this.onChange = millis(onChange);
+        configured = true;
+    }
+
+    private long schedule(long at, boolean change) {
+        scheduled = at;
+        byChange = change;
+        return at;
+    }
+
+    private boolean pending(long now) {
+        return scheduled > now;
+    }
+
+    /**
+     * Account started: periodical sync.
+     * @return alarm time or -1 to leave alarm as is
+     */
+    public synchronized long started(long now) {
+        if (periodical <= 0) {
+            return -1;
+        }
+        return schedule(now + periodical, false);
+    }
+
+    /**
+     * Task modified: sync after quiet period, but not later than MAX_COALESCE_FACTOR quiet periods
+     * after first change of a burst. Earlier alarm is kept - that sync will take the change.
+     * @return alarm time or -1 to leave alarm as is
+     */
+    public synchronized long changed(long now) {
+        if (onChange <= 0) {
+            return -1;
+        }
+        if (burstStart < 0 || burstStart > now) {
+            burstStart = now;
+        }
+        long at = Math.min(now + onChange, burstStart + onChange * MAX_COALESCE_FACTOR);
+        at = Math.max(at, notBefore);
+        if (pending(now) && !byChange && scheduled <= at) { // Periodical or retry comes first
+            return -1;
+        }
+        if (pending(now) && Math.abs(at - scheduled) < GRANULARITY) { // Same time
+            return -1;
+        }
+        return schedule(at, true);
+    }
+
+    public synchronized long succeeded(long now) {
+        failures = 0;
+        burstStart = -1;
+        notBefore = -1;
+        scheduled = -1;
+        return started(now);
+    }
+
+    /**
+     * Delay is onerror * 2^(failures - 1), capped, of which random half is subtracted.
+     * @return alarm time or -1 to leave alarm as is
+     */
+    public synchronized long failed(long now) {
+        failures++;
+        scheduled = -1;
+        if (onError <= 0) {
+            notBefore = -1;
+            return -1;
+        }
+        long delay = onError * Math.min(1L << Math.min(failures - 1, 30), MAX_BACKOFF_FACTOR);
+        delay -= (long) (random.nextDouble() * delay / 2);
+        notBefore = now + delay;
+        return schedule(notBefore, false);
+    }
+
+    /**
+     * @return time of current alarm or -1
+     */
+    public synchronized long next() {
+        return scheduled;
+    }
+
+    public synchronized int failures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Sync schedule: periodical %d, onerror %d, onchange %d s, failures %d, next %d",
+                             periodical / 1000, onError / 1000, onChange / 1000, failures, scheduled);
+    }
+}
@@ -0,0 +1,362 @@
+package kvj.taskw.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Task data files, as needed by Java sync: reads local changes from backlog.data and merges
+ * tasks received from taskd into pending.data/completed.data (FF4 lines), like task binary does.
+ * Files are replaced together: new versions are written next to them, then journal with their names,
+ * then they are renamed. Interrupted replace is finished (journal is there) or dropped (it isn't) on next use.
+ */
+public class TaskData {
+
+    public static final String BACKLOG = "backlog.data";
+    public static final String PENDING = "pending.data";
+    public static final String COMPLETED = "completed.data";
+    static final String JOURNAL = "sync.commit";
+    static final String NEW = ".new";
+
+    private static final Set<String> DATE_FIELDS = new HashSet<>(Arrays.asList(
+            "entry", "start", "end", "due", "until", "wait", "modified", "scheduled"));
+    private static final Set<String> PENDING_STATUSES = new HashSet<>(Arrays.asList(
+            "pending", "waiting", "recurring"));
+    private static final Pattern UUID_FIELD = Pattern.compile("uuid:\"([^\"]+)\"");
+    private static final Pattern SYNC_KEY = Pattern.compile(
+            "^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+
+    public static class Backlog {
+        public String syncKey = null;
+        public final List<String> changes = new ArrayList<>();
+    }
+
+    /**
+     * Received tasks, merged in memory as they arrive. Data files are not touched until commit.
+     */
+    public class Update {
+
+        private final Map<String, String> pending;
+        private final Map<String, String> completed;
+        private int size = 0;
+
+        private Update(Map<String, String> pending, Map<String, String> completed) {
+            this.pending = pending;
+            this.completed = completed;
+        }
+
+        /**
+         * Replaces or adds the task (JSON line). Order of unchanged pending tasks (and so their IDs) is kept.
+         */
+        public void put(String task) throws IOException {
+            try {
+                JSONObject json = new JSONObject(task);
+                String uuid = json.getString("uuid");
+                String ff4 = toF4(json, udaTypes);
+                if (PENDING_STATUSES.contains(json.optString("status"))) {
+                    completed.remove(uuid);
+                    pending.put(uuid, ff4); // Existing keeps its place
+                } else {
+                    pending.remove(uuid);
+                    completed.remove(uuid);
+                    completed.put(uuid, ff4);
+                }
+                size++;
+            } catch (JSONException e) {
+                throw new IOException("Invalid task received: " + e.getMessage());
+            }
+        }
+
+        /**
+         * @return number of tasks put
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Writes new data files and backlog with the sync key only (local changes are on the server now).
+         */
+        public void commit(String syncKey) throws IOException {
+            prepare(syncKey);
+            recover();
+        }
+
+        /**
+         * First half of commit: everything is written, nothing replaced yet.
+         */
+        void prepare(String syncKey) throws IOException {
+            List<String> names = new ArrayList<>();
+            if (size > 0) {
+                write(PENDING + NEW, pending.values());
+                write(COMPLETED + NEW, completed.values());
+                names.add(PENDING);
+                names.add(COMPLETED);
+            }
+            write(BACKLOG + NEW, Collections.singletonList(syncKey));
+            names.add(BACKLOG);
+            write(JOURNAL + NEW, names);
+            rename(JOURNAL + NEW, JOURNAL); // Commit point
+        }
+    }
+
+    private final File folder;
+    private final Map<String, String> udaTypes;
+
+    public TaskData(File folder) {
+        this(folder, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param udaTypes UDA name to its type (uda.name.type): date ones are converted, numeric and duration
+     *                 ones are not escaped
+     */
+    public TaskData(File folder, Map<String, String> udaTypes) {
+        this.folder = folder;
+        this.udaTypes = udaTypes;
+    }
+
+    private List<String> read(String name) throws IOException {
+        List<String> result = new ArrayList<>();
+        File file = new File(folder, name);
+        if (!file.isFile()) {
+            return result;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    result.add(line);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return result;
+    }
+
+    private void write(String name, Iterable<String> lines) throws IOException {
+        FileOutputStream stream = new FileOutputStream(new File(folder, name));
+        Writer writer = new OutputStreamWriter(stream, "utf-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+            stream.getFD().sync(); // On disk before rename
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void rename(String from, String to) throws IOException {
+        if (!new File(folder, from).renameTo(new File(folder, to))) {
+            throw new IOException("Failed to replace " + to);
+        }
+    }
+
+    /**
+     * Finishes replace of files listed in journal or drops new files written without it.
+     */
+    void recover() throws IOException {
+        File journal = new File(folder, JOURNAL);
+        if (journal.isFile()) {
+            for (String name : read(JOURNAL)) {
+                if (new File(folder, name + NEW).isFile()) { // Not moved yet
+                    rename(name + NEW, name);
+                }
+            }
+            if (!journal.delete()) {
+                throw new IOException("Failed to remove " + JOURNAL);
+            }
+            return;
+        }
+        for (String name : new String[]{PENDING, COMPLETED, BACKLOG, JOURNAL}) {
+            new File(folder, name + NEW).delete();
+        }
+    }
+
+    /**
+     * Local changes (JSON lines) and key of the last sync.
+     */
+    public Backlog backlog() throws IOException {
+        recover();
+        Backlog backlog = new Backlog();
+        for (String line : read(BACKLOG)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("{")) { // Change
+                backlog.changes.add(trimmed);
+            } else if (SYNC_KEY.matcher(trimmed).matches()) {
+                backlog.syncKey = trimmed;
+            }
+        }
+        return backlog;
+    }
+
+    private Map<String, String> readTasks(String name) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String line : read(name)) {
+            Matcher m = UUID_FIELD.matcher(line);
+            result.put(m.find() ? m.group(1) : "?" + result.size(), line);
+        }
+        return result;
+    }
+
+    /**
+     * Starts merge of received tasks with current data files.
+     */
+    public Update update() throws IOException {
+        recover();
+        return new Update(readTasks(PENDING), readTasks(COMPLETED));
+    }
+
+    static long epoch(String value) throws JSONException {
+        if (value.matches("\\d+")) { // Already
+            return Long.parseLong(value);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            return format.parse(value).getTime() / 1000;
+        } catch (ParseException e) {
+            throw new JSONException("Invalid date: " + value);
+        }
+    }
+
+    private static String join(Object value) throws JSONException {
+        if (!(value instanceof JSONArray)) {
+            return value.toString();
+        }
+        JSONArray array = (JSONArray) value;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < array.length(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(array.getString(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Numbers as JSON had them: no exponent or trailing ".0".
+     */
+    private static String number(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Escaping of string attributes, as Task::encode (json::encode (value)): JSON string escapes, then brackets.
+     */
+    static String encode(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '/': sb.append("\\/"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '[': sb.append("&open;"); break;
+                case ']': sb.append("&close;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Attribute type as task binary knows it: built-in ones, then UDAs, everything else is a string.
+     */
+    private static String type(String name, Map<String, String> udaTypes) {
+        if (DATE_FIELDS.contains(name)) return "date";
+        if ("imask".equals(name)) return "numeric";
+        if ("recur".equals(name)) return "duration";
+        String type = udaTypes.get(name);
+        return null == type ? "string" : type;
+    }
+
+    static String toF4(JSONObject json) throws JSONException {
+        return toF4(json, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Converts exported JSON task to FF4 line, as Task::composeF4: [name:"value" ...], attributes sorted by name,
+     * empty ones skipped. Dates are epoch seconds, only strings are escaped. Annotations become
+     * annotation_<entry> attributes, entry is moved to the next free second when taken (Task::addAnnotation).
+     */
+    static String toF4(JSONObject json, Map<String, String> udaTypes) throws JSONException {
+        Map<String, String> data = new TreeMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.get(key);
+            if ("id".equals(key) || "urgency".equals(key)) { // Calculated
+                continue;
+            }
+            if ("annotations".equals(key)) {
+                JSONArray annotations = json.getJSONArray(key);
+                for (int i = 0; i < annotations.length(); i++) {
+                    JSONObject ann = annotations.getJSONObject(i);
+                    long entry = epoch(ann.getString("entry"));
+                    while (data.containsKey("annotation_" + entry)) { // Same second
+                        entry++;
+                    }
+                    data.put("annotation_" + entry, encode(ann.optString("description")));
+                }
+                continue;
+            }
+            String type = type(key, udaTypes);
+            if ("date".equals(type)) {
+                data.put(key, Long.toString(epoch(value.toString())));
+            } else if ("numeric".equals(type)) {
+                data.put(key, number(value));
+            } else if ("duration".equals(type)) {
+                data.put(key, value.toString());
+            } else {
+                data.put(key, encode(join(value)));
+            }
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            if (sb.length() > 1) sb.append(' ');
+            sb.append(entry.getKey()).append(":\"").append(entry.getValue()).append('"');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,247 @@
+package kvj.taskw.sync;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared threads for sync proxy connections of all accounts.
+ * Connections run on a bounded executor, every account has its own concurrency limit,
+ * so a burst of sync triggers is rejected instead of spawning threads.
+ */
+public class ConnectionPool {
+
+    public static final int MAX_THREADS = 8;
+    public static final int QUEUE_SIZE = 16;
+    public static final int ACCOUNT_LIMIT = 2;
+    public static final long SHUTDOWN_GRACE = 30 * 1000;
+
+    public interface Connection {
+
+        /**
+         * Does the transfer, reports bytes with Account.transferred().
+         */
+        public void run() throws Exception;
+
+        /**
+         * Closes sockets to interrupt the transfer. Called from another thread.
+         */
+        public void abort();
+    }
+
+    private static ThreadFactory threads(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, String.format("%s-%d", prefix, counter.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService service; // Accept loops and shutdown waits: one per account
+
+    public ConnectionPool() {
+        this(MAX_THREADS, QUEUE_SIZE);
+    }
+
+    public ConnectionPool(int threads, int queue) {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queue), threads("sync-proxy"));
+        executor.allowCoreThreadTimeOut(true);
+        service = Executors.newCachedThreadPool(threads("sync-accept"));
+    }
+
+    public Account account(String name) {
+        return account(name, ACCOUNT_LIMIT);
+    }
+
+    public Account account(String name, int limit) {
+        return new Account(name, limit);
+    }
+
+    public int threads() {
+        return executor.getPoolSize();
+    }
+
+    public class Account {
+
+        private final String name;
+        private final int limit;
+        private final Set<Connection> active = new HashSet<>();
+        private boolean closed = false;
+
+        private int total = 0;
+        private int failed = 0;
+        private int rejected = 0;
+        private long sent = 0;
+        private long received = 0;
+        private long time = 0;
+        private long maxTime = 0;
+
+        private Account(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        /**
+         * Runs accept loop on shared service. Loop should end when its socket is closed.
+         */
+        public void listen(Runnable loop) {
+            service.execute(loop);
+        }
+
+        /**
+         * Schedules connection. Rejected connections are aborted right away.
+         * @return false if account is stopped, over its limit or executor is full
+         */
+        public boolean submit(final Connection connection) {
+            synchronized (this) {
+                if (closed || active.size() >= limit) {
+                    rejected++;
+                    connection.abort();
+                    return false;
+                }
+                active.add(connection);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(connection);
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    active.remove(connection);
+                    rejected++;
+                    notifyAll();
+                }
+                connection.abort();
+                return false;
+            }
+        }
+
+        private void execute(Connection connection) {
+            long started = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                connection.run();
+                success = true;
+            } catch (Exception e) {
+                connection.abort();
+            } finally {
+                long spent = System.currentTimeMillis() - started;
+                synchronized (this) {
+                    active.remove(connection);
+                    total++;
+                    if (!success) {
+                        failed++;
+                    }
+                    time += spent;
+                    maxTime = Math.max(maxTime, spent);
+                    notifyAll();
+                }
+            }
+        }
+
+        public synchronized void transferred(long bytesSent, long bytesReceived) {
+            sent += bytesSent;
+            received += bytesReceived;
+        }
+
+        /**
+         * Rejects new connections, lets running ones finish within grace period, then aborts them.
+         * Doesn't block the caller.
+         */
+        public void shutdown(final long grace) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (active.isEmpty()) {
+                    return;
+                }
+            }
+            service.execute(new Runnable() {
+                @Override
+                public void run() {
+                    awaitIdle(grace);
+                    List<Connection> left;
+                    synchronized (Account.this) {
+                        left = new ArrayList<>(active);
+                    }
+                    for (Connection connection : left) {
+                        connection.abort();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits for running connections to finish.
+         * @return true if nothing is running
+         */
+        public synchronized boolean awaitIdle(long timeout) {
+            long until = System.currentTimeMillis() + timeout;
+            while (!active.isEmpty()) {
+                long left = until - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    return active.isEmpty();
+                }
+            }
+            return true;
+        }
+
+        public synchronized int active() {
+            return active.size();
+        }
+
+        public synchronized int total() {
+            return total;
+        }
+
+        public synchronized int failed() {
+            return failed;
+        }
+
+        public synchronized int rejected() {
+            return rejected;
+        }
+
+        public synchronized long sent() {
+            return sent;
+        }
+
+        public synchronized long received() {
+            return received;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("Connections %s: active %d, done %d, failed %d, rejected %d, " +
+                                 "sent %d, received %d, average %d ms, max %d ms",
+                                 name, active.size(), total, failed, rejected, sent, received,
+                                 total > 0 ? time / total : 0, maxTime);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package kvj.taskw.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches key stores built from taskd.ca, taskd.certificate and taskd.key PEM files.
+ * Key is the hash of files' contents. Parsed key stores are kept in memory and saved to
+ * app-private folder, so PEM/DER parsing is only done when a file changes.
+ * Server key pins of taskd.trust = pin are kept in the same folder.
+ */
+public class CredentialCache {
+
+    private static final String EXT = ".keystore";
+    private static final String PIN_EXT = ".pin";
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000; // Unused files are removed
+
+    public enum Source {Memory, Disk, Parsed}
+
+    public static class Credentials {
+        public final String hash;
+        public final KeyStore keyStore;
+        public final Source source;
+
+        private Credentials(String hash, KeyStore keyStore, Source source) {
+            this.hash = hash;
+            this.keyStore = keyStore;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Credentials %s from %s", hash.substring(0, 12), source);
+        }
+    }
+
+    private final File folder;
+    private final Map<String, KeyStore> memory = new HashMap<>();
+
+    public CredentialCache(File folder) {
+        this.folder = folder;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return SSLHelper.fromStream(new FileInputStream(file));
+    }
+
+    static String hash(byte[]... parts) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) { // Length first: content can't shift between files
+            int len = part.length;
+            digest.update(new byte[]{(byte) (len >>> 24), (byte) (len >>> 16), (byte) (len >>> 8), (byte) len});
+            digest.update(part);
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b & 0xff));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Parses PEM contents. Separate method to be replaced in tests.
+     */
+    protected KeyStore parse(byte[] ca, byte[] cert, byte[] key) throws GeneralSecurityException, IOException {
+        return SSLHelper.credentialsPEM(new ByteArrayInputStream(ca),
+                                        new ByteArrayInputStream(cert),
+                                        new ByteArrayInputStream(key));
+    }
+
+    private File file(String hash) {
+        return new File(folder, hash + EXT);
+    }
+
+    private KeyStore loadFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(stream, SSLHelper.PASSWORD);
+            file.setLastModified(System.currentTimeMillis()); // Still in use
+            return keyStore;
+        } catch (Exception e) {
+            SSLHelper.logger.w(e, "Failed to load cached credentials:", file);
+            file.delete();
+            return null;
+        } finally {
+            close(stream);
+        }
+    }
+
+    private void saveFile(File file, KeyStore keyStore) {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            SSLHelper.logger.w("Failed to create folder:", folder);
+            return;
+        }
+        File tmp = new File(folder, file.getName() + ".tmp");
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(tmp);
+            keyStore.store(stream, SSLHelper.PASSWORD);
+            stream.close();
+            stream = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Rename failed");
+            }
+        } catch (Exception e) {
+            SSLHelper.logger.w(e, "Failed to save credentials:", file);
+            tmp.delete();
+        } finally {
+            close(stream);
+        }
+    }
+
+    private void prune() {
+        File[] files = folder.listFiles();
+        if (null == files) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            boolean cached = file.getName().endsWith(EXT) || file.getName().endsWith(PIN_EXT);
+            if (cached && now - file.lastModified() > MAX_AGE) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void close(Closeable stream) {
+        if (null != stream) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * @return file for server key pin of the account using credentials with given hash
+     */
+    public File pinFile(String account, String hash) throws GeneralSecurityException, IOException {
+        return new File(folder, hash(account.getBytes("utf-8"), hash.getBytes("utf-8")) + PIN_EXT);
+    }
+
+    public Credentials load(File caFile, File certFile, File keyFile) throws GeneralSecurityException, IOException {
+        byte[] ca = read(caFile);
+        byte[] cert = read(certFile);
+        byte[] key = read(keyFile);
+        String hash = hash(ca, cert, key);
+        synchronized (this) {
+            KeyStore keyStore = memory.get(hash);
+            if (null != keyStore) {
+                return new Credentials(hash, keyStore, Source.Memory);
+            }
+            keyStore = loadFile(file(hash));
+            if (null != keyStore) {
+                memory.put(hash, keyStore);
+                return new Credentials(hash, keyStore, Source.Disk);
+            }
+            keyStore = parse(ca, cert, key);
+            memory.put(hash, keyStore);
+            saveFile(file(hash), keyStore);
+            prune();
+            return new Credentials(hash, keyStore, Source.Parsed);
+        }
+    }
+}
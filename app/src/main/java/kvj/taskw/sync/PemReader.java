@@ -0,0 +1,233 @@
+package kvj.taskw.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads PEM blocks ("-----BEGIN type-----" ... "-----END type-----") one by one from a stream.
+ * Base64 is decoded line by line into a buffer reused for every block, so only one line of text is kept.
+ * Text outside of blocks is skipped, RFC 1421 headers are skipped, encrypted blocks are rejected.
+ */
+public class PemReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes();
+    private static final byte[] END = "-----END ".getBytes();
+    private static final byte[] DASHES = "-----".getBytes();
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64[i] = -1;
+        }
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private int inputPos = 0;
+    private int inputCount = 0;
+    private byte[] line = new byte[128];
+    private int lineLength = 0;
+    private byte[] data = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private String type = null;
+
+    // Base64 state
+    private int bits = 0;
+    private int chars = 0;
+    private int padding = 0;
+
+    public PemReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads next line without line end into line buffer.
+     * @return false at end of stream
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean any = false;
+        while (true) {
+            if (inputPos == inputCount) {
+                inputCount = in.read(input);
+                inputPos = 0;
+                if (inputCount <= 0) {
+                    inputCount = 0;
+                    return any;
+                }
+            }
+            any = true;
+            byte b = input[inputPos++];
+            if (b == '\n') {
+                break;
+            }
+            if (lineLength == line.length) {
+                byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            line[lineLength++] = b;
+        }
+        while (lineLength > 0 && (line[lineLength - 1] == '\r' || line[lineLength - 1] == ' ')) {
+            lineLength--;
+        }
+        return true;
+    }
+
+    private boolean lineStartsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return label between prefix and dashes or null if line is not such delimiter
+     */
+    private String label(byte[] prefix) {
+        if (!lineStartsWith(prefix) || lineLength < prefix.length + DASHES.length) {
+            return null;
+        }
+        for (int i = 0; i < DASHES.length; i++) {
+            if (line[lineLength - DASHES.length + i] != '-') {
+                return null;
+            }
+        }
+        return new String(line, prefix.length, lineLength - prefix.length - DASHES.length);
+    }
+
+    private void output(int b) {
+        if (length == data.length) {
+            byte[] grown = new byte[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+        }
+        data[length++] = (byte) b;
+    }
+
+    private void decodeLine() throws IOException {
+        for (int i = 0; i < lineLength; i++) {
+            int c = line[i];
+            if (c == ' ' || c == '\t') {
+                continue;
+            }
+            if (c == '=') {
+                padding++;
+                continue;
+            }
+            int value = c >= 0 ? BASE64[c] : -1;
+            if (value < 0 || padding > 0) {
+                throw new IOException("Invalid base64 in PEM block " + type);
+            }
+            bits = (bits << 6) | value;
+            if (++chars == 4) {
+                output(bits >> 16);
+                output(bits >> 8);
+                output(bits);
+                bits = 0;
+                chars = 0;
+            }
+        }
+    }
+
+    private void finishBase64() throws IOException {
+        switch (chars) {
+            case 0:
+                break;
+            case 2:
+                output(bits >> 4);
+                break;
+            case 3:
+                output(bits >> 10);
+                output(bits >> 2);
+                break;
+            default:
+                throw new IOException("Truncated base64 in PEM block " + type);
+        }
+        bits = 0;
+        chars = 0;
+        padding = 0;
+    }
+
+    /**
+     * Reads next block, its data is available until the next call.
+     * @return block type, like CERTIFICATE, or null if there are no more blocks
+     */
+    public String next() throws IOException {
+        type = null;
+        length = 0;
+        while (readLine()) {
+            String begin = label(BEGIN);
+            if (null == begin) {
+                continue;
+            }
+            type = begin;
+            while (readLine()) {
+                String end = label(END);
+                if (null != end) {
+                    if (!type.equals(end)) {
+                        throw new IOException("PEM block " + type + " ended as " + end);
+                    }
+                    finishBase64();
+                    return type;
+                }
+                int colon = -1;
+                for (int i = 0; i < lineLength && colon == -1; i++) {
+                    if (line[i] == ':') {
+                        colon = i;
+                    }
+                }
+                if (colon != -1) { // Header
+                    if (new String(line, 0, lineLength).contains("ENCRYPTED")) {
+                        throw new IOException("Encrypted PEM block " + type + " is not supported");
+                    }
+                    continue;
+                }
+                decodeLine();
+            }
+            throw new IOException("PEM block " + type + " is not ended");
+        }
+        return null;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return copy of the current block data
+     */
+    public byte[] getBytes() {
+        byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * @return read-only view of the current block data, valid until next block is read
+     */
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,187 @@
+package kvj.taskw.sync;
+
+import org.kvj.bravo7.log.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Trust manager for taskd.trust = pin: server certificate whose public key (SHA-256 of SubjectPublicKeyInfo)
+ * passed full validation before is accepted without building certificate path again.
+ * First contact, another key or failed check of the pinned one go to the full (PKIX) validation, which pins
+ * the key when it passes. Pin is saved to a file (per account and credentials, see CredentialCache.pinFile) and
+ * loaded with the TLS context, so the first handshake after app restart is pinned too.
+ * Time of every check goes to the debug log, the last one of a thread is also available to the code doing
+ * the handshake (see SSLHelper.lastTrustCheck).
+ */
+class PinnedTrustManager implements X509TrustManager {
+
+    private static final Logger logger = Logger.forClass(PinnedTrustManager.class);
+    private static final ThreadLocal<String> lastCheck = new ThreadLocal<>();
+
+    private static final int HASH_SIZE = 32;
+
+    private final X509TrustManager validator;
+    private final File file;
+    private volatile byte[] pin;
+    private int pinned = 0;
+    private int validated = 0;
+
+    PinnedTrustManager(X509TrustManager validator) {
+        this(validator, null);
+    }
+
+    /**
+     * @param file pin is loaded from and saved to, null to keep it in memory only
+     */
+    PinnedTrustManager(X509TrustManager validator, File file) {
+        this.validator = validator;
+        this.file = file;
+        this.pin = load(file);
+    }
+
+    private static byte[] load(File file) {
+        if (null == file || !file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] hash = SSLHelper.fromStream(new FileInputStream(file));
+            if (hash.length != HASH_SIZE) {
+                throw new IOException("Invalid size: " + hash.length);
+            }
+            file.setLastModified(System.currentTimeMillis()); // Still in use
+            return hash;
+        } catch (IOException e) {
+            logger.w(e, "Failed to load server key pin:", file);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void save(byte[] hash) {
+        if (null == file) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream stream = null;
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Failed to create folder");
+            }
+            stream = new FileOutputStream(tmp);
+            stream.write(hash);
+            stream.close();
+            stream = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Rename failed");
+            }
+        } catch (IOException e) {
+            logger.w(e, "Failed to save server key pin:", file);
+            tmp.delete();
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    static byte[] spkiHash(X509Certificate certificate) throws CertificateException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(certificate.getPublicKey().getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("SPKI hash failed", e);
+        }
+    }
+
+    /**
+     * @return result and time of the last check made by this thread, once
+     */
+    static String takeLastCheck() {
+        String result = lastCheck.get();
+        lastCheck.remove();
+        return result;
+    }
+
+    private static void checked(String result, long started) {
+        String check = String.format("%s in %d us", result, (System.nanoTime() - started) / 1000);
+        lastCheck.set(check);
+        logger.d("Server certificate:", check);
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        validator.checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        if (null == chain || chain.length == 0) {
+            throw new CertificateException("No server certificate");
+        }
+        long started = System.nanoTime();
+        byte[] hash = spkiHash(chain[0]);
+        byte[] current = pin;
+        if (null != current && MessageDigest.isEqual(current, hash)) {
+            try {
+                chain[0].checkValidity();
+                synchronized (this) {
+                    pinned++;
+                }
+                checked("key pinned", started);
+                return;
+            } catch (CertificateException e) {
+                logger.d("Pinned server certificate not valid:", e.getMessage());
+            }
+        } else {
+            logger.d(null == current ? "No server key pinned" : "Server key changed", "- full validation");
+        }
+        try {
+            validator.checkServerTrusted(chain, authType);
+        } catch (CertificateException e) {
+            checked("rejected (" + e.getMessage() + ")", started);
+            throw e;
+        }
+        pin = hash;
+        synchronized (this) {
+            validated++;
+            save(hash);
+        }
+        checked(null == current ? "validated, key pinned" : "validated, pin replaced", started);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return validator.getAcceptedIssuers();
+    }
+
+    /**
+     * @return handshakes accepted by pin
+     */
+    public synchronized int pinned() {
+        return pinned;
+    }
+
+    /**
+     * @return handshakes passed full validation
+     */
+    public synchronized int validated() {
+        return validated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Pinned trust: %d pinned, %d validated", pinned, validated);
+    }
+}
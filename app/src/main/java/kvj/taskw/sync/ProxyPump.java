@@ -0,0 +1,119 @@
+package kvj.taskw.sync;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Relays taskd messages (4-byte big-endian total length, then payload) between task binary and server.
+ * One instance per connection: buffer is reused for both directions and every message is
+ * written in buffer-sized chunks with a single flush at the end.
+ */
+public class ProxyPump {
+
+    public static final int HEADER_SIZE = 4;
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int SOCKET_BUFFER_SIZE = 128 * 1024;
+    public static final int CONNECT_TIMEOUT = 30 * 1000;
+    public static final int READ_TIMEOUT = 120 * 1000;
+
+    private final byte[] buffer;
+    private long headerAt = -1;
+
+    public ProxyPump() {
+        this(BUFFER_SIZE);
+    }
+
+    public ProxyPump(int bufferSize) {
+        buffer = new byte[Math.max(bufferSize, HEADER_SIZE)];
+    }
+
+    /**
+     * Reads exactly len bytes or fails.
+     */
+    static void readFully(InputStream from, byte[] to, int offset, int len) throws IOException {
+        int done = 0;
+        while (done < len) {
+            int recv = from.read(to, offset + done, len - done);
+            if (recv == -1) {
+                throw new EOFException(String.format("Stream closed: %d of %d bytes read", done, len));
+            }
+            done += recv;
+        }
+    }
+
+    static int messageSize(byte[] head) {
+        return ((head[0] & 0xff) << 24) | ((head[1] & 0xff) << 16) | ((head[2] & 0xff) << 8) | (head[3] & 0xff);
+    }
+
+    /**
+     * Copies one message from input to output.
+     * @return bytes transferred, including header
+     */
+    public long relay(InputStream from, OutputStream to) throws IOException {
+        readFully(from, buffer, 0, HEADER_SIZE);
+        headerAt = System.currentTimeMillis();
+        int size = messageSize(buffer);
+        if (size < HEADER_SIZE) { // Also catches sizes above 2 GB
+            throw new IOException("Invalid message size: " + size);
+        }
+        long bytes = 0;
+        int pos = HEADER_SIZE;
+        long remaining = size - HEADER_SIZE;
+        while (remaining > 0) {
+            int recv = from.read(buffer, pos, (int) Math.min(buffer.length - pos, remaining));
+            if (recv == -1) {
+                throw new EOFException(String.format("Message truncated: %d of %d bytes read", bytes + pos, size));
+            }
+            pos += recv;
+            remaining -= recv;
+            if (pos == buffer.length) { // Full - pass it on, no flush yet
+                to.write(buffer, 0, pos);
+                bytes += pos;
+                pos = 0;
+            }
+        }
+        to.write(buffer, 0, pos);
+        to.flush();
+        return bytes + pos;
+    }
+
+    /**
+     * @return time when header of the last message was received, ms
+     */
+    public long headerAt() {
+        return headerAt;
+    }
+
+    /**
+     * Applies latency and throughput settings. Buffer sizes should be set before connect.
+     */
+    public static void tune(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+        socket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+        socket.setSoTimeout(READ_TIMEOUT);
+    }
+
+    /**
+     * Opens tuned TCP connection and layers TLS over it. Handshake is done on first use.
+     */
+    public static SSLSocket connect(SSLSocketFactory factory, String host, int port) throws IOException {
+        Socket plain = new Socket();
+        try {
+            tune(plain);
+            plain.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            return (SSLSocket) factory.createSocket(plain, host, port, true);
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package kvj.taskw.sync;
 
-import android.util.Base64;
-
 import org.kvj.bravo7.log.Logger;
 import org.kvj.bravo7.util.Compat;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -17,13 +17,15 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAPrivateCrtKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -33,13 +35,21 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
-import kvj.taskw.sync.der.DerInputStream;
+import kvj.taskw.sync.der.DerReader;
 import kvj.taskw.sync.der.DerValue;
+import kvj.taskw.sync.der.DerWriter;
+import kvj.taskw.sync.der.ObjectIdentifier;
 
 public class SSLHelper {
 
     static Logger logger = Logger.forClass(SSLHelper.class);
 
+    static final String CA_ALIAS = "ca";
+    static final String KEY_ALIAS = "private-key";
+    static final char[] PASSWORD = "".toCharArray();
+    static final String RSA_OID = "1.2.840.113549.1.1.1";
+    static final String EC_OID = "1.2.840.10045.2.1";
+
     protected static byte[] fromStream(InputStream inputStream) throws IOException {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         byte[] buffer = new byte[1024];
@@ -52,45 +62,94 @@ public class SSLHelper {
         return outputStream.toByteArray();
     }
 
+    /**
+     * @return data of the first PEM block
+     */
     protected static byte[] parseDERFromPEM(String data) throws IOException {
-        String[] tokens = data.split("\n");
-        StringBuilder b64 = new StringBuilder();
-        int delimiters = 0;
-        for (String token : tokens) {
-            if (token.startsWith("-----") && token.endsWith("-----")) {
-                delimiters++;
-                if (delimiters  == 2) {
-                    break;
-                }
-                continue;
-            }
-            if (delimiters == 1) {
-                b64.append(token);
-            }
+        PemReader reader = new PemReader(new ByteArrayInputStream(data.getBytes("ascii")));
+        if (null == reader.next()) {
+            throw new IOException("No PEM data");
         }
-        return Base64.decode(b64.toString(), Base64.DEFAULT);
+        return reader.getBytes();
     }
 
-    protected static X509Certificate loadCertificate(InputStream stream) throws CertificateException, FileNotFoundException {
+    /**
+     * Reads all certificates: every CERTIFICATE block of PEM or one DER encoded.
+     */
+    protected static List<X509Certificate> loadCertificates(InputStream stream) throws CertificateException, IOException {
         CertificateFactory fact = CertificateFactory.getInstance("X.509");
-        return (X509Certificate) fact.generateCertificate(stream);
+        List<X509Certificate> result = new ArrayList<>();
+        InputStream in = new BufferedInputStream(stream);
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first == DerValue.tag_Sequence) { // Binary
+            result.add((X509Certificate) fact.generateCertificate(in));
+            return result;
+        }
+        PemReader reader = new PemReader(in);
+        String type;
+        while ((type = reader.next()) != null) {
+            if ("CERTIFICATE".equals(type)) {
+                result.add((X509Certificate) fact.generateCertificate(new ByteArrayInputStream(reader.getBytes())));
+            }
+        }
+        if (result.isEmpty()) {
+            throw new CertificateException("No certificate found");
+        }
+        return result;
+    }
+
+    protected static X509Certificate loadCertificate(InputStream stream) throws CertificateException, IOException {
+        return loadCertificates(stream).get(0);
     }
 
+    /**
+     * Reads first private key of PEM: PKCS#1 RSA, SEC1 EC or unencrypted PKCS#8 RSA/EC.
+     */
     protected static PrivateKey loadPrivateKey(InputStream stream) throws IOException, GeneralSecurityException {
-        byte[] key = fromStream(stream);
-        DerInputStream derReader = new DerInputStream(parseDERFromPEM(new String(key)));
-        DerValue[] seq = derReader.getSequence(0);
-        if (seq.length < 9) {
-            throw new GeneralSecurityException("Could not parse a PKCS1 private key.");
-        }
-        BigInteger modulus = seq[1].getBigInteger();
-        BigInteger publicExp = seq[2].getBigInteger();
-        BigInteger privateExp = seq[3].getBigInteger();
-        BigInteger prime1 = seq[4].getBigInteger();
-        BigInteger prime2 = seq[5].getBigInteger();
-        BigInteger exp1 = seq[6].getBigInteger();
-        BigInteger exp2 = seq[7].getBigInteger();
-        BigInteger crtCoef = seq[8].getBigInteger();
+        PemReader reader = new PemReader(stream);
+        try {
+            String type;
+            while ((type = reader.next()) != null) {
+                switch (type) {
+                    case "RSA PRIVATE KEY":
+                        return rsaPrivateKey(new DerReader(reader.getBuffer()));
+                    case "EC PRIVATE KEY":
+                        return pkcs8PrivateKey(ecPKCS8(new DerReader(reader.getBuffer()), reader.getBytes()));
+                    case "PRIVATE KEY":
+                        return pkcs8PrivateKey(reader.getBytes());
+                    case "EC PARAMETERS": // openssl ecparam -genkey writes them before the key
+                        continue;
+                    default:
+                        throw new GeneralSecurityException("Not supported private key: " + type);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        throw new GeneralSecurityException("No private key found");
+    }
+
+    private static PrivateKey rsaPrivateKey(DerReader derReader) throws IOException, GeneralSecurityException {
+        // RSAPrivateKey ::= SEQUENCE { version, modulus, publicExponent, privateExponent, prime1, prime2,
+        //                              exponent1, exponent2, coefficient, otherPrimeInfos OPTIONAL }
+        derReader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        BigInteger[] values = new BigInteger[9];
+        for (int i = 0; i < values.length; i++) {
+            if (derReader.next() != DerReader.PRIMITIVE) {
+                throw new GeneralSecurityException("Could not parse a PKCS1 private key.");
+            }
+            values[i] = derReader.getBigInteger();
+        }
+        BigInteger modulus = values[1];
+        BigInteger publicExp = values[2];
+        BigInteger privateExp = values[3];
+        BigInteger prime1 = values[4];
+        BigInteger prime2 = values[5];
+        BigInteger exp1 = values[6];
+        BigInteger exp2 = values[7];
+        BigInteger crtCoef = values[8];
 
         RSAPrivateCrtKeySpec keySpec = new RSAPrivateCrtKeySpec(modulus, publicExp, privateExp, prime1, prime2, exp1, exp2, crtCoef);
 
@@ -99,18 +158,97 @@ public class SSLHelper {
         return factory.generatePrivate(keySpec);
     }
 
+    /**
+     * PrivateKeyInfo ::= SEQUENCE { version, AlgorithmIdentifier, privateKey OCTET STRING }
+     */
+    private static PrivateKey pkcs8PrivateKey(byte[] pkcs8) throws IOException, GeneralSecurityException {
+        DerReader derReader = new DerReader(pkcs8);
+        derReader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        derReader.require(DerReader.PRIMITIVE, DerValue.tag_Integer);
+        derReader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        derReader.require(DerReader.PRIMITIVE, DerValue.tag_ObjectId);
+        ObjectIdentifier algorithm = derReader.getOID();
+        String keyAlgorithm;
+        if (algorithm.equals((Object) ObjectIdentifier.of(RSA_OID))) {
+            keyAlgorithm = "RSA";
+        } else if (algorithm.equals((Object) ObjectIdentifier.of(EC_OID))) {
+            keyAlgorithm = "EC";
+        } else {
+            throw new GeneralSecurityException("Not supported key algorithm: " + algorithm);
+        }
+        return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+    }
+
+    /**
+     * Wraps SEC1 key into PKCS#8, taking the curve from its parameters.
+     * ECPrivateKey ::= SEQUENCE { version, privateKey OCTET STRING, [0] parameters, [1] publicKey }
+     */
+    private static byte[] ecPKCS8(DerReader derReader, byte[] sec1) throws IOException, GeneralSecurityException {
+        derReader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        derReader.require(DerReader.PRIMITIVE, DerValue.tag_Integer);
+        derReader.require(DerReader.PRIMITIVE, DerValue.tag_OctetString);
+        byte parametersTag = DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 0);
+        while (derReader.next() == DerReader.START_CONSTRUCTED) {
+            if (derReader.getTag() != parametersTag) {
+                derReader.skip();
+                continue;
+            }
+            derReader.require(DerReader.PRIMITIVE, DerValue.tag_ObjectId);
+            return new DerWriter()
+                    .startSequence()
+                    .putInteger(0)
+                    .startSequence().putOID(ObjectIdentifier.of(EC_OID)).putOID(derReader.getOID()).end()
+                    .putOctetString(sec1)
+                    .end().toByteArray();
+        }
+        throw new GeneralSecurityException("EC private key without named curve");
+    }
+
     protected static KeyManager[] keyManagerFactoryPEM(InputStream certStream, InputStream keyStream) throws GeneralSecurityException, IOException {
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        Certificate cert = loadCertificate(certStream);
+        List<X509Certificate> chain = loadCertificates(certStream);
         keyStore.load(null);
 //        logger.d("Keystore:", cert.getPublicKey().getAlgorithm(), cert.getPublicKey().getFormat());
-        keyStore.setCertificateEntry("certificate", cert);
-        keyStore.setKeyEntry("private-key", loadPrivateKey(keyStream), "".toCharArray(), new Certificate[]{cert});
-        kmf.init(keyStore, "".toCharArray());
+        keyStore.setCertificateEntry("certificate", chain.get(0));
+        keyStore.setKeyEntry(KEY_ALIAS, loadPrivateKey(keyStream), PASSWORD, chain.toArray(new Certificate[chain.size()]));
+        return keyManagers(keyStore);
+    }
+
+    protected static KeyManager[] keyManagers(KeyStore keyStore) throws GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
         return kmf.getKeyManagers();
     }
 
+    /**
+     * Parses PEM files into one key store: every CA as trusted entry (ca, ca1, ...), private key with its
+     * certificate chain.
+     */
+    protected static KeyStore credentialsPEM(InputStream caStream, InputStream certStream, InputStream keyStream) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null);
+        List<X509Certificate> cas = loadCertificates(caStream);
+        for (int i = 0; i < cas.size(); i++) {
+            keyStore.setCertificateEntry(i == 0 ? CA_ALIAS : CA_ALIAS + i, cas.get(i));
+        }
+        List<X509Certificate> chain = loadCertificates(certStream);
+        keyStore.setKeyEntry(KEY_ALIAS, loadPrivateKey(keyStream), PASSWORD, chain.toArray(new Certificate[chain.size()]));
+        return keyStore;
+    }
+
+    /**
+     * @return CA entries stored by credentialsPEM
+     */
+    protected static List<X509Certificate> trustedCertificates(KeyStore credentials) throws KeyStoreException {
+        List<X509Certificate> result = new ArrayList<>();
+        for (String alias : Collections.list(credentials.aliases())) {
+            if (alias.startsWith(CA_ALIAS) && credentials.isCertificateEntry(alias)) {
+                result.add((X509Certificate) credentials.getCertificate(alias));
+            }
+        }
+        return result;
+    }
+
     public static TrustType parseTrustType(String trust) {
         TrustType result = TrustType.Strict;
         if ("ignore hostname".equals(trust)) {
@@ -119,51 +257,63 @@ public class SSLHelper {
         if ("allow all".equals(trust)) {
             result = SSLHelper.TrustType.All;
         }
+        if ("pin".equals(trust)) { // Strict for taskwarrior itself
+            result = SSLHelper.TrustType.Pinned;
+        }
         return result;
     }
 
-    public enum TrustType {Strict, Hostname, All};
+    public enum TrustType {Strict, Hostname, All, Pinned};
 
     protected static TrustManager[] trustManagerFactoryPEM(InputStream stream, final TrustType trustType) throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        return trustManagers(loadCertificates(stream), trustType);
+    }
+
+    protected static TrustManager[] trustManagers(final List<X509Certificate> certs, final TrustType trustType) throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        return trustManagers(certs, trustType, null);
+    }
+
+    /**
+     * @param pinFile where Pinned mode keeps server key between app starts, null for memory only
+     */
+    protected static TrustManager[] trustManagers(final List<X509Certificate> certs, final TrustType trustType, File pinFile) throws NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
         TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         keyStore.load(null);
-        final X509Certificate cert = loadCertificate(stream);
-        logger.d("Truststore:", cert.getIssuerDN().getName(), cert.getSubjectDN().getName());
-        keyStore.setCertificateEntry("ca", cert);
+        for (int i = 0; i < certs.size(); i++) {
+            X509Certificate cert = certs.get(i);
+            logger.d("Truststore:", cert.getIssuerDN().getName(), cert.getSubjectDN().getName());
+            keyStore.setCertificateEntry(i == 0 ? CA_ALIAS : CA_ALIAS + i, cert);
+        }
         tmf.init(keyStore);
         TrustManager[] orig = tmf.getTrustManagers();
-        TrustManager[] result = new TrustManager[orig.length+1];
-        System.arraycopy(orig, 0, result, 1, orig.length);
-        result[0] = new X509TrustManager() {
-            @Override
-            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            }
-
-            @Override
-            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                logger.d("Check server cert:", chain.length, authType, trustType);
-                for (X509Certificate c : chain) { // Check every cert
-                    logger.d("Check certificate:", c.getIssuerDN().getName(), c.getSubjectDN().getName());
-                }
+        if (trustType != TrustType.Pinned) {
+            return orig;
+        }
+        for (int i = 0; i < orig.length; i++) {
+            if (orig[i] instanceof X509TrustManager) { // Full validation behind the pin
+                TrustManager[] result = orig.clone();
+                result[i] = new PinnedTrustManager((X509TrustManager) orig[i], pinFile);
+                return result;
             }
+        }
+        return orig;
+    }
 
-            @Override
-            public X509Certificate[] getAcceptedIssuers() {
-                logger.d("Issuers:");
-                return new X509Certificate[]{cert};
-            }
-        };
-        return orig; // Not finished
+    /**
+     * @return how server certificate was checked by the last full handshake of this thread in Pinned mode, or null
+     */
+    public static String lastTrustCheck() {
+        return PinnedTrustManager.takeLastCheck();
     }
 
-    protected static SSLSocketFactory tlsSocket(KeyManager[] kmf, TrustManager[] tmf) throws NoSuchAlgorithmException, KeyStoreException, IOException, CertificateException, InvalidKeySpecException, UnrecoverableKeyException, KeyManagementException, UnrecoverableKeyException {
+    protected static SSLContext tlsContext(KeyManager[] kmf, TrustManager[] tmf) throws NoSuchAlgorithmException, KeyManagementException {
 
         SSLContext context = Compat.produceLevelAware(16, new Compat.Producer<SSLContext>() {
             @Override
             public SSLContext produce() {
                 try {
-                    return SSLContext.getInstance("TLSv1.2");
+                    return SSLContext.getInstance("TLS"); // Up to TLS 1.3 where available, see TlsProfile
                 } catch (NoSuchAlgorithmException e) {
                     return null;
                 }
@@ -179,11 +329,30 @@ public class SSLHelper {
             }
         });
         context.init(kmf, tmf, null);
-        return context.getSocketFactory();
+        return context;
+    }
+
+    public static SSLContext tlsContext(InputStream caStream, InputStream certStream, InputStream keyStream, TrustType trustType)
+        throws GeneralSecurityException, IOException {
+        return tlsContext(keyManagerFactoryPEM(certStream, keyStream), trustManagerFactoryPEM(caStream, trustType));
+    }
+
+    /**
+     * Builds context from key store made by credentialsPEM (or loaded from CredentialCache).
+     */
+    public static SSLContext tlsContext(KeyStore credentials, TrustType trustType) throws GeneralSecurityException, IOException {
+        return tlsContext(credentials, trustType, null);
+    }
+
+    /**
+     * @param pinFile server key pin of Pinned mode, see CredentialCache.pinFile
+     */
+    public static SSLContext tlsContext(KeyStore credentials, TrustType trustType, File pinFile) throws GeneralSecurityException, IOException {
+        return tlsContext(keyManagers(credentials), trustManagers(trustedCertificates(credentials), trustType, pinFile));
     }
 
     public static SSLSocketFactory tlsSocket(InputStream caStream, InputStream certStream, InputStream keyStream, TrustType trustType)
         throws GeneralSecurityException, IOException {
-        return tlsSocket(keyManagerFactoryPEM(certStream, keyStream), trustManagerFactoryPEM(caStream, trustType));
+        return tlsContext(caStream, certStream, keyStream, trustType).getSocketFactory();
     }
 }
@@ -0,0 +1,172 @@
+package kvj.taskw.sync;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Keeps TLS contexts (and so client session caches) per taskd server, so that re-created
+ * accounts and repeated syncs resume sessions instead of doing full handshakes.
+ */
+public class SessionCache {
+
+    public static final int DEFAULT_LIFETIME = 24 * 60 * 60; // Seconds
+    private static final int CACHE_SIZE = 16;
+
+    public static class Endpoint {
+
+        private final String host;
+        private final int port;
+        private final String credentials;
+        private final SSLContext context;
+        private final int lifetime;
+        private final TlsProfile profile;
+
+        private int handshakes = 0;
+        private int resumed = 0;
+        private long handshakeTime = 0;
+
+        private Endpoint(String host, int port, String credentials, SSLContext context, int lifetime,
+                         TlsProfile profile) {
+            this.host = host;
+            this.port = port;
+            this.credentials = credentials;
+            this.context = context;
+            this.lifetime = lifetime;
+            this.profile = profile;
+            if (lifetime > 0) { // Zero means no limit for the cache - disable resumption instead
+                context.getClientSessionContext().setSessionTimeout(lifetime);
+                context.getClientSessionContext().setSessionCacheSize(CACHE_SIZE);
+            }
+        }
+
+        /**
+         * Opens tuned connection. Session tickets are enabled where platform supports them.
+         * Protocols and suites are set by TLS profile, platform ones are used without it.
+         */
+        public SSLSocket connect() throws IOException {
+            SSLSocket socket = ProxyPump.connect(context.getSocketFactory(), host, port);
+            if (null != profile) {
+                profile.apply(socket);
+            }
+            if (lifetime > 0) {
+                enableTickets(socket);
+            }
+            return socket;
+        }
+
+        /**
+         * @return what of TLS profile can't be applied on this platform, or null
+         */
+        public String unsupportedProfile() {
+            return null == profile ? null : profile.unsupported(context);
+        }
+
+        /**
+         * Performs handshake and records its time.
+         * @return true if session was resumed
+         */
+        public boolean handshake(SSLSocket socket) throws IOException {
+            if (lifetime <= 0) { // Resumption disabled - drop sessions and tickets of previous connections
+                invalidate();
+            }
+            long started = System.currentTimeMillis();
+            long start = System.nanoTime();
+            socket.startHandshake();
+            long spent = System.nanoTime() - start;
+            boolean wasResumed = socket.getSession().getCreationTime() < started;
+            synchronized (this) {
+                handshakes++;
+                handshakeTime += spent;
+                if (wasResumed) {
+                    resumed++;
+                }
+            }
+            return wasResumed;
+        }
+
+        /**
+         * Forces full handshake on next connect, e.g. after credentials were rejected.
+         */
+        public void invalidate() {
+            SSLSessionContext sessions = context.getClientSessionContext();
+            Enumeration<byte[]> ids = sessions.getIds();
+            while (ids.hasMoreElements()) {
+                SSLSession session = sessions.getSession(ids.nextElement());
+                if (null != session) {
+                    session.invalidate();
+                }
+            }
+        }
+
+        public SSLContext context() {
+            return context;
+        }
+
+        public synchronized int handshakes() {
+            return handshakes;
+        }
+
+        public synchronized int resumed() {
+            return resumed;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("TLS %s:%d: handshakes %d, resumed %d (%d%%), average %d ms",
+                                 host, port, handshakes, resumed,
+                                 handshakes > 0 ? resumed * 100 / handshakes : 0,
+                                 handshakes > 0 ? handshakeTime / handshakes / 1000000 : 0);
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+
+    private static String key(String host, int port) {
+        return String.format("%s:%d", host.toLowerCase(), port);
+    }
+
+    /**
+     * Returns endpoint with cached sessions if it was created for the same credentials and lifetime.
+     */
+    public synchronized Endpoint get(String host, int port, String credentials, int lifetime) {
+        Endpoint endpoint = endpoints.get(key(host, port));
+        if (null != endpoint && endpoint.credentials.equals(credentials) && endpoint.lifetime == lifetime) {
+            return endpoint;
+        }
+        return null;
+    }
+
+    /**
+     * Registers new context for the server, replacing one built for different credentials.
+     */
+    public synchronized Endpoint put(String host, int port, String credentials, SSLContext context, int lifetime) {
+        return put(host, port, credentials, context, lifetime, null);
+    }
+
+    /**
+     * Same, connections use the TLS profile.
+     */
+    public synchronized Endpoint put(String host, int port, String credentials, SSLContext context, int lifetime,
+                                     TlsProfile profile) {
+        Endpoint endpoint = new Endpoint(host, port, credentials, context, lifetime, profile);
+        endpoints.put(key(host, port), endpoint);
+        return endpoint;
+    }
+
+    private static void enableTickets(SSLSocket socket) {
+        try { // Conscrypt (Android) only
+            Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        } catch (Exception e) {
+            // Not supported - session IDs are used
+        }
+    }
+}
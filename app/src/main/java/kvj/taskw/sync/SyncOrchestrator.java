@@ -0,0 +1,142 @@
+package kvj.taskw.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs syncs of several accounts at once, at most MAX_PARALLEL at a time, so one wake lock
+ * covers roughly the slowest sync instead of the sum. TLS sessions, credentials and proxy threads
+ * are shared through Controller anyway.
+ * Account already being synced by another batch is skipped, not synced twice.
+ */
+public class SyncOrchestrator {
+
+    public static final int MAX_PARALLEL = 3;
+    public static final long PIGGYBACK_WINDOW = 15 * 60 * 1000; // Accounts due that soon sync together
+
+    public interface Target {
+
+        public String name();
+
+        /**
+         * @return error or null
+         */
+        public String sync(String trigger);
+    }
+
+    public static class Result {
+
+        public final String name;
+        public final boolean skipped;
+        public final String error;
+        public final long time; // ms
+
+        private Result(String name, boolean skipped, String error, long time) {
+            this.name = name;
+            this.skipped = skipped;
+            this.error = error;
+            this.time = time;
+        }
+
+        public boolean success() {
+            return !skipped && null == error;
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                return String.format("%s: already running", name);
+            }
+            return String.format("%s: %s in %d ms", name, null == error ? "ok" : "failed", time);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Set<String> running = new HashSet<>();
+
+    public SyncOrchestrator() {
+        this(MAX_PARALLEL);
+    }
+
+    public SyncOrchestrator(int parallel) {
+        final AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(parallel, parallel, 60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, String.format("sync-account-%d", counter.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private synchronized boolean start(String name) {
+        return running.add(name);
+    }
+
+    private synchronized void finish(String name) {
+        running.remove(name);
+    }
+
+    public synchronized boolean running(String name) {
+        return running.contains(name);
+    }
+
+    /**
+     * Syncs targets in parallel and waits for all of them.
+     * @return results in order of targets
+     */
+    public List<Result> sync(Collection<? extends Target> targets, final String trigger) throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>(targets.size());
+        for (final Target target : targets) {
+            final String name = target.name();
+            if (!start(name)) { // Other batch has it
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    long started = System.currentTimeMillis();
+                    try {
+                        String error = target.sync(trigger);
+                        return new Result(name, false, error, System.currentTimeMillis() - started);
+                    } catch (Exception e) {
+                        String error = null == e.getMessage() ? e.toString() : e.getMessage();
+                        return new Result(name, false, error, System.currentTimeMillis() - started);
+                    } finally {
+                        finish(name);
+                    }
+                }
+            }));
+        }
+        List<Result> results = new ArrayList<>(futures.size());
+        int index = 0;
+        for (Target target : targets) {
+            Future<Result> future = futures.get(index++);
+            if (null == future) {
+                results.add(new Result(target.name(), true, null, 0));
+                continue;
+            }
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) { // Not expected: call() catches
+                results.add(new Result(target.name(), false, e.getMessage(), 0));
+            }
+        }
+        return results;
+    }
+}
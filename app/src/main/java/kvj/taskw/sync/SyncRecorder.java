@@ -0,0 +1,232 @@
+package kvj.taskw.sync;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes both directions of a proxied sync session to a file, to be replayed later without server.
+ * File: magic, then for every message: direction byte, ms since session start, framed message as is.
+ * Value of "key" request header is replaced with 'x' of the same length.
+ * Recording failures never break the sync: recorder just stops writing.
+ * Message cut by a failed transfer is dropped on read.
+ */
+public class SyncRecorder {
+
+    public static final String PREFIX = "sync.record.";
+    public static final String EXT = ".bin";
+    public static final int KEEP = 5; // Recordings in folder
+    public static final byte REQUEST = '>';
+    public static final byte RESPONSE = '<';
+    private static final byte[] MAGIC = {'T', 'W', 'S', 'Y', 'N', 'C', '1', '\n'};
+    private static final byte[] KEY_HEADER = {'\n', 'k', 'e', 'y', ':'};
+
+    public static class Message {
+
+        public final byte direction;
+        public final long time; // ms since session start
+        public final byte[] data; // With size header
+
+        private Message(byte direction, long time, byte[] data) {
+            this.direction = direction;
+            this.time = time;
+            this.data = data;
+        }
+
+        /**
+         * @return message without size header
+         */
+        public byte[] body() {
+            return Arrays.copyOfRange(data, ProxyPump.HEADER_SIZE, data.length);
+        }
+    }
+
+    private final File file;
+    private final long started = System.currentTimeMillis();
+    private DataOutputStream out;
+
+    private SyncRecorder(File file) throws IOException {
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), ProxyPump.BUFFER_SIZE));
+        out.write(MAGIC);
+    }
+
+    /**
+     * Starts new recording in folder, oldest ones above KEEP are removed.
+     */
+    public static SyncRecorder create(File folder) throws IOException {
+        File[] files = recordings(folder);
+        for (int i = 0; i <= files.length - KEEP; i++) {
+            files[i].delete();
+        }
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US).format(new Date());
+        return new SyncRecorder(new File(folder, PREFIX + name + EXT));
+    }
+
+    /**
+     * Oldest first.
+     */
+    public static File[] recordings(File folder) {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.startsWith(PREFIX) && filename.endsWith(EXT);
+            }
+        });
+        if (null == files) {
+            return new File[0];
+        }
+        Arrays.sort(files); // Names are timestamps
+        return files;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    private synchronized void begin(byte direction) {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.writeByte(direction);
+            out.writeLong(System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    private synchronized void write(byte[] b, int off, int len) {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.write(b, off, len);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    private void fail() {
+        try {
+            out.close();
+        } catch (IOException e) {
+        }
+        out = null;
+        file.delete();
+    }
+
+    public synchronized void close() {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            file.delete();
+        }
+        out = null;
+    }
+
+    static void redactKey(byte[] data, int off, int len) {
+        int end = off + len;
+        for (int i = off; i <= end - KEY_HEADER.length; i++) {
+            boolean found = true;
+            for (int j = 0; j < KEY_HEADER.length && found; j++) {
+                found = data[i + j] == KEY_HEADER[j];
+            }
+            if (!found) {
+                continue;
+            }
+            for (int j = i + KEY_HEADER.length; j < end && data[j] != '\n'; j++) {
+                if (data[j] != ' ') {
+                    data[j] = 'x';
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Stream which passes one message to the target and records it.
+     */
+    public OutputStream tee(final byte direction, final OutputStream to) {
+        return new OutputStream() {
+
+            private boolean first = true;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                to.write(b, off, len);
+                byte[] copy = b;
+                if (first) {
+                    begin(direction);
+                    if (direction == REQUEST) { // Headers are in the first chunk
+                        copy = Arrays.copyOfRange(b, off, off + len);
+                        off = 0;
+                        redactKey(copy, 0, len);
+                    }
+                    first = false;
+                }
+                SyncRecorder.this.write(copy, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                to.flush();
+            }
+        };
+    }
+
+    public static List<Message> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not a sync recording: " + file);
+            }
+            List<Message> result = new ArrayList<>();
+            while (true) {
+                int direction = in.read();
+                if (direction == -1) { // Done
+                    return result;
+                }
+                try {
+                    long time = in.readLong();
+                    byte[] head = new byte[ProxyPump.HEADER_SIZE];
+                    in.readFully(head);
+                    int size = ProxyPump.messageSize(head);
+                    if (size < ProxyPump.HEADER_SIZE) {
+                        throw new IOException("Invalid message size: " + size);
+                    }
+                    byte[] data = Arrays.copyOf(head, size);
+                    in.readFully(data, head.length, size - head.length);
+                    result.add(new Message((byte) direction, time, data));
+                } catch (EOFException e) { // Sync failed in the middle of a message - skip it
+                    return result;
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package kvj.taskw.sync;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Java side of taskd sync protocol (v1), used instead of task binary + local socket relay when enabled.
+ * Request and response are framed messages: "name: value" header lines, empty line, payload.
+ * Sync payload has a line per changed task (JSON) and a line with sync key.
+ * Responses are parsed off the stream: task lines are handed over as they arrive, the message is never buffered.
+ */
+public class TaskdClient {
+
+    public static final String PROTOCOL = "v1";
+    private static final String UTF8 = "utf-8";
+
+    /**
+     * Receives payload lines of a message.
+     */
+    public interface LineConsumer {
+
+        void line(String line) throws IOException;
+    }
+
+    /**
+     * Payload of a framed message: ends at message size, EOFException if connection ends before.
+     */
+    private static class FrameInputStream extends InputStream {
+
+        private final InputStream from;
+        private int remaining;
+
+        private FrameInputStream(InputStream from, int size) {
+            this.from = from;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = from.read(b, off, Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Message truncated, " + remaining + " bytes missing");
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+
+    public static class Message {
+
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public final List<String> lines = new ArrayList<>();
+        public int size = 0; // Of received message, with header
+
+        public Message header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public String header(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * Writes framed message. Payload is converted line by line, not concatenated.
+         * @return bytes written
+         */
+        public long write(OutputStream to) throws IOException {
+            StringBuilder head = new StringBuilder();
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                head.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            head.append('\n');
+            List<byte[]> parts = new ArrayList<>(lines.size() + 1);
+            parts.add(head.toString().getBytes(UTF8));
+            long size = ProxyPump.HEADER_SIZE;
+            for (String line : lines) {
+                parts.add((line + '\n').getBytes(UTF8));
+            }
+            for (byte[] part : parts) {
+                size += part.length;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Message is too big: " + size);
+            }
+            OutputStream out = new BufferedOutputStream(to, ProxyPump.BUFFER_SIZE);
+            out.write(new byte[]{(byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size});
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+            out.flush();
+            return size;
+        }
+
+        public static Message read(InputStream from) throws IOException {
+            final List<String> lines = new ArrayList<>();
+            Message message = read(from, new LineConsumer() {
+                @Override
+                public void line(String line) {
+                    lines.add(line);
+                }
+            });
+            message.lines.addAll(lines);
+            return message;
+        }
+
+        /**
+         * Reads framed message line by line: headers go to the message, non empty payload lines to the consumer.
+         */
+        public static Message read(InputStream from, LineConsumer payload) throws IOException {
+            byte[] head = new byte[ProxyPump.HEADER_SIZE];
+            ProxyPump.readFully(from, head, 0, head.length);
+            int size = ProxyPump.messageSize(head);
+            if (size < ProxyPump.HEADER_SIZE) {
+                throw new IOException("Invalid message size: " + size);
+            }
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FrameInputStream(from, size - ProxyPump.HEADER_SIZE), UTF8),
+                    ProxyPump.BUFFER_SIZE);
+            Message message = new Message();
+            message.size = size;
+            boolean inHeaders = true;
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (inHeaders) {
+                    if (line.isEmpty()) { // Headers done
+                        inHeaders = false;
+                    } else {
+                        message.headerLine(line);
+                    }
+                    continue;
+                }
+                if (!line.isEmpty()) {
+                    payload.line(line);
+                }
+            }
+            return message;
+        }
+
+        private void headerLine(String line) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                header(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+
+        public static Message parse(String text) {
+            Message message = new Message();
+            boolean inHeaders = true;
+            int start = 0;
+            while (start < text.length()) {
+                int end = text.indexOf('\n', start);
+                if (end == -1) {
+                    end = text.length();
+                }
+                String line = text.substring(start, end);
+                start = end + 1;
+                if (inHeaders) {
+                    if (line.isEmpty()) { // Headers done
+                        inHeaders = false;
+                    } else {
+                        message.headerLine(line);
+                    }
+                    continue;
+                }
+                if (!line.isEmpty()) {
+                    message.lines.add(line);
+                }
+            }
+            return message;
+        }
+    }
+
+    public static class Response {
+
+        public final int code;
+        public final String status;
+        public int tasks = 0; // Handed to consumer
+        public String syncKey = null;
+
+        public long connect = -1;
+        public long handshake = -1;
+        public boolean resumed = false;
+        public long sent = 0;
+        public long received = 0;
+        public long response = -1; // Request sent -> response received
+
+        private Response(Message message) {
+            int parsed = 500;
+            try {
+                parsed = Integer.parseInt(message.header("code"));
+            } catch (Exception e) {
+                // Invalid response
+            }
+            this.code = parsed;
+            String text = message.header("status");
+            this.status = null == text ? "" : text;
+        }
+
+        /**
+         * 200 - changes received, 201 - no changes.
+         */
+        public boolean success() {
+            return code == 200 || code == 201;
+        }
+
+        /**
+         * taskd answers 201 without a sync key when nothing changed: stored key and backlog stay as they are.
+         */
+        public boolean noChange() {
+            return code == 201 && null == syncKey;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Sync response %d %s: tasks %d, key %s", code, status, tasks, syncKey);
+        }
+    }
+
+    private final SessionCache.Endpoint endpoint;
+    private final String org;
+    private final String user;
+    private final String key;
+    private final String client;
+
+    /**
+     * @param credentials value of taskd.credentials: org/user/key
+     */
+    public TaskdClient(SessionCache.Endpoint endpoint, String credentials, String client) {
+        String[] parts = null == credentials ? new String[0] : credentials.split("/");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid taskd.credentials value");
+        }
+        this.endpoint = endpoint;
+        this.org = parts[0];
+        this.user = parts[1];
+        this.key = parts[2];
+        this.client = client;
+    }
+
+    public Message request(String type) {
+        return new Message()
+                .header("type", type)
+                .header("org", org)
+                .header("user", user)
+                .header("key", key)
+                .header("client", client)
+                .header("protocol", PROTOCOL);
+    }
+
+    /**
+     * Sends request, task lines of the response go to the consumer as they are read.
+     */
+    public Response send(Message request, final LineConsumer tasks) throws IOException {
+        long connectStarted = System.currentTimeMillis();
+        SSLSocket socket = endpoint.connect();
+        try {
+            long handshakeStarted = System.currentTimeMillis();
+            boolean resumed = endpoint.handshake(socket);
+            long requestStarted = System.currentTimeMillis();
+            long sent = request.write(socket.getOutputStream());
+            long requestSent = System.currentTimeMillis();
+            final int[] count = {0};
+            final String[] syncKey = {null};
+            Message message = Message.read(socket.getInputStream(), new LineConsumer() {
+                @Override
+                public void line(String line) throws IOException {
+                    if (line.startsWith("{")) { // Task
+                        tasks.line(line);
+                        count[0]++;
+                    } else {
+                        syncKey[0] = line.trim();
+                    }
+                }
+            });
+            Response response = new Response(message);
+            response.tasks = count[0];
+            response.syncKey = syncKey[0];
+            response.connect = handshakeStarted - connectStarted;
+            response.handshake = requestStarted - handshakeStarted;
+            response.resumed = resumed;
+            response.sent = sent;
+            response.response = System.currentTimeMillis() - requestSent;
+            response.received = message.size;
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Sends local changes, receives changes of other clients.
+     * @param syncKey key from previous sync, null for the first one
+     * @param changes modified tasks as JSON lines
+     * @param tasks receives changed tasks (JSON lines) while response is being read, before its status is known
+     */
+    public Response sync(String syncKey, Collection<String> changes, LineConsumer tasks) throws IOException {
+        Message request = request("sync");
+        if (null != syncKey) {
+            request.lines.add(syncKey);
+        }
+        request.lines.addAll(changes);
+        return send(request, tasks);
+    }
+}
@@ -0,0 +1,204 @@
+package kvj.taskw.sync;
+
+import org.kvj.bravo7.log.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Protocols and cipher suites of connections to taskd (android.sync.tls, words separated by spaces):
+ * "compatible" (default) - TLS 1.0 to 1.3, preferred suites first, then the rest platform enables;
+ * "modern" - TLS 1.2 and 1.3 with preferred suites only.
+ * Preferred suites: TLS 1.3 ones, then ECDHE (ECDSA, RSA) with AES-GCM or ChaCha20-Poly1305.
+ * ChaCha20 goes first on devices without AES instructions ("chacha"), AES-GCM otherwise ("aes"),
+ * by default it depends on CPU architecture. Versions and suites platform doesn't support are skipped,
+ * when none is left (e.g. "modern" on Android 4.0 without TLS 1.2) platform defaults are used, see unsupported.
+ */
+public class TlsProfile {
+
+    private static final Logger logger = Logger.forClass(TlsProfile.class);
+    public static final String TLS13 = "TLSv1.3";
+    private static final String[] MODERN_PROTOCOLS = {TLS13, "TLSv1.2"};
+    private static final String[] COMPATIBLE_PROTOCOLS = {TLS13, "TLSv1.2", "TLSv1.1", "TLSv1"};
+    private static final String SCSV = "TLS_EMPTY_RENEGOTIATION_INFO_SCSV";
+    private static final String[] KEY_EXCHANGES = {"TLS_ECDHE_ECDSA_WITH_", "TLS_ECDHE_RSA_WITH_"};
+    private static final String[] AES_CIPHERS = {"AES_128_GCM_SHA256", "AES_256_GCM_SHA384",
+                                                 "CHACHA20_POLY1305_SHA256"};
+    private static final String[] CHACHA_CIPHERS = {"CHACHA20_POLY1305_SHA256", "AES_128_GCM_SHA256",
+                                                    "AES_256_GCM_SHA384"};
+
+    public static final TlsProfile DEFAULT = new TlsProfile(false, !aesHardware());
+
+    private final boolean modern;
+    private final boolean chachaFirst;
+
+    public TlsProfile(boolean modern, boolean chachaFirst) {
+        this.modern = modern;
+        this.chachaFirst = chachaFirst;
+    }
+
+    public static TlsProfile parse(String value) {
+        if (null == value || value.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        boolean modern = DEFAULT.modern;
+        boolean chachaFirst = DEFAULT.chachaFirst;
+        for (String word : value.trim().toLowerCase(Locale.US).split("[\\s,]+")) {
+            switch (word) {
+                case "modern":
+                    modern = true;
+                    break;
+                case "compatible":
+                    modern = false;
+                    break;
+                case "chacha":
+                    chachaFirst = true;
+                    break;
+                case "aes":
+                    chachaFirst = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown TLS profile option: " + word);
+            }
+        }
+        return new TlsProfile(modern, chachaFirst);
+    }
+
+    /**
+     * ARMv8 and x86 phones almost always have AES instructions, 32-bit ARM ones mostly don't.
+     */
+    static boolean aesHardware() {
+        String arch = System.getProperty("os.arch", "").toLowerCase(Locale.US);
+        return arch.contains("aarch64") || arch.contains("arm64") || arch.contains("86")
+                || arch.contains("amd64");
+    }
+
+    public boolean modern() {
+        return modern;
+    }
+
+    public boolean chachaFirst() {
+        return chachaFirst;
+    }
+
+    /**
+     * @return protocols to enable, in order of preference, or null to keep platform ones
+     */
+    public String[] protocols(String[] supported) {
+        List<String> available = Arrays.asList(supported);
+        List<String> result = new ArrayList<>();
+        for (String protocol : modern ? MODERN_PROTOCOLS : COMPATIBLE_PROTOCOLS) {
+            if (available.contains(protocol)) {
+                result.add(protocol);
+            }
+        }
+        return result.isEmpty() ? null : result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @param supported suites platform can use, preferred ones are taken from here
+     * @param enabled suites platform enables by default, compatible profile adds them after preferred ones
+     * @return suites to enable, in order of preference, or null to keep platform ones
+     */
+    public String[] cipherSuites(String[] supported, String[] enabled) {
+        Set<String> available = new LinkedHashSet<>(Arrays.asList(supported));
+        Set<String> result = new LinkedHashSet<>();
+        String[] ciphers = chachaFirst ? CHACHA_CIPHERS : AES_CIPHERS;
+        for (String cipher : ciphers) { // TLS 1.3 names have no key exchange
+            add(available, result, "TLS_" + cipher);
+        }
+        for (String exchange : KEY_EXCHANGES) {
+            for (String cipher : ciphers) {
+                add(available, result, exchange + cipher);
+            }
+        }
+        if (result.isEmpty()) { // Nothing known
+            return null;
+        }
+        for (String suite : enabled) {
+            if (!modern || SCSV.equals(suite)) {
+                result.add(suite);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static void add(Set<String> available, Set<String> result, String suite) {
+        if (available.contains(suite)) {
+            result.add(suite);
+        }
+    }
+
+    /**
+     * @return what of this profile platform can't do (its defaults are used for that part), or null if nothing
+     */
+    String unsupported(String[] protocols, String[] supported, String[] enabled) {
+        List<String> result = new ArrayList<>();
+        if (null == protocols(protocols)) {
+            result.add(modern ? "no TLS 1.2 or 1.3" : "no TLS 1.0 to 1.3");
+        }
+        if (null == cipherSuites(supported, enabled)) {
+            result.add("no AES-GCM or ChaCha20-Poly1305 suites");
+        }
+        if (result.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(toString()).append(": ");
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(result.get(i));
+        }
+        return sb.append(", platform defaults used").toString();
+    }
+
+    /**
+     * Same for connections of the context, to be reported once it's created.
+     */
+    public String unsupported(SSLContext context) {
+        SSLParameters supported = context.getSupportedSSLParameters();
+        return unsupported(supported.getProtocols(), supported.getCipherSuites(),
+                           context.getDefaultSSLParameters().getCipherSuites());
+    }
+
+    public void apply(SSLSocket socket) {
+        String[] protocols = protocols(socket.getSupportedProtocols());
+        if (null != protocols) {
+            socket.setEnabledProtocols(protocols);
+        }
+        String[] suites = cipherSuites(socket.getSupportedCipherSuites(), socket.getEnabledCipherSuites());
+        if (null != suites) {
+            socket.setEnabledCipherSuites(suites);
+        }
+        if (null == protocols || null == suites) {
+            logger.w("TLS profile not applied:", unsupported(socket.getSupportedProtocols(),
+                     socket.getSupportedCipherSuites(), socket.getEnabledCipherSuites()));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TlsProfile)) {
+            return false;
+        }
+        TlsProfile other = (TlsProfile) o;
+        return modern == other.modern && chachaFirst == other.chachaFirst;
+    }
+
+    @Override
+    public int hashCode() {
+        return (modern ? 2 : 0) + (chachaFirst ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", modern ? "modern" : "compatible", chachaFirst ? "chacha" : "aes");
+    }
+}
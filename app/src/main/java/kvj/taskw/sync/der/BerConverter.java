@@ -0,0 +1,312 @@
+package kvj.taskw.sync.der;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single pass replacement of {@link DerIndefLenConverter}: rewrites indefinite length values (BER) with definite
+ * lengths. Only a stack of output offsets of open indefinite values is kept: when end-of-contents is reached,
+ * the definite length is written into the slot left after the tag, moving the contents up when it needs more
+ * than one byte. Definite lengths get minimal encoding, their contents are copied as is (same as before).
+ * Output goes either over the input itself or into a buffer reused by the next conversion. Input is an array
+ * region or a stream, which is read up to the end of one value only.
+ */
+public class BerConverter {
+
+    private static final int INITIAL_SIZE = 1024;
+    private static final int CHUNK = 8 * 1024; // Contents read from streams, until they really arrive
+    private static final int LEN_INDEFINITE = 0x80;
+    private static final int LEN_MASK = 0x7f;
+    private static final int CONSTRUCTED = 0x20;
+
+    private final int[] slots = new int[DerReader.MAX_DEPTH]; // Output offset of length of open values
+    private int depth = 0;
+    private byte[] buf = null;
+    private byte[] out = null;
+    private int size = 0;
+    private boolean inPlace = false;
+
+    private byte[] data = null;
+    private int pos = 0;
+    private int end = 0;
+    private InputStream stream = null;
+
+    private void start(byte[] output, int at) {
+        out = output;
+        size = at;
+        depth = 0;
+    }
+
+    private void startBuffered() {
+        if (null == buf) {
+            buf = new byte[INITIAL_SIZE];
+        }
+        start(buf, 0);
+        inPlace = false;
+    }
+
+    /**
+     * Converts all values in the region, the result is written over it.
+     * Definite length that needs 4 or 5 bytes can make a value longer than the input, such data is rejected.
+     *
+     * @return length of the result, which starts at off
+     */
+    public int convertInPlace(byte[] data, int off, int len) throws IOException {
+        from(data, off, len);
+        start(data, off);
+        inPlace = true;
+        try {
+            run(false);
+            return size - off;
+        } finally {
+            out = buf;
+            size = 0;
+        }
+    }
+
+    /**
+     * Converts all values in the region into the buffer.
+     */
+    public BerConverter convert(byte[] data, int off, int len) throws IOException {
+        from(data, off, len);
+        startBuffered();
+        run(false);
+        return this;
+    }
+
+    /**
+     * Reads and converts one value from the stream into the buffer, nothing after it is read.
+     */
+    public BerConverter convert(InputStream in) throws IOException {
+        from(in);
+        startBuffered();
+        run(true);
+        return this;
+    }
+
+    /**
+     * Same as {@link #convert(InputStream)}, for the value which tag and indefinite length octet are already
+     * read from the stream.
+     */
+    public BerConverter convertIndefinite(int tag, InputStream in) throws IOException {
+        from(in);
+        startBuffered();
+        write(tag);
+        open(tag);
+        run(true);
+        return this;
+    }
+
+    /**
+     * @return result of the last conversion into buffer, valid up to {@link #size()} and until the next one
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[size()];
+        System.arraycopy(buf, 0, result, 0, result.length);
+        return result;
+    }
+
+    private void from(byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off + len > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.data = data;
+        pos = off;
+        end = off + len;
+        stream = null;
+    }
+
+    private void from(InputStream in) {
+        data = null;
+        pos = 0;
+        end = 0;
+        stream = in;
+    }
+
+    private void run(boolean single) throws IOException {
+        boolean next = single; // At least one value
+        try {
+            while (next || depth > 0 || (!single && pos < end)) {
+                next = false;
+                int tag = read();
+                if (tag == 0) { // End-of-contents or (rare) universal tag 0
+                    int lenByte = read();
+                    if (lenByte == 0) {
+                        if (depth == 0) {
+                            throw new IOException("EOC does not have matching indefinite-length tag");
+                        }
+                        close();
+                        continue;
+                    }
+                    write(tag);
+                    value(tag, lenByte);
+                } else {
+                    write(tag);
+                    value(tag, read());
+                }
+                if (single && depth == 0) {
+                    break;
+                }
+            }
+        } finally {
+            data = null;
+            stream = null;
+        }
+    }
+
+    private void value(int tag, int lenByte) throws IOException {
+        if (lenByte == LEN_INDEFINITE) {
+            open(tag);
+            return;
+        }
+        int len = lenByte;
+        if ((lenByte & LEN_INDEFINITE) != 0) {
+            int bytes = lenByte & LEN_MASK;
+            if (bytes > 4) {
+                throw new IOException("Too much data");
+            }
+            len = 0;
+            for (int i = 0; i < bytes; i++) {
+                len = (len << 8) + read();
+            }
+            if (len < 0) {
+                throw new IOException("Invalid length bytes");
+            }
+        }
+        int lenSize = DerOutputStream.lengthSize(len);
+        ensure(lenSize);
+        putLength(size, len, lenSize);
+        size += lenSize;
+        copy(len);
+    }
+
+    private void open(int tag) throws IOException {
+        if ((tag & CONSTRUCTED) == 0) {
+            throw new IOException("Indefinite length of primitive value");
+        }
+        if (depth == slots.length) {
+            throw new IOException("Nested too deep: " + depth);
+        }
+        ensure(1);
+        slots[depth++] = size++;
+    }
+
+    private void close() throws IOException {
+        int slot = slots[--depth];
+        int len = size - slot - 1;
+        int lenSize = DerOutputStream.lengthSize(len);
+        if (lenSize > 1) {
+            ensure(lenSize - 1);
+            System.arraycopy(out, slot + 1, out, slot + lenSize, len);
+            size += lenSize - 1;
+        }
+        putLength(slot, len, lenSize);
+    }
+
+    private void putLength(int at, int len, int lenSize) {
+        if (lenSize == 1) {
+            out[at] = (byte) len;
+            return;
+        }
+        out[at] = (byte) (LEN_INDEFINITE | (lenSize - 1));
+        for (int i = lenSize - 1; i > 0; i--) {
+            out[at + i] = (byte) len;
+            len >>>= 8;
+        }
+    }
+
+    private int read() throws IOException {
+        if (null != stream) {
+            int b = stream.read();
+            if (b < 0) {
+                throw new EOFException("Too little data");
+            }
+            return b;
+        }
+        if (pos >= end) {
+            throw new IOException("Too little data");
+        }
+        return data[pos++] & 0xff;
+    }
+
+    private void write(int b) throws IOException {
+        ensure(1);
+        out[size++] = (byte) b;
+    }
+
+    private void copy(int len) throws IOException {
+        if (null == stream) {
+            if (len > end - pos) {
+                throw new IOException("Too little data");
+            }
+            if (!inPlace) { // Otherwise moves down, size is not above pos
+                ensure(len);
+            }
+            System.arraycopy(data, pos, out, size, len);
+            pos += len;
+            size += len;
+            return;
+        }
+        while (len > 0) { // Declared length is not trusted: buffer grows with data read
+            int chunk = Math.min(len, CHUNK);
+            ensure(chunk);
+            int read = stream.read(out, size, chunk);
+            if (read < 0) {
+                throw new EOFException("Too little data");
+            }
+            size += read;
+            len -= read;
+        }
+    }
+
+    private void ensure(int more) throws IOException {
+        if (inPlace) {
+            if (size + more > pos) {
+                throw new IOException("Definite length encoding does not fit in place");
+            }
+            return;
+        }
+        if (size + more > out.length) {
+            byte[] grown = new byte[Math.max(out.length * 2, size + more)];
+            System.arraycopy(out, 0, grown, 0, size);
+            buf = out = grown;
+        }
+    }
+
+    /**
+     * Re-encodes DER with indefinite length for every constructed value: reverse of conversion, for tests and
+     * benchmarks.
+     */
+    static byte[] toIndefinite(byte[] der) throws IOException {
+        DerReader reader = new DerReader(der);
+        DerOutputStream out = new DerOutputStream();
+        int event;
+        while ((event = reader.next()) != DerReader.END_DOCUMENT) {
+            switch (event) {
+                case DerReader.START_CONSTRUCTED:
+                    out.write(reader.getTag());
+                    out.write(0x80);
+                    break;
+                case DerReader.PRIMITIVE:
+                    out.write(reader.getTag());
+                    out.putLength(reader.getLength());
+                    out.write(reader.getBytes());
+                    break;
+                case DerReader.END:
+                    out.write(0);
+                    out.write(0);
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+}
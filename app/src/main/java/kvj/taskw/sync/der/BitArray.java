@@ -30,7 +30,9 @@ import java.util.Arrays;
 
 
 /**
- * A packed array of booleans.
+ * A packed array of booleans.  Bits are kept in 64 bit words, index
+ * zero in the most significant bit of the first word (same order as
+ * DER bit strings), bits past the length are always zero.
  *
  * @author Joshua Bloch
  * @author Douglas Hoover
@@ -38,17 +40,33 @@ import java.util.Arrays;
 
 public class BitArray {
 
-    private byte[] repn;
+    private long[] words;
     private int length;
 
     private static final int BITS_PER_UNIT = 8;
+    private static final int BITS_PER_WORD = 64;
+    private static final int ADDRESS_BITS = 6;
 
     private static int subscript(int idx) {
-        return idx / BITS_PER_UNIT;
+        return idx >>> ADDRESS_BITS;
     }
 
-    private static int position(int idx) { // bits big-endian in each unit
-        return 1 << (BITS_PER_UNIT - 1 - (idx % BITS_PER_UNIT));
+    private static long position(int idx) { // bits big-endian in each word
+        return Long.MIN_VALUE >>> idx; // shift is mod 64
+    }
+
+    private static int wordCount(int length) {
+        return (length + BITS_PER_WORD - 1) >>> ADDRESS_BITS;
+    }
+
+    /*
+     * Clears bits past the length in the last word.
+     */
+    private void normalize() {
+        int used = length & (BITS_PER_WORD - 1);
+        if (used != 0) {
+            words[words.length - 1] &= -1L << (BITS_PER_WORD - used);
+        }
     }
 
     /**
@@ -61,7 +79,7 @@ public class BitArray {
 
         this.length = length;
 
-        repn = new byte[(length + BITS_PER_UNIT - 1)/BITS_PER_UNIT];
+        words = new long[wordCount(length)];
     }
 
 
@@ -84,20 +102,24 @@ public class BitArray {
 
         this.length = length;
 
-        int repLength = ((length + BITS_PER_UNIT - 1)/BITS_PER_UNIT);
-        int unusedBits = repLength*BITS_PER_UNIT - length;
-        byte bitMask = (byte) (0xFF << unusedBits);
-
         /*
          normalize the representation:
           1. discard extra bytes
-          2. zero out extra bits in the last byte
+          2. zero out extra bits in the last word
          */
-        repn = new byte[repLength];
-        System.arraycopy(a, 0, repn, 0, repLength);
-        if (repLength > 0) {
-            repn[repLength - 1] &= bitMask;
+        int repLength = ((length + BITS_PER_UNIT - 1)/BITS_PER_UNIT);
+        words = new long[wordCount(length)];
+        int i = 0;
+        for (int w = 0; i + 8 <= repLength; w++, i += 8) {
+            words[w] = ((a[i] & 0xffL) << 56) | ((a[i + 1] & 0xffL) << 48)
+                     | ((a[i + 2] & 0xffL) << 40) | ((a[i + 3] & 0xffL) << 32)
+                     | ((a[i + 4] & 0xffL) << 24) | ((a[i + 5] & 0xffL) << 16)
+                     | ((a[i + 6] & 0xffL) << 8) | (a[i + 7] & 0xffL);
         }
+        for (; i < repLength; i++) {
+            words[i >>> 3] |= (a[i] & 0xffL) << (56 - ((i & 7) << 3));
+        }
+        normalize();
     }
 
     /**
@@ -106,10 +128,12 @@ public class BitArray {
      */
     public BitArray(boolean[] bits) {
         length = bits.length;
-        repn = new byte[(length + 7)/8];
+        words = new long[wordCount(length)];
 
         for (int i=0; i < length; i++) {
-            set(i, bits[i]);
+            if (bits[i]) {
+                words[subscript(i)] |= position(i);
+            }
         }
     }
 
@@ -119,7 +143,13 @@ public class BitArray {
      */
     private BitArray(BitArray ba) {
         length = ba.length;
-        repn = ba.repn.clone();
+        words = ba.words.clone();
+    }
+
+    private BitArray(int length, long[] words) {
+        this.length = length;
+        this.words = words;
+        normalize();
     }
 
     /**
@@ -130,7 +160,7 @@ public class BitArray {
             throw new ArrayIndexOutOfBoundsException(Integer.toString(index));
         }
 
-        return (repn[subscript(index)] & position(index)) != 0;
+        return (words[subscript(index)] & position(index)) != 0;
     }
 
     /**
@@ -142,12 +172,12 @@ public class BitArray {
             throw new ArrayIndexOutOfBoundsException(Integer.toString(index));
         }
         int idx = subscript(index);
-        int bit = position(index);
+        long bit = position(index);
 
         if (value) {
-            repn[idx] |= bit;
+            words[idx] |= bit;
         } else {
-            repn[idx] &= ~bit;
+            words[idx] &= ~bit;
         }
     }
 
@@ -158,6 +188,80 @@ public class BitArray {
         return length;
     }
 
+    /**
+     * Returns the number of bits set.
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private void checkLength(BitArray ba) {
+        if (ba.length != length) {
+            throw new IllegalArgumentException("BitArray lengths differ: "
+                                               + length + ", " + ba.length);
+        }
+    }
+
+    /**
+     * Clears every bit not set in the given BitArray of the same length.
+     */
+    public void and(BitArray ba) throws IllegalArgumentException {
+        checkLength(ba);
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ba.words[i];
+        }
+    }
+
+    /**
+     * Sets every bit set in the given BitArray of the same length.
+     */
+    public void or(BitArray ba) throws IllegalArgumentException {
+        checkLength(ba);
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= ba.words[i];
+        }
+    }
+
+    /**
+     * Flips every bit set in the given BitArray of the same length.
+     */
+    public void xor(BitArray ba) throws IllegalArgumentException {
+        checkLength(ba);
+        for (int i = 0; i < words.length; i++) {
+            words[i] ^= ba.words[i];
+        }
+    }
+
+    /**
+     * Returns a new BitArray of bits from (inclusive) to (exclusive),
+     * index zero of the result being bit from of this one.
+     */
+    public BitArray subArray(int from, int to)
+    throws ArrayIndexOutOfBoundsException {
+        if (from < 0 || to > length || from > to) {
+            throw new ArrayIndexOutOfBoundsException(from + ", " + to);
+        }
+        long[] result = new long[wordCount(to - from)];
+        int first = subscript(from);
+        int shift = from & (BITS_PER_WORD - 1);
+        if (shift == 0) {
+            System.arraycopy(words, first, result, 0, result.length);
+        } else {
+            for (int i = 0; i < result.length; i++) {
+                long word = words[first + i] << shift;
+                if (first + i + 1 < words.length) {
+                    word |= words[first + i + 1] >>> (BITS_PER_WORD - shift);
+                }
+                result[i] = word;
+            }
+        }
+        return new BitArray(to - from, result);
+    }
+
     /**
      * Returns a Byte array containing the contents of this BitArray.
      * The bit stored at index zero in this BitArray will be copied
@@ -168,7 +272,11 @@ public class BitArray {
      * is not a multiple of 8.)
      */
     public byte[] toByteArray() {
-        return repn.clone();
+        byte[] repn = new byte[(length + BITS_PER_UNIT - 1)/BITS_PER_UNIT];
+        for (int i = 0; i < repn.length; i++) {
+            repn[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+        return repn;
     }
 
     public boolean equals(Object obj) {
@@ -177,12 +285,7 @@ public class BitArray {
 
         BitArray ba = (BitArray) obj;
 
-        if (ba.length != length) return false;
-
-        for (int i = 0; i < repn.length; i += 1) {
-            if (repn[i] != ba.repn[i]) return false;
-        }
-        return true;
+        return ba.length == length && Arrays.equals(words, ba.words);
     }
 
     /**
@@ -191,8 +294,13 @@ public class BitArray {
     public boolean[] toBooleanArray() {
         boolean[] bits = new boolean[length];
 
-        for (int i=0; i < length; i++) {
-            bits[i] = get(i);
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                int bit = Long.numberOfLeadingZeros(word);
+                bits[(i << ADDRESS_BITS) + bit] = true;
+                word &= ~position(bit);
+            }
         }
         return bits;
     }
@@ -205,8 +313,8 @@ public class BitArray {
     public int hashCode() {
         int hashCode = 0;
 
-        for (int i = 0; i < repn.length; i++)
-            hashCode = 31*hashCode + repn[i];
+        for (long word : words)
+            hashCode = 31*hashCode + (int) (word ^ (word >>> 32));
 
         return hashCode ^ length;
     }
@@ -243,6 +351,7 @@ public class BitArray {
      */
     public String toString() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] repn = toByteArray();
 
         for (int i = 0; i < repn.length - 1; i++) {
             out.write(NYBBLE[(repn[i] >> 4) & 0x0F], 0, 4);
@@ -256,7 +365,7 @@ public class BitArray {
         }
 
         // in last byte of repn, use only the valid bits
-        for (int i = BITS_PER_UNIT * (repn.length - 1); i < length; i++) {
+        for (int i = Math.max(0, BITS_PER_UNIT * (repn.length - 1)); i < length; i++) {
             out.write(get(i) ? '1' : '0');
         }
 
@@ -266,11 +375,15 @@ public class BitArray {
 
 
 
-
+    /**
+     * Returns a copy without the trailing zero bits, at least one bit long.
+     */
     public BitArray truncate() {
-        for (int i=length-1; i>=0; i--) {
-            if (get(i)) {
-                return new BitArray(i+1, Arrays.copyOf(repn, (i + BITS_PER_UNIT) / BITS_PER_UNIT));
+        for (int i = words.length - 1; i >= 0; i--) {
+            if (words[i] != 0) {
+                int last = (i << ADDRESS_BITS) + BITS_PER_WORD - 1
+                           - Long.numberOfTrailingZeros(words[i]);
+                return new BitArray(last + 1, Arrays.copyOf(words, i + 1));
             }
         }
         return new BitArray(1);
@@ -26,14 +26,12 @@
 
 package kvj.taskw.sync.der;
 
-import java.util.Comparator;
-
 /**
  * Compare two byte arrays in lexicographical order.
  *
  * @author D. N. Hoover
  */
-public class ByteArrayLexOrder implements Comparator<byte[]> {
+public class ByteArrayLexOrder implements ByteArrayRegionOrder {
 
     /**
      * Perform lexicographical comparison of two byte arrays,
@@ -51,16 +49,25 @@ public class ByteArrayLexOrder implements Comparator<byte[]> {
      * if either argument is not a byte array.
      */
     public final int compare( byte[] bytes1, byte[] bytes2) {
+        return compare(bytes1, 0, bytes1.length, bytes2, 0, bytes2.length);
+    }
+
+    /**
+     * Same as above, for <code>length</code> bytes from <code>offset</code>
+     * of each array.
+     */
+    public final int compare(byte[] bytes1, int offset1, int length1,
+                             byte[] bytes2, int offset2, int length2) {
         int diff;
-        for (int i = 0; i < bytes1.length && i < bytes2.length; i++) {
-            diff = (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF);
+        for (int i = 0; i < length1 && i < length2; i++) {
+            diff = (bytes1[offset1 + i] & 0xFF) - (bytes2[offset2 + i] & 0xFF);
             if (diff != 0) {
                 return diff;
             }
         }
         // if array entries are equal till the first ends, then the
         // longer is "bigger"
-        return bytes1.length - bytes2.length;
+        return length1 - length2;
     }
 
 
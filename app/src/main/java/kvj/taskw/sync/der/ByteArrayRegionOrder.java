@@ -0,0 +1,14 @@
+package kvj.taskw.sync.der;
+
+import java.util.Comparator;
+
+/**
+ * Order of DER encodings which can also compare parts of larger arrays,
+ * so that set elements are sorted where they were encoded, without
+ * copying each one out.
+ */
+interface ByteArrayRegionOrder extends Comparator<byte[]> {
+
+    int compare(byte[] bytes1, int offset1, int length1,
+                byte[] bytes2, int offset2, int length2);
+}
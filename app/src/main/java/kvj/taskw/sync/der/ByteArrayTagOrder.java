@@ -33,9 +33,7 @@
 
 package kvj.taskw.sync.der;
 
-import java.util.Comparator;
-
-public class ByteArrayTagOrder implements Comparator<byte[]> {
+public class ByteArrayTagOrder implements ByteArrayRegionOrder {
 
     /**
      * Compare two byte arrays, by the order of their tags,
@@ -57,5 +55,14 @@ public class ByteArrayTagOrder implements Comparator<byte[]> {
         return (bytes1[0] | 0x20) - (bytes2[0] | 0x20);
     }
 
+    /**
+     * Same as above, for encodings starting at <code>offset</code>
+     * of each array.
+     */
+    public final int compare(byte[] bytes1, int offset1, int length1,
+                             byte[] bytes2, int offset2, int length2) {
+        return (bytes1[offset1] | 0x20) - (bytes2[offset2] | 0x20);
+    }
+
 
 }
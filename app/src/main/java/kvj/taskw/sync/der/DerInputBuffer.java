@@ -25,10 +25,11 @@
 
 package kvj.taskw.sync.der;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Date;
 // import sun.util.calendar.CalendarDate; // out:kellinwood
 // import sun.util.calendar.CalendarSystem; //out:kellinwood
@@ -40,25 +41,67 @@ import java.util.Date;
  * anyone who could violate the "typed value stream" DER model and hence
  * corrupt the input stream of DER values.
  *
+ * <p>The bytes live in a <code>ByteBuffer</code> (heap array or memory
+ * mapped file), which is shared and never modified.  Each buffer is a
+ * window <code>[pos, count)</code> over it, so {@link #dup}, {@link #truncate}
+ * and {@link #slice} produce views, not copies.  The stream methods of
+ * <code>ByteArrayInputStream</code> this class used to extend are kept.
+ *
  * @author David Brownell
  */
-class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
+class DerInputBuffer extends InputStream implements Cloneable {
+
+    /** Shared bytes, only absolute get/put are used on it. */
+    private final ByteBuffer buf;
+    private int pos;
+    private int count;
+    private int mark;
 
-    DerInputBuffer(byte[] buf) { super(buf); }
+    DerInputBuffer(byte[] buf) { this(buf, 0, buf.length); }
 
     DerInputBuffer(byte[] buf, int offset, int len) {
-        super(buf, offset, len);
+        this(ByteBuffer.wrap(buf), offset, Math.min(offset + len, buf.length));
+    }
+
+    /**
+     * Reads bytes between position and limit of the buffer.  The buffer
+     * is shared, its position and limit are not changed.
+     */
+    DerInputBuffer(ByteBuffer buf) {
+        this(buf, buf.position(), buf.limit());
+    }
+
+    private DerInputBuffer(ByteBuffer buf, int pos, int count) {
+        this.buf = buf;
+        this.pos = pos;
+        this.count = count;
+        this.mark = pos;
     }
 
     DerInputBuffer dup() {
-        try {
-            DerInputBuffer retval = (DerInputBuffer)clone();
+        DerInputBuffer retval = new DerInputBuffer(buf, pos, count);
+        retval.mark(Integer.MAX_VALUE);
+        return retval;
+    }
 
-            retval.mark(Integer.MAX_VALUE);
-            return retval;
-        } catch (CloneNotSupportedException e) {
-            throw new IllegalArgumentException(e.toString());
-        }
+    /**
+     * Returns a view of the next <code>len</code> bytes, this buffer
+     * is not advanced.
+     */
+    DerInputBuffer slice(int len) throws IOException {
+        if (len > available())
+            throw new IOException("insufficient data");
+        return new DerInputBuffer(buf, pos, pos + len);
+    }
+
+    /**
+     * Returns a read-only view of the bytes left in this buffer.
+     */
+    ByteBuffer toByteBuffer() {
+        ByteBuffer retval = buf.asReadOnlyBuffer();
+        retval.limit(count);
+        retval.position(pos);
+        return retval.slice();
     }
 
     byte[] toByteArray() {
@@ -67,15 +110,91 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
             return null;
         byte[]  retval = new byte[len];
 
-        System.arraycopy(buf, pos, retval, 0, len);
+        get(pos, retval, 0, len);
         return retval;
     }
 
+    /**
+     * Writes the bytes left in this buffer to the stream, without
+     * consuming them.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        int len = available();
+        if (buf.hasArray()) {
+            out.write(buf.array(), buf.arrayOffset() + pos, len);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(len, 8192)];
+        for (int p = pos; p < count; p += chunk.length) {
+            int n = Math.min(chunk.length, count - p);
+            get(p, chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /*
+     * Bulk absolute get, leaves the shared buffer untouched.
+     */
+    private void get(int from, byte[] b, int off, int len) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + from, b, off, len);
+        } else {
+            ByteBuffer view = buf.duplicate();
+            view.limit(from + len);
+            view.position(from);
+            view.get(b, off, len);
+        }
+    }
+
+    public int read() {
+        return (pos < count) ? (buf.get(pos++) & 0xff) : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (pos >= count)
+            return -1;
+        len = Math.min(len, count - pos);
+        if (len <= 0)
+            return 0;
+        get(pos, b, off, len);
+        pos += len;
+        return len;
+    }
+
+    public long skip(long n) {
+        long k = Math.min(count - pos, n);
+        if (k < 0)
+            k = 0;
+        pos += k;
+        return k;
+    }
+
+    public int available() {
+        return count - pos;
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int readAheadLimit) {
+        mark = pos;
+    }
+
+    public void reset() {
+        pos = mark;
+    }
+
+    public void close() {
+    }
+
     int peek() throws IOException {
         if (pos >= count)
             throw new IOException("out of data");
         else
-            return buf[pos];
+            return buf.get(pos);
     }
 
     /**
@@ -97,7 +216,7 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
         if (other.available() != max)
             return false;
         for (int i = 0; i < max; i++) {
-            if (this.buf[this.pos + i] != other.buf[other.pos + i]) {
+            if (this.buf.get(this.pos + i) != other.buf.get(other.pos + i)) {
                 return false;
             }
         }
@@ -116,7 +235,7 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
         int p = pos;
 
         for (int i = 0; i < len; i++)
-            retval += buf[p + i] * i;
+            retval += buf.get(p + i) * i;
         return retval;
     }
 
@@ -144,7 +263,7 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
 
         byte[] bytes = new byte[len];
 
-        System.arraycopy(buf, pos, bytes, 0, len);
+        get(pos, bytes, 0, len);
         skip(len);
 
         if (makePositive) {
@@ -187,13 +306,13 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
             throw new IOException("Invalid encoding: zero length bit string");
         }
 
-        int numOfPadBits = buf[pos];
+        int numOfPadBits = buf.get(pos);
         if ((numOfPadBits < 0) || (numOfPadBits > 7)) {
             throw new IOException("Invalid number of padding bits");
         }
         // minus the first byte which indicates the number of padding bits
         byte[] retval = new byte[len - 1];
-        System.arraycopy(buf, pos + 1, retval, 0, len - 1);
+        get(pos + 1, retval, 0, len - 1);
         if (numOfPadBits != 0) {
             // get rid of the padding bits
             retval[len - 2] &= (0xff << numOfPadBits);
@@ -221,7 +340,7 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
          * and consume the rest of the buffer.
          */
         int len = available();
-        int unusedBits = buf[pos] & 0xff;
+        int unusedBits = buf.get(pos) & 0xff;
         if (unusedBits > 7 ) {
             throw new IOException("Invalid value for unused bits: " + unusedBits);
         }
@@ -229,7 +348,7 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
         // number of valid bits
         int length = (bits.length == 0) ? 0 : bits.length * 8 - unusedBits;
 
-        System.arraycopy(buf, pos + 1, bits, 0, len - 1);
+        get(pos + 1, bits, 0, len - 1);
 
         BitArray bitArray = new BitArray(length, bits);
         pos = count;
@@ -298,15 +417,15 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
 
         if (generalized) {
             type = "Generalized";
-            year = 1000 * Character.digit((char)buf[pos++], 10);
-            year += 100 * Character.digit((char)buf[pos++], 10);
-            year += 10 * Character.digit((char)buf[pos++], 10);
-            year += Character.digit((char)buf[pos++], 10);
+            year = 1000 * digit();
+            year += 100 * digit();
+            year += 10 * digit();
+            year += digit();
             len -= 2; // For the two extra YY
         } else {
             type = "UTC";
-            year = 10 * Character.digit((char)buf[pos++], 10);
-            year += Character.digit((char)buf[pos++], 10);
+            year = 10 * digit();
+            year += digit();
 
             if (year < 50)              // origin 2000
                 year += 2000;
@@ -314,17 +433,17 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
                 year += 1900;   // origin 1900
         }
 
-        month = 10 * Character.digit((char)buf[pos++], 10);
-        month += Character.digit((char)buf[pos++], 10);
+        month = 10 * digit();
+        month += digit();
 
-        day = 10 * Character.digit((char)buf[pos++], 10);
-        day += Character.digit((char)buf[pos++], 10);
+        day = 10 * digit();
+        day += digit();
 
-        hour = 10 * Character.digit((char)buf[pos++], 10);
-        hour += Character.digit((char)buf[pos++], 10);
+        hour = 10 * digit();
+        hour += digit();
 
-        minute = 10 * Character.digit((char)buf[pos++], 10);
-        minute += Character.digit((char)buf[pos++], 10);
+        minute = 10 * digit();
+        minute += digit();
 
         len -= 10; // YYMMDDhhmm
 
@@ -336,34 +455,34 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
 
         millis = 0;
         if (len > 2 && len < 12) {
-            second = 10 * Character.digit((char)buf[pos++], 10);
-            second += Character.digit((char)buf[pos++], 10);
+            second = 10 * digit();
+            second += digit();
             len -= 2;
             // handle fractional seconds (if present)
-            if (buf[pos] == '.' || buf[pos] == ',') {
+            if (buf.get(pos) == '.' || buf.get(pos) == ',') {
                 len --;
                 pos++;
                 // handle upto milisecond precision only
                 int precision = 0;
                 int peek = pos;
-                while (buf[peek] != 'Z' &&
-                       buf[peek] != '+' &&
-                       buf[peek] != '-') {
+                while (buf.get(peek) != 'Z' &&
+                       buf.get(peek) != '+' &&
+                       buf.get(peek) != '-') {
                     peek++;
                     precision++;
                 }
                 switch (precision) {
                 case 3:
-                    millis += 100 * Character.digit((char)buf[pos++], 10);
-                    millis += 10 * Character.digit((char)buf[pos++], 10);
-                    millis += Character.digit((char)buf[pos++], 10);
+                    millis += 100 * digit();
+                    millis += 10 * digit();
+                    millis += digit();
                     break;
                 case 2:
-                    millis += 100 * Character.digit((char)buf[pos++], 10);
-                    millis += 10 * Character.digit((char)buf[pos++], 10);
+                    millis += 100 * digit();
+                    millis += 10 * digit();
                     break;
                 case 1:
-                    millis += 100 * Character.digit((char)buf[pos++], 10);
+                    millis += 100 * digit();
                     break;
                 default:
                         throw new IOException("Parse " + type +
@@ -411,12 +530,12 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
 
         int hr, min;
 
-        switch (buf[pos++]) {
+        switch (buf.get(pos++)) {
         case '+':
-            hr = 10 * Character.digit((char)buf[pos++], 10);
-            hr += Character.digit((char)buf[pos++], 10);
-            min = 10 * Character.digit((char)buf[pos++], 10);
-            min += Character.digit((char)buf[pos++], 10);
+            hr = 10 * digit();
+            hr += digit();
+            min = 10 * digit();
+            min += digit();
 
             if (hr >= 24 || min >= 60)
                 throw new IOException("Parse " + type + " time, +hhmm");
@@ -425,10 +544,10 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
             break;
 
         case '-':
-            hr = 10 * Character.digit((char)buf[pos++], 10);
-            hr += Character.digit((char)buf[pos++], 10);
-            min = 10 * Character.digit((char)buf[pos++], 10);
-            min += Character.digit((char)buf[pos++], 10);
+            hr = 10 * digit();
+            hr += digit();
+            min = 10 * digit();
+            min += digit();
 
             if (hr >= 24 || min >= 60)
                 throw new IOException("Parse " + type + " time, -hhmm");
@@ -444,4 +563,11 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
         }
         return new Date(time);
     }
+
+    /*
+     * Next ASCII digit of a time value.
+     */
+    private int digit() {
+        return Character.digit((char)buf.get(pos++), 10);
+    }
 }
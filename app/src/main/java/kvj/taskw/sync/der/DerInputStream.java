@@ -31,7 +31,7 @@ import java.io.EOFException;
 import java.util.Date;
 import java.util.Vector;
 import java.math.BigInteger;
-import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A DER input stream, used for parsing ASN.1 DER-encoded data such as
@@ -95,6 +95,35 @@ public class DerInputStream {
         init(data, offset, len);
     }
 
+    /**
+     * Create a DER input stream from the bytes between position and
+     * limit of a buffer, which may be a memory mapped file.  The buffer
+     * is not copied, it is shared; its position and limit are not changed.
+     * Accordingly, the buffer should be treated as read-only.
+     *
+     * @param data the buffer from which to create the string
+     */
+    public DerInputStream(ByteBuffer data) throws IOException {
+        if (data.remaining() < 2) {
+            throw new IOException("Encoding bytes too short");
+        }
+        // check for indefinite length encoding
+        if (DerIndefLenConverter.isIndefinite(data.get(data.position() + 1))) {
+            BerConverter derIn = new BerConverter();
+            if (data.hasArray()) {
+                derIn.convert(data.array(), data.arrayOffset() + data.position(),
+                              data.remaining());
+            } else {
+                byte[] inData = new byte[data.remaining()];
+                data.duplicate().get(inData);
+                derIn.convert(inData, 0, inData.length);
+            }
+            buffer = new DerInputBuffer(derIn.getBuffer(), 0, derIn.size());
+        } else
+            buffer = new DerInputBuffer(data);
+        buffer.mark(Integer.MAX_VALUE);
+    }
+
     /*
      * private helper routine
      */
@@ -104,11 +133,8 @@ public class DerInputStream {
         }
         // check for indefinite length encoding
         if (DerIndefLenConverter.isIndefinite(data[offset+1])) {
-            byte[] inData = new byte[len];
-            System.arraycopy(data, offset, inData, 0, len);
-
-            DerIndefLenConverter derIn = new DerIndefLenConverter();
-            buffer = new DerInputBuffer(derIn.convert(inData));
+            BerConverter derIn = new BerConverter().convert(data, offset, len);
+            buffer = new DerInputBuffer(derIn.getBuffer(), 0, derIn.size());
         } else
             buffer = new DerInputBuffer(data, offset, len);
         buffer.mark(Integer.MAX_VALUE);
@@ -148,6 +174,14 @@ public class DerInputStream {
         return buffer.toByteArray();
     }
 
+    /**
+     * Returns a read-only view of the data left in this DerInputStream,
+     * without copying or consuming it.
+     */
+    public ByteBuffer toByteBuffer() {
+        return buffer.toByteBuffer();
+    }
+
     /*
      * PRIMITIVES -- these are "universal" ASN.1 simple types.
      *
@@ -257,6 +291,20 @@ public class DerInputStream {
         return retval;
     }
 
+    /**
+     * Returns an ASN.1 OCTET STRING from the input stream as a read-only
+     * view of the underlying buffer, nothing is copied.
+     */
+    public ByteBuffer getOctetStringBuffer() throws IOException {
+        if (buffer.read() != DerValue.tag_OctetString)
+            throw new IOException("DER input not an octet string");
+
+        int length = getLength(buffer);
+        DerInputBuffer value = buffer.slice(length);
+        buffer.skip(length);
+        return value.toByteBuffer();
+    }
+
     /**
      * Returns the asked number of bytes from the input stream.
      */
@@ -278,7 +326,17 @@ public class DerInputStream {
      * Reads an X.200 style Object Identifier from the stream.
      */
     public ObjectIdentifier getOID() throws IOException {
-        return new ObjectIdentifier(this);
+        int tag = buffer.read();
+        if (tag != DerValue.tag_ObjectId)
+            throw new IOException("ObjectIdentifier() -- data isn't an object ID"
+                                  + " (tag = " + (byte) tag + ")");
+
+        int length = getLength(buffer);
+        if (length > buffer.available())
+            throw new IOException("ObjectIdentifier() -- not enough data");
+        DerInputBuffer value = buffer.slice(length);
+        buffer.skip(length);
+        return ObjectIdentifier.of(value);
     }
 
     /**
@@ -349,21 +407,21 @@ public class DerInputStream {
         int len = getLength((lenByte & 0xff), buffer);
 
         if (len == -1) {
-           // indefinite length encoding found
-           int readLen = buffer.available();
-           int offset = 2;     // for tag and length bytes
-           byte[] indefData = new byte[readLen + offset];
-           indefData[0] = tag;
-           indefData[1] = lenByte;
-           DataInputStream dis = new DataInputStream(buffer);
-           dis.readFully(indefData, offset, readLen);
-           dis.close();
-           DerIndefLenConverter derIn = new DerIndefLenConverter();
-           buffer = new DerInputBuffer(derIn.convert(indefData));
-           if (tag != buffer.read())
-                throw new IOException("Indefinite length encoding" +
-                        " not supported");
-           len = DerInputStream.getLength(buffer);
+            // indefinite length encoding found, only this value is
+            // converted and read from the buffer
+            BerConverter derIn = new BerConverter().convertIndefinite(tag, buffer);
+            DerInputBuffer value = new DerInputBuffer(derIn.getBuffer(), 0, derIn.size());
+            value.read(); // tag
+            len = DerInputStream.getLength(value);
+            newstr = new DerInputStream(value);
+        } else if (buffer.available() == len) {
+            /*
+             * Create a temporary stream from which to read the data,
+             * unless it's not really needed.
+             */
+            newstr = this;
+        } else {
+            newstr = subStream(len, true);
         }
 
         if (len == 0)
@@ -371,15 +429,6 @@ public class DerInputStream {
             // used only for missing optionals
             return new DerValue[0];
 
-        /*
-         * Create a temporary stream from which to read the data,
-         * unless it's not really needed.
-         */
-        if (buffer.available() == len)
-            newstr = this;
-        else
-            newstr = subStream(len, true);
-
         /*
          * Pull values out of the stream.
          */
@@ -33,8 +33,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
 import java.util.Vector;
-import java.util.Comparator;
-import java.util.Arrays;
 import java.math.BigInteger;
 
 
@@ -299,13 +297,7 @@ extends ByteArrayOutputStream implements DerEncoder {
      * (one to N values) constructs.
      */
     public void putSequence(DerValue[] seq) throws IOException {
-        DerOutputStream bytes = new DerOutputStream();
-        int i;
-
-        for (i = 0; i < seq.length; i++)
-            seq[i].encode(bytes);
-
-        write(DerValue.tag_Sequence, bytes);
+        putValues(DerValue.tag_Sequence, seq);
     }
 
     /**
@@ -316,13 +308,22 @@ extends ByteArrayOutputStream implements DerEncoder {
      * For DER encoding, use orderedPutSet() or orderedPutSetOf().
      */
     public void putSet(DerValue[] set) throws IOException {
-        DerOutputStream bytes = new DerOutputStream();
-        int i;
+        putValues(DerValue.tag_Set, set);
+    }
 
-        for (i = 0; i < set.length; i++)
-            set[i].encode(bytes);
+    /*
+     * Lengths of the values are known, so they are encoded straight
+     * into this stream instead of a temporary one.
+     */
+    private void putValues(byte tag, DerValue[] values) throws IOException {
+        int len = 0;
+        for (int i = 0; i < values.length; i++)
+            len += encodedLength(values[i].length());
 
-        write(DerValue.tag_Set, bytes);
+        write(tag);
+        putLength(len);
+        for (int i = 0; i < values.length; i++)
+            values[i].encode(this);
     }
 
     /**
@@ -367,32 +368,56 @@ extends ByteArrayOutputStream implements DerEncoder {
 
     /**
      * Marshals a the contents of a set on the output stream with the
-     * encodings of its sorted in increasing order.
+     * encodings of its sorted in increasing order.  All elements are
+     * encoded into one buffer and sorted in place by their offsets.
      *
      * @param order the order to use when sorting encodings of components.
      */
     private void putOrderedSet(byte tag, DerEncoder[] set,
-                               Comparator<byte[]> order) throws IOException {
-        DerOutputStream[] streams = new DerOutputStream[set.length];
+                               ByteArrayRegionOrder order) throws IOException {
+        DerOutputStream bytes = new DerOutputStream();
+        int[] offsets = new int[set.length + 1];
 
         for (int i = 0; i < set.length; i++) {
-            streams[i] = new DerOutputStream();
-            set[i].derEncode(streams[i]);
+            offsets[i] = bytes.count;
+            set[i].derEncode(bytes);
         }
+        offsets[set.length] = bytes.count;
 
         // order the element encodings
-        byte[][] bufs = new byte[streams.length][];
-        for (int i = 0; i < streams.length; i++) {
-            bufs[i] = streams[i].toByteArray();
-        }
-        Arrays.<byte[]>sort(bufs, order);
+        int[] sorted = sortRegions(bytes.buf, offsets, order);
 
-        DerOutputStream bytes = new DerOutputStream();
-        for (int i = 0; i < streams.length; i++) {
-            bytes.write(bufs[i]);
+        write(tag);
+        putLength(bytes.count);
+        for (int i = 0; i < sorted.length; i++) {
+            int element = sorted[i];
+            write(bytes.buf, offsets[element],
+                  offsets[element + 1] - offsets[element]);
         }
-        write(tag, bytes);
+    }
 
+    /*
+     * Returns indexes of regions [offsets[i], offsets[i+1]) of buf in
+     * the given order.  Sets are small, so this is an insertion sort,
+     * stable like the Arrays.sort it replaces.
+     */
+    static int[] sortRegions(byte[] buf, int[] offsets,
+                             ByteArrayRegionOrder order) {
+        int[] sorted = new int[offsets.length - 1];
+        for (int i = 0; i < sorted.length; i++) {
+            int element = sorted[i] = i;
+            int j = i;
+            while (j > 0 && order.compare(
+                    buf, offsets[sorted[j - 1]],
+                    offsets[sorted[j - 1] + 1] - offsets[sorted[j - 1]],
+                    buf, offsets[element],
+                    offsets[element + 1] - offsets[element]) > 0) {
+                sorted[j] = sorted[j - 1];
+                j--;
+            }
+            sorted[j] = element;
+        }
+        return sorted;
     }
 
     /**
@@ -548,6 +573,30 @@ extends ByteArrayOutputStream implements DerEncoder {
         }
     }
 
+    /**
+     * Returns the number of bytes <code>putLength(len)</code> writes.
+     */
+    static int lengthSize(int len) {
+        if (len < 128)
+            return 1;
+        else if (len < (1 << 8))
+            return 2;
+        else if (len < (1 << 16))
+            return 3;
+        else if (len < (1 << 24))
+            return 4;
+        else
+            return 5;
+    }
+
+    /**
+     * Returns the size of a single byte tag, length and value of
+     * <code>len</code> bytes.
+     */
+    static int encodedLength(int len) {
+        return 1 + lengthSize(len) + len;
+    }
+
     /**
      * Put the tag of the attribute in the stream.
      *
@@ -0,0 +1,253 @@
+package kvj.taskw.sync.der;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Pull-style DER reader: walks encoded data as a sequence of events without creating value objects.
+ * Every call to {@link #next()} returns START_CONSTRUCTED (sequence, set, tagged), PRIMITIVE (tag, offset, length
+ * of the value are available, value getters work), END (constructed value closed) or END_DOCUMENT.
+ * Fields not needed are passed with {@link #skip()}. Data is shared, not copied, and must not change while read.
+ * Indefinite length constructed values (BER) are accepted, their end-of-contents octets produce END.
+ */
+public class DerReader {
+
+    public static final int START_CONSTRUCTED = 1;
+    public static final int PRIMITIVE = 2;
+    public static final int END = 3;
+    public static final int END_DOCUMENT = 4;
+
+    public static final int MAX_DEPTH = 32;
+    private static final int INDEFINITE = -1;
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private final int[] ends = new int[MAX_DEPTH]; // End of every open constructed value or INDEFINITE
+    private int depth = 0;
+    private int pos;
+    private int event = 0;
+    private byte tag = 0;
+    private int offset = 0;
+    private int length = 0;
+
+    public DerReader(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads bytes between position and limit, buffer position and limit are not changed.
+     */
+    public DerReader(ByteBuffer data) {
+        buf = data;
+        pos = data.position();
+        limit = data.limit();
+    }
+
+    /**
+     * @return end of data available to the current level
+     */
+    private int bound() {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (ends[i] != INDEFINITE) {
+                return ends[i];
+            }
+        }
+        return limit;
+    }
+
+    public int next() throws IOException {
+        if (depth > 0 && ends[depth - 1] == INDEFINITE) {
+            if (pos + 2 <= limit && buf.get(pos) == 0 && buf.get(pos + 1) == 0) {
+                pos += 2;
+                depth--;
+                return event = END;
+            }
+        } else if (pos == (depth > 0 ? ends[depth - 1] : limit)) {
+            if (depth == 0) {
+                return event = END_DOCUMENT;
+            }
+            depth--;
+            return event = END;
+        }
+        int bound = bound();
+        if (bound - pos < 2) {
+            throw new IOException("DER input too short");
+        }
+        tag = buf.get(pos++);
+        if ((tag & 0x1f) == 0x1f) {
+            throw new IOException("DER multi-byte tags not supported");
+        }
+        length = readLength(bound);
+        offset = pos;
+        boolean constructed = (tag & 0x20) == 0x20;
+        if (length == INDEFINITE) {
+            if (!constructed) {
+                throw new IOException("DER indefinite length primitive value");
+            }
+        } else if (length > bound - pos) {
+            throw new IOException("DER length " + length + " exceeds data");
+        }
+        if (!constructed) {
+            pos += length;
+            return event = PRIMITIVE;
+        }
+        if (depth == MAX_DEPTH) {
+            throw new IOException("DER nesting deeper than " + MAX_DEPTH);
+        }
+        ends[depth++] = length == INDEFINITE ? INDEFINITE : pos + length;
+        return event = START_CONSTRUCTED;
+    }
+
+    private int readLength(int bound) throws IOException {
+        int lenByte = buf.get(pos++) & 0xff;
+        if ((lenByte & 0x80) == 0) {
+            return lenByte;
+        }
+        int bytes = lenByte & 0x7f;
+        if (bytes == 0) {
+            return INDEFINITE;
+        }
+        if (bytes > 4 || bytes > bound - pos) {
+            throw new IOException("DER length of " + bytes + " bytes");
+        }
+        int value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (buf.get(pos++) & 0xff);
+        }
+        if (value < 0) {
+            throw new IOException("DER length too big");
+        }
+        return value;
+    }
+
+    /**
+     * Passes the current value: after START_CONSTRUCTED all its content and END are consumed.
+     */
+    public void skip() throws IOException {
+        if (event != START_CONSTRUCTED) {
+            return;
+        }
+        int target = depth - 1;
+        if (ends[target] != INDEFINITE) {
+            pos = ends[target];
+            depth = target;
+        } else {
+            while (depth > target) {
+                if (next() == END_DOCUMENT) {
+                    throw new IOException("DER end-of-contents missing");
+                }
+            }
+        }
+        event = END;
+    }
+
+    /**
+     * Moves to the next value and checks it.
+     */
+    public void require(int event, byte tag) throws IOException {
+        if (next() != event || this.tag != tag) {
+            throw new IOException("DER input, expected tag " + tag + ", found " + this.tag);
+        }
+    }
+
+    public int getEvent() {
+        return event;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    /**
+     * @return offset of value in data (after tag and length)
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return length of value, -1 for indefinite length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return number of open constructed values
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private void primitive(byte expected) throws IOException {
+        if (event != PRIMITIVE || tag != expected) {
+            throw new IOException("DER input, not a primitive of tag " + expected + ": " + tag);
+        }
+    }
+
+    /**
+     * @return copy of the current primitive value
+     */
+    public byte[] getBytes() throws IOException {
+        if (event != PRIMITIVE) {
+            throw new IOException("DER input, not a primitive value");
+        }
+        byte[] bytes = new byte[length];
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + offset, bytes, 0, length);
+        } else {
+            ByteBuffer view = buf.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            view.get(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return read-only view of the current primitive value
+     */
+    public ByteBuffer getBuffer() throws IOException {
+        if (event != PRIMITIVE) {
+            throw new IOException("DER input, not a primitive value");
+        }
+        ByteBuffer view = buf.asReadOnlyBuffer();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    public BigInteger getBigInteger() throws IOException {
+        primitive(DerValue.tag_Integer);
+        if (length == 0) {
+            throw new IOException("Invalid encoding: zero length Int value");
+        }
+        return new BigInteger(getBytes());
+    }
+
+    public int getInteger() throws IOException {
+        primitive(DerValue.tag_Integer);
+        if (length == 0 || length > 4) {
+            throw new IOException("DER input, invalid int length " + length);
+        }
+        int value = buf.get(offset); // Sign extended
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (buf.get(offset + i) & 0xff);
+        }
+        return value;
+    }
+
+    public ObjectIdentifier getOID() throws IOException {
+        primitive(DerValue.tag_ObjectId);
+        ByteBuffer value = buf.duplicate();
+        value.limit(offset + length);
+        value.position(offset);
+        return ObjectIdentifier.of(new DerInputBuffer(value));
+    }
+
+    public ByteBuffer getOctetString() throws IOException {
+        primitive(DerValue.tag_OctetString);
+        return getBuffer();
+    }
+}
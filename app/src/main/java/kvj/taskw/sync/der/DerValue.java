@@ -27,6 +27,7 @@ package kvj.taskw.sync.der;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 /**
@@ -243,6 +244,15 @@ public class DerValue {
      * package private
      */
     DerValue(DerInputBuffer in) throws IOException {
+        this(in, false);
+    }
+
+    /*
+     * The value data is a view of the input buffer, nothing is copied
+     * unless indefinite length encoding has to be converted.
+     */
+    private DerValue(DerInputBuffer in, boolean fullyBuffered)
+            throws IOException {
         // XXX must also parse BER-encoded constructed
         // values such as sequences, sets...
 
@@ -250,29 +260,23 @@ public class DerValue {
         byte lenByte = (byte)in.read();
         length = DerInputStream.getLength((lenByte & 0xff), in);
         if (length == -1) {  // indefinite length encoding found
-            DerInputBuffer inbuf = in.dup();
-            int readLen = inbuf.available();
-            int offset = 2;     // for tag and length bytes
-            byte[] indefData = new byte[readLen + offset];
-            indefData[0] = tag;
-            indefData[1] = lenByte;
-            DataInputStream dis = new DataInputStream(inbuf);
-            dis.readFully(indefData, offset, readLen);
-            dis.close();
-            DerIndefLenConverter derIn = new DerIndefLenConverter();
-            inbuf = new DerInputBuffer(derIn.convert(indefData));
-            if (tag != inbuf.read())
-                throw new IOException
-                        ("Indefinite length encoding not supported");
+            // indefinite form is encoded by sending a length field with a
+            // length of 0. - i.e. [1000|0000].
+            // the object is ended by sending two zero bytes.
+            // Converter reads the value up to them, the rest stays in input.
+            BerConverter derIn = new BerConverter().convertIndefinite(tag, in);
+            if (fullyBuffered && in.available() != 0)
+                throw new IOException("extra data given to DerValue constructor");
+
+            DerInputBuffer inbuf = new DerInputBuffer(derIn.getBuffer(), 0, derIn.size());
+            inbuf.read(); // tag
             length = DerInputStream.getLength(inbuf);
             buffer = inbuf.dup();
             buffer.truncate(length);
             data = new DerInputStream(buffer);
-            // indefinite form is encoded by sending a length field with a
-            // length of 0. - i.e. [1000|0000].
-            // the object is ended by sending two zero bytes.
-            in.skip(length + offset);
         } else {
+            if (fullyBuffered && in.available() != length)
+                throw new IOException("extra data given to DerValue constructor");
 
             buffer = in.dup();
             buffer.truncate(length);
@@ -285,25 +289,39 @@ public class DerValue {
     /**
      * Get an ASN.1/DER encoded datum from a buffer.  The
      * entire buffer must hold exactly one datum, including
-     * its tag and length.
+     * its tag and length.  The buffer is not copied, it is shared.
+     * Accordingly, the buffer should be treated as read-only.
      *
      * @param buf buffer holding a single DER-encoded datum.
      */
     public DerValue(byte[] buf) throws IOException {
-        data = init(true, new ByteArrayInputStream(buf));
+        this(new DerInputBuffer(buf), true);
     }
 
     /**
      * Get an ASN.1/DER encoded datum from part of a buffer.
      * That part of the buffer must hold exactly one datum, including
-     * its tag and length.
+     * its tag and length.  The buffer is not copied, it is shared.
      *
      * @param buf the buffer
      * @param offset start point of the single DER-encoded dataum
      * @param len how many bytes are in the encoded datum
      */
     public DerValue(byte[] buf, int offset, int len) throws IOException {
-        data = init(true, new ByteArrayInputStream(buf, offset, len));
+        this(new DerInputBuffer(buf, offset, len), true);
+    }
+
+    /**
+     * Get an ASN.1/DER encoded datum from the bytes between position
+     * and limit of a buffer, which may be a memory mapped file.  They
+     * must hold exactly one datum, including its tag and length.  The
+     * buffer is not copied, it is shared; its position and limit are
+     * not changed.
+     *
+     * @param buf buffer holding a single DER-encoded datum.
+     */
+    public DerValue(ByteBuffer buf) throws IOException {
+        this(new DerInputBuffer(buf), true);
     }
 
     /**
@@ -363,19 +381,10 @@ public class DerValue {
         byte lenByte = (byte)in.read();
         length = DerInputStream.getLength((lenByte & 0xff), in);
         if (length == -1) { // indefinite length encoding found
-            int readLen = in.available();
-            int offset = 2;     // for tag and length bytes
-            byte[] indefData = new byte[readLen + offset];
-            indefData[0] = tag;
-            indefData[1] = lenByte;
-            DataInputStream dis = new DataInputStream(in);
-            dis.readFully(indefData, offset, readLen);
-            dis.close();
-            DerIndefLenConverter derIn = new DerIndefLenConverter();
-            in = new ByteArrayInputStream(derIn.convert(indefData));
-            if (tag != in.read())
-                throw new IOException
-                        ("Indefinite length encoding not supported");
+            // Read up to the end-of-contents, not whatever is available
+            BerConverter derIn = new BerConverter().convertIndefinite(tag, in);
+            in = new ByteArrayInputStream(derIn.getBuffer(), 0, derIn.size());
+            in.read(); // tag
             length = DerInputStream.getLength(in);
         }
         if (length == 0)
@@ -398,16 +407,14 @@ public class DerValue {
     throws IOException {
         out.write(tag);
         out.putLength(length);
-        // XXX yeech, excess copies ... DerInputBuffer.write(OutStream)
         if (length > 0) {
-            byte[] value = new byte[length];
             // always synchronized on data
             synchronized (data) {
                 buffer.reset();
-                if (buffer.read(value) != length) {
+                if (buffer.available() < length) {
                     throw new IOException("short DER value read (encode)");
                 }
-                out.write(value);
+                buffer.slice(length).writeTo(out);
             }
         }
     }
@@ -447,7 +454,7 @@ public class DerValue {
     public ObjectIdentifier getOID() throws IOException {
         if (tag != tag_ObjectId)
             throw new IOException("DerValue.getOID, not an OID " + tag);
-        return new ObjectIdentifier(buffer);
+        return ObjectIdentifier.of(buffer);
     }
 
     private byte[] append(byte[] a, byte[] b) {
@@ -486,6 +493,26 @@ public class DerValue {
         return bytes;
     }
 
+    /**
+     * Returns an ASN.1 OCTET STRING as a read-only view of the underlying
+     * buffer.  Only constructed (BER) octet strings are copied, to join
+     * their segments.
+     *
+     * @return the octet string held in this DER value
+     */
+    public ByteBuffer getOctetStringBuffer() throws IOException {
+        if (isConstructed(tag_OctetString)) {
+            return ByteBuffer.wrap(getOctetString()).asReadOnlyBuffer();
+        }
+        if (tag != tag_OctetString) {
+            throw new IOException(
+                "DerValue.getOctetString, not an Octet String: " + tag);
+        }
+        DerInputBuffer value = buffer.slice(length);
+        buffer.skip(length);
+        return value.toByteBuffer();
+    }
+
     /**
      * Returns an ASN.1 INTEGER value as an integer.
      *
@@ -633,6 +660,17 @@ public class DerValue {
         return retVal;
     }
 
+    /**
+     * Returns a read-only view of all the bytes contained in the
+     * DerInputStream associated with this object, nothing is copied.
+     */
+    public ByteBuffer getDataBuffer() throws IOException {
+        synchronized (data) {
+            data.reset();
+            return buffer.slice(length).toByteBuffer();
+        }
+    }
+
     /**
      * Returns an ASN.1 STRING value
      *
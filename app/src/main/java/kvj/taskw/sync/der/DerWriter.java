@@ -0,0 +1,323 @@
+package kvj.taskw.sync.der;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+
+/**
+ * DER encoder writing the whole structure into one buffer of exact size.
+ * Values are recorded with start/put/end calls, the length of every constructed value is summed up when it is
+ * closed (first pass), then {@link #toByteArray()} writes tags, lengths and values once (second pass).
+ * Unlike nested DerOutputStreams, children are never copied into their parents.
+ * Primitive values passed as arrays are referenced, not copied, and must not change until encoded.
+ * Elements of ordered sets are sorted by tag before writing (SET) or in place after writing (SET OF).
+ */
+public class DerWriter implements DerEncoder {
+
+    private static final int PRIMITIVE = 0;
+    private static final int CONSTRUCTED = 1;
+    private static final int ENCODED = 2; // Tag, length and value given
+    private static final int TAG_ORDER = 3; // SET, constructed
+    private static final int LEX_ORDER = 4; // SET OF, constructed
+
+    private static final ByteArrayLexOrder lexOrder = new ByteArrayLexOrder();
+
+    private int items = 0;
+    private byte[] kinds = new byte[16];
+    private byte[] tags = new byte[16];
+    private int[] lengths = new int[16]; // Of value
+    private int[] ends = new int[16]; // Index after the last item of the value
+    private byte[][] data = new byte[16][];
+    private int[] offsets = new int[16];
+    private int[] open = new int[8];
+    private int depth = 0;
+    private int size = 0; // Of all top level values
+
+    private int add(int kind, byte tag, byte[] value, int offset, int length) {
+        if (items == kinds.length) {
+            int capacity = items * 2;
+            kinds = copyOf(kinds, capacity);
+            tags = copyOf(tags, capacity);
+            lengths = copyOf(lengths, capacity);
+            ends = copyOf(ends, capacity);
+            offsets = copyOf(offsets, capacity);
+            byte[][] grown = new byte[capacity][];
+            System.arraycopy(data, 0, grown, 0, items);
+            data = grown;
+        }
+        int item = items++;
+        kinds[item] = (byte) kind;
+        tags[item] = tag;
+        data[item] = value;
+        offsets[item] = offset;
+        lengths[item] = length;
+        ends[item] = items;
+        return item;
+    }
+
+    private static byte[] copyOf(byte[] from, int capacity) {
+        byte[] result = new byte[capacity];
+        System.arraycopy(from, 0, result, 0, from.length);
+        return result;
+    }
+
+    private static int[] copyOf(int[] from, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(from, 0, result, 0, from.length);
+        return result;
+    }
+
+    private int encodedLength(int item) {
+        return kinds[item] == ENCODED ?
+                lengths[item] :
+                DerOutputStream.encodedLength(lengths[item]);
+    }
+
+    /*
+     * Adds the size of a complete value to its parent.
+     */
+    private void added(int item) {
+        if (depth > 0) {
+            lengths[open[depth - 1]] += encodedLength(item);
+        } else {
+            size += encodedLength(item);
+        }
+    }
+
+    private DerWriter start(int kind, byte tag) {
+        if (depth == open.length) {
+            open = copyOf(open, depth * 2);
+        }
+        open[depth++] = add(kind, tag, null, 0, 0);
+        return this;
+    }
+
+    /**
+     * Starts a constructed value, such as a SEQUENCE or a tagged one.
+     */
+    public DerWriter start(byte tag) {
+        return start(CONSTRUCTED, tag);
+    }
+
+    public DerWriter startSequence() {
+        return start(CONSTRUCTED, DerValue.tag_Sequence);
+    }
+
+    /**
+     * Starts a set which elements are sorted by tag, as
+     * DerOutputStream.putOrderedSet does.
+     */
+    public DerWriter startOrderedSet(byte tag) {
+        return start(TAG_ORDER, tag);
+    }
+
+    /**
+     * Starts a set which elements are sorted by their encodings, as
+     * DerOutputStream.putOrderedSetOf does.
+     */
+    public DerWriter startOrderedSetOf(byte tag) {
+        return start(LEX_ORDER, tag);
+    }
+
+    /**
+     * Closes the last started constructed value.
+     */
+    public DerWriter end() {
+        if (depth == 0) {
+            throw new IllegalStateException("No constructed value to end");
+        }
+        int item = open[--depth];
+        ends[item] = items;
+        added(item);
+        return this;
+    }
+
+    /**
+     * Adds a primitive value, the array is referenced, not copied.
+     */
+    public DerWriter put(byte tag, byte[] value, int offset, int length) {
+        added(add(PRIMITIVE, tag, value, offset, length));
+        return this;
+    }
+
+    public DerWriter put(byte tag, byte[] value) {
+        return put(tag, value, 0, value.length);
+    }
+
+    /**
+     * Adds an already encoded value: tag, length and contents.
+     */
+    public DerWriter putEncoded(byte[] encoded) {
+        added(add(ENCODED, encoded.length > 0 ? encoded[0] : 0, encoded, 0, encoded.length));
+        return this;
+    }
+
+    public DerWriter putDerValue(DerValue value) throws IOException {
+        return put(value.tag, value.getDataBytes());
+    }
+
+    public DerWriter putBoolean(boolean value) {
+        return put(DerValue.tag_Boolean, new byte[]{value ? (byte) 0xff : 0});
+    }
+
+    public DerWriter putInteger(int value) {
+        int length = 4;
+        // Drop leading bytes which only repeat the sign bit
+        while (length > 1 && (value >> ((length - 1) * 8 - 1)) == (value >> 31)) {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+        }
+        return put(DerValue.tag_Integer, bytes);
+    }
+
+    public DerWriter putInteger(BigInteger value) {
+        return put(DerValue.tag_Integer, value.toByteArray());
+    }
+
+    public DerWriter putOctetString(byte[] value) {
+        return put(DerValue.tag_OctetString, value);
+    }
+
+    public DerWriter putNull() {
+        return put(DerValue.tag_Null, new byte[0]);
+    }
+
+    public DerWriter putOID(ObjectIdentifier oid) {
+        return put(DerValue.tag_ObjectId, oid.encoding());
+    }
+
+    public DerWriter putUTF8String(String value) {
+        return putString(DerValue.tag_UTF8String, value, "UTF8");
+    }
+
+    public DerWriter putPrintableString(String value) {
+        return putString(DerValue.tag_PrintableString, value, "ASCII");
+    }
+
+    public DerWriter putIA5String(String value) {
+        return putString(DerValue.tag_IA5String, value, "ASCII");
+    }
+
+    private DerWriter putString(byte tag, String value, String enc) {
+        try {
+            return put(tag, value.getBytes(enc));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return size of the encoding of all values
+     */
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        if (depth > 0) {
+            throw new IllegalStateException("Constructed value not ended");
+        }
+        byte[] out = new byte[size];
+        int pos = 0;
+        for (int item = 0; item < items; item = ends[item]) {
+            pos = write(item, out, pos);
+        }
+        return out;
+    }
+
+    public void derEncode(OutputStream out) throws IOException {
+        out.write(toByteArray());
+    }
+
+    /**
+     * Forgets all values, buffers are kept for reuse.
+     */
+    public void reset() {
+        for (int i = 0; i < items; i++) {
+            data[i] = null;
+        }
+        items = 0;
+        depth = 0;
+        size = 0;
+    }
+
+    private static int writeLength(int len, byte[] out, int pos) {
+        int bytes = DerOutputStream.lengthSize(len) - 1;
+        if (bytes == 0) {
+            out[pos++] = (byte) len;
+            return pos;
+        }
+        out[pos++] = (byte) (0x80 | bytes);
+        for (int i = bytes - 1; i >= 0; i--) {
+            out[pos++] = (byte) (len >> (i * 8));
+        }
+        return pos;
+    }
+
+    private int write(int item, byte[] out, int pos) {
+        int kind = kinds[item];
+        if (kind == ENCODED) {
+            System.arraycopy(data[item], offsets[item], out, pos, lengths[item]);
+            return pos + lengths[item];
+        }
+        out[pos++] = tags[item];
+        pos = writeLength(lengths[item], out, pos);
+        if (kind == PRIMITIVE) {
+            System.arraycopy(data[item], offsets[item], out, pos, lengths[item]);
+            return pos + lengths[item];
+        }
+        int children = 0;
+        for (int child = item + 1; child < ends[item]; child = ends[child]) {
+            children++;
+        }
+        if (kind == CONSTRUCTED || children < 2) {
+            for (int child = item + 1; child < ends[item]; child = ends[child]) {
+                pos = write(child, out, pos);
+            }
+            return pos;
+        }
+        int[] order = new int[children];
+        int n = 0;
+        for (int child = item + 1; child < ends[item]; child = ends[child]) {
+            order[n++] = child;
+        }
+        if (kind == TAG_ORDER) { // Tags are known: sort first, write in order
+            for (int i = 1; i < n; i++) {
+                int element = order[i];
+                int j = i;
+                while (j > 0 && (tags[order[j - 1]] | 0x20) > (tags[element] | 0x20)) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = element;
+            }
+            for (int i = 0; i < n; i++) {
+                pos = write(order[i], out, pos);
+            }
+            return pos;
+        }
+        // LEX_ORDER: write, sort encodings where they are, then move them once
+        int start = pos;
+        int[] bounds = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            bounds[i] = pos;
+            pos = write(order[i], out, pos);
+        }
+        bounds[n] = pos;
+        int[] sorted = DerOutputStream.sortRegions(out, bounds, lexOrder);
+        byte[] encoded = new byte[pos - start];
+        System.arraycopy(out, start, encoded, 0, encoded.length);
+        int to = start;
+        for (int i = 0; i < n; i++) {
+            int element = sorted[i];
+            int length = bounds[element + 1] - bounds[element];
+            System.arraycopy(encoded, bounds[element] - start, out, to, length);
+            to += length;
+        }
+        return pos;
+    }
+}
@@ -26,6 +26,8 @@
 package kvj.taskw.sync.der;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -57,6 +59,89 @@ class ObjectIdentifier implements Serializable
     private static final int maxFirstComponent = 2;
     private static final int maxSecondComponent = 39;
 
+    /*
+     * Intern table.  Certificates repeat the same few OIDs, so parsing
+     * one is a lookup by its encoded bytes, and equal OIDs taken from
+     * the table are the same instance.  Bounded, so that garbage input
+     * can not grow it without limit.
+     */
+    private static final int maxInterned = 1024;
+    private static final ConcurrentHashMap<ByteBuffer, ObjectIdentifier>
+            byEncoding = new ConcurrentHashMap<ByteBuffer, ObjectIdentifier>();
+    private static final ConcurrentHashMap<String, ObjectIdentifier>
+            byString = new ConcurrentHashMap<String, ObjectIdentifier>();
+
+    /** Name attributes, key and signature algorithms, curves, extensions */
+    private static final String[] wellKnown = {
+        "2.5.4.3", "2.5.4.5", "2.5.4.6", "2.5.4.7", "2.5.4.8", "2.5.4.10",
+        "2.5.4.11", "1.2.840.113549.1.9.1", "0.9.2342.19200300.100.1.25",
+        "1.2.840.113549.1.1.1", "1.2.840.113549.1.1.5",
+        "1.2.840.113549.1.1.11", "1.2.840.113549.1.1.12",
+        "1.2.840.113549.1.1.13", "1.2.840.113549.1.1.10",
+        "1.2.840.10045.2.1", "1.2.840.10045.4.3.2", "1.2.840.10045.4.3.3",
+        "1.2.840.10045.4.3.4", "1.2.840.10045.3.1.7", "1.3.132.0.34",
+        "1.3.132.0.35", "1.3.101.112",
+        "2.5.29.14", "2.5.29.15", "2.5.29.17", "2.5.29.19", "2.5.29.31",
+        "2.5.29.32", "2.5.29.35", "2.5.29.37", "1.3.6.1.5.5.7.1.1",
+        "1.3.6.1.5.5.7.3.1", "1.3.6.1.5.5.7.3.2",
+    };
+
+    static {
+        try {
+            for (String oid : wellKnown) {
+                of(oid);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the shared instance of an OID in dot notation, creating
+     * (and interning) it when it is not known yet.
+     */
+    public static ObjectIdentifier of(String oid) throws IOException {
+        ObjectIdentifier result = byString.get(oid);
+        if (result == null) {
+            result = new ObjectIdentifier(oid).intern();
+            if (byString.size() < maxInterned) {
+                byString.putIfAbsent(oid, result);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Returns the OID encoded in the rest of a DER input buffer (tag and
+     * length have been removed/verified), consuming it.  Known ones are
+     * looked up without parsing.
+     */
+    static ObjectIdentifier of(DerInputBuffer buf) throws IOException {
+        ObjectIdentifier result = byEncoding.get(buf.toByteBuffer());
+        if (result == null) {
+            result = new ObjectIdentifier(buf.dup()).intern();
+        }
+        buf.skip(buf.available());
+        return result;
+    }
+
+    /**
+     * Returns the shared instance equal to this OID: an earlier one, or
+     * this one which is added to the table, while there is room.
+     */
+    public ObjectIdentifier intern() {
+        ByteBuffer key = ByteBuffer.wrap(encoding());
+        ObjectIdentifier existing = byEncoding.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (byEncoding.size() >= maxInterned) {
+            return this;
+        }
+        existing = byEncoding.putIfAbsent(key, this);
+        return existing != null ? existing : this;
+    }
+
     /**
      * Constructs an object identifier from a string.  This string
      * should be of the form 1.23.34.45.56 etc.
@@ -289,6 +374,19 @@ class ObjectIdentifier implements Serializable
      */
     void encode (DerOutputStream out) throws IOException
     {
+        out.write (DerValue.tag_ObjectId, encoding ());
+    }
+
+    /*
+     * Contents octets of the DER encoding, computed once.  Shared, must
+     * not be modified.
+     */
+    byte[] encoding ()
+    {
+        byte[] result = encoding;
+        if (result != null)
+            return result;
+
         DerOutputStream bytes = new DerOutputStream ();
         int i;
 
@@ -303,16 +401,14 @@ class ObjectIdentifier implements Serializable
         for (i = 2; i < componentLen; i++)
             putComponent (bytes, components [i]);
 
-        /*
-         * Now that we've constructed the component, encode
-         * it in the stream we were given.
-         */
-        out.write (DerValue.tag_ObjectId, bytes);
+        encoding = result = bytes.toByteArray();
+        return result;
     }
 
     /*
      * Tricky OID component parsing technique ... note that one bit
-     * per octet is lost, this returns at most 28 bits of component.
+     * per octet is lost, this returns at most 31 bits of component
+     * (the same putComponent can write).
      * Also, notice this parses in big-endian format.
      */
     private static int getComponent (DerInputStream in)
@@ -320,7 +416,9 @@ class ObjectIdentifier implements Serializable
     {
         int retval, i, tmp;
 
-        for (i = 0, retval = 0; i < 4; i++) {
+        for (i = 0, retval = 0; i < 5; i++) {
+            if (retval >= 1 << 24)
+                break;
             retval <<= 7;
             tmp = in.getByte ();
             if (i == 0 && tmp == 0x80) {   // First byte is 0x80, BER
@@ -341,14 +439,12 @@ class ObjectIdentifier implements Serializable
      * (Minimum length encoding is a DER requirement.)
      */
     private static void putComponent (DerOutputStream out, int val)
-    throws IOException
     {
         int     i;
-        // TODO: val must be <128*128*128*128 here, otherwise, 4 bytes is not
-        // enough to hold it. Will address this later.
-        byte    buf [] = new byte [4] ;
+        // 5 groups of 7 bits hold any int
+        byte    buf [] = new byte [5] ;
 
-        for (i = 0; i < 4; i++) {
+        for (i = 0; i < 5; i++) {
             buf [i] = (byte) (val & 0x07f);
             val >>>= 7;
             if (val == 0)
@@ -410,7 +506,8 @@ class ObjectIdentifier implements Serializable
             return false;
         }
         ObjectIdentifier other = (ObjectIdentifier)obj;
-        if (componentLen != other.componentLen) {
+        if (componentLen != other.componentLen
+                || hashCode() != other.hashCode()) {
             return false;
         }
         for (int i = 0; i < componentLen; i++) {
@@ -422,9 +519,13 @@ class ObjectIdentifier implements Serializable
     }
 
     public int hashCode() {
-        int h = componentLen;
-        for (int i = 0; i < componentLen; i++) {
-            h += components[i] * 37;
+        int h = hash;
+        if (h == 0) {
+            h = componentLen;
+            for (int i = 0; i < componentLen; i++) {
+                h += components[i] * 37;
+            }
+            hash = h;
         }
         return h;
     }
@@ -460,6 +561,8 @@ class ObjectIdentifier implements Serializable
     private int         componentLen;                   // how much is used.
 
     private transient volatile String stringForm;
+    private transient volatile byte[] encoding;
+    private transient int hash;
 
     private static final int allocationQuantum = 5;     // >= 2
 }
@@ -12,7 +12,9 @@ import android.support.v4.util.Pair;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -243,6 +245,20 @@ public class MainActivity extends AppCompatActivity implements Controller.ToastM
                 reload();
             }
         });
+        ((TextView) findViewById(R.id.list_filter)).addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                list.search(s.toString());
+            }
+        });
         if (!TextUtils.isEmpty(form.getValue(App.KEY_QUERY, String.class))) {
             // Have something in query
             filterPanel.setVisibility(View.VISIBLE);
@@ -303,6 +319,7 @@ public class MainActivity extends AppCompatActivity implements Controller.ToastM
                 Intent emailIntent = new Intent(android.content.Intent.ACTION_SEND);
                 emailIntent.setType("text/plain");
                 emailIntent.putExtra(android.content.Intent.EXTRA_TEXT, "Taskwarrior for Android debug output");
+                ac.logSyncHistory();
                 emailIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(ac.debugLogger().file()));
                 try {
                     startActivity(Intent.createChooser(emailIntent, "Share debug output..."));
@@ -310,6 +327,9 @@ public class MainActivity extends AppCompatActivity implements Controller.ToastM
                     controller.toastMessage("Failed to share debug file", true);
                 }
                 break;
+            case R.id.menu_nav_sync_history:
+                startActivity(ac.intentForSyncHistory());
+                break;
             case R.id.menu_nav_settings:
                 // Open taskrc for editing
                 Intent intent = new Intent(Intent.ACTION_EDIT);
@@ -552,6 +572,7 @@ public class MainActivity extends AppCompatActivity implements Controller.ToastM
             public void finish(Map<String, String> result) {
                 // We're in UI thread
                 navigation.getMenu().findItem(R.id.menu_nav_debug).setVisible(ac.debugEnabled());
+                navigation.getMenu().findItem(R.id.menu_nav_sync_history).setVisible(ac.debugEnabled());
                 MenuItem reportsMenu = navigation.getMenu().findItem(R.id.menu_nav_reports);
                 reportsMenu.getSubMenu().clear();
                 for (Map.Entry<String, String> entry : result.entrySet()) { // Add reports
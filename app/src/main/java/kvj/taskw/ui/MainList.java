@@ -18,6 +18,7 @@ import java.util.List;
 
 import kvj.taskw.App;
 import kvj.taskw.R;
+import kvj.taskw.data.AccountController;
 import kvj.taskw.data.Controller;
 import kvj.taskw.data.ReportInfo;
 
@@ -32,6 +33,8 @@ public class MainList extends Fragment {
     Logger logger = Logger.forInstance(this);
     private MainListAdapter adapter = null;
     private String account = null;
+    private List<JSONObject> loaded = null;
+    private String searchText = null;
 
     @Nullable
     @Override
@@ -58,7 +61,11 @@ public class MainList extends Fragment {
 
             @Override
             public void finish(ReportInfo result) {
+                if (null != info && null != account) { // Previous report is not needed anymore
+                    controller.accountController(account).reloads().cancel(info.query);
+                }
                 info = result;
+                loaded = null;
                 if (null != afterLoad) afterLoad.run();
                 reload();
             }
@@ -67,26 +74,65 @@ public class MainList extends Fragment {
 
     public void reload() {
         if (null == info || null == account) return;
+        final AccountController ac = controller.accountController(account);
+        final ReportInfo loadInfo = info;
+        final AccountController.TaskCall call = ac.reloads().start(loadInfo.query);
+        if (null == call) { // Will be reloaded after current one
+            logger.d("Reload coalesced:", loadInfo.query, ac.reloads());
+            return;
+        }
         // Load all items
         new Tasks.ActivitySimpleTask<List<JSONObject>>(getActivity()){
 
             @Override
             protected List<JSONObject> doInBackground() {
-                logger.d("Exec:", info.query);
-                List<JSONObject> list = controller.accountController(account).taskList(info.query);
-                info.sort(list); // Sorted according to report spec.
+                logger.d("Exec:", loadInfo.query);
+                List<JSONObject> list = ac.taskList(loadInfo.query, call);
+                loadInfo.sort(list); // Sorted according to report spec.
                 return list;
             }
 
             @Override
             public void finish(List<JSONObject> result) {
-                adapter.update(result, info);
+                if (ac.reloads().finish(loadInfo.query, call) && loadInfo == info) { // Still actual
+                    loaded = result;
+                    ac.searchIndex().update(result);
+                    show();
+                }
+                if (ac.reloads().pending(loadInfo.query)) { // Requested while running
+                    reload();
+                }
+                logger.d(ac.reloads());
+                if (ac.debugEnabled()) {
+                    ac.debugLogger().log(ac.reloads());
+                }
 //                logger.d("Loaded:", info, result);
             }
         }.exec();
 
     }
 
+    private void show() {
+        if (null == loaded || null == info || null == account) return;
+        AccountController ac = controller.accountController(account);
+        List<JSONObject> found = ac.searchIndex().search(searchText, loaded);
+        adapter.update(null != found ? found : loaded, info);
+        if (ac.debugEnabled()) {
+            ac.debugLogger().log(adapter.cacheStats());
+        }
+    }
+
+    /**
+     * As-you-type search within the loaded report. Filter syntax is ignored here - it's applied by reload.
+     */
+    public void search(String text) {
+        if (null == text ? null == searchText : text.equals(searchText)) {
+            return;
+        }
+        searchText = text;
+        show();
+    }
+
     public void listener(MainListAdapter.ItemListener listener) {
         adapter.listener(listener);
     }
@@ -9,6 +9,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.RemoteViews;
+import android.widget.TextView;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -20,8 +21,12 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import kvj.taskw.R;
@@ -42,6 +47,39 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
         }
     };
 
+    private Accessor<Row, String> rowIdAcc = new Accessor<Row, String>() {
+        @Override
+        public String get(Row object) {
+            return null != object.json ? uuidAcc.get(object.json) : "group:" + object.group;
+        }
+    };
+
+    private Accessor<Row, String> rowKeyAcc = new Accessor<Row, String>() {
+        @Override
+        public String get(Row object) {
+            if (null != object.json) {
+                return cardKey(object.json);
+            }
+            return String.format("group:%s/%d/%s", object.group, object.count, expandedGroups.contains(object.group));
+        }
+    };
+
+    private static final int TYPE_TASK = 0;
+    private static final int TYPE_GROUP = 1;
+    private static final String[] DATE_FIELDS = {"due", "wait", "scheduled", "until", "entry", "modified", "start", "end"};
+
+    private static final int CARD_CACHE_SIZE = 128;
+    private final Map<String, TaskView> cardCache = new LinkedHashMap<String, TaskView>(CARD_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TaskView> eldest) {
+            return size() > CARD_CACHE_SIZE;
+        }
+    };
+    private String signature = "";
+    private int cacheHits = 0;
+    private int cacheMisses = 0;
+    private int bindSkips = 0;
+
     public MainListAdapter(Resources resources) {
         lastMargin = (int) resources.getDimension(R.dimen.last_task_margin);
     }
@@ -57,16 +95,48 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
         public void onLabelClick(JSONObject json, String type, boolean longClick);
     }
 
-    List<JSONObject> data = new ArrayList<>();
+    /**
+     * One line of the list: either task card or header of a group
+     */
+    static class Row {
+        final JSONObject json;
+        final String group;
+        final int count;
+
+        Row(JSONObject json) {
+            this.json = json;
+            this.group = null;
+            this.count = 0;
+        }
+
+        Row(String group, int count) {
+            this.json = null;
+            this.group = group;
+            this.count = count;
+        }
+    }
+
+    List<Row> data = new ArrayList<>(); // Visible rows
+    private List<JSONObject> tasks = new ArrayList<>(); // All tasks of report
+    private final Set<String> expandedGroups = new HashSet<>(); // Groups are collapsed by default
     static Logger logger = Logger.forClass(MainListAdapter.class);
     private ReportInfo info = null;
     private ItemListener listener = null;
+    private final Set<String> expanded = new HashSet<>(); // UUIDs of expanded cards
 
     @Override
     public ListViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (TYPE_GROUP == viewType) {
+            return new ListViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.item_group_header, parent, false));
+        }
         return new ListViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.item_one_card, parent, false));
     }
 
+    @Override
+    public int getItemViewType(int position) {
+        return null == data.get(position).json ? TYPE_GROUP : TYPE_TASK;
+    }
+
     @Override
     public int getItemCount() {
         return data.size();
@@ -87,32 +157,69 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
             });
     }
 
+    /**
+     * Everything card content depends on: task version and report layout
+     */
+    private String cardKey(JSONObject json) {
+        return String.format("%s/%s/%d/%s/%s", json.optString("uuid"), json.optString("modified"),
+                             json.optInt("id", -1), json.optString("urgency"), signature);
+    }
+
     @Override
     public void onBindViewHolder(ListViewHolder holder, int position) {
         boolean last = getItemCount() - 1 == position;
         holder.itemView.setPadding(0, 0, 0, last? lastMargin: 0);
-        final JSONObject json = data.get(position);
+        Row row = data.get(position);
+        if (null == row.json) { // Group header
+            bindGroup(holder, row);
+            return;
+        }
+        final JSONObject json = row.json;
+        String key = cardKey(json);
+        if (key.equals(holder.key)) { // Same card is already shown
+            bindSkips++;
+            return;
+        }
+        TaskView card = cardCache.get(key);
+        if (null == card) { // Format, inflate and cache
+            cacheMisses++;
+            card = fill(holder.itemView.getContext(), json, info, urgMin, urgMax);
+            card.view = card.removeView.apply(holder.itemView.getContext(), holder.card);
+            cardCache.put(key, card);
+        } else { // Inflated view is moved here
+            cacheHits++;
+            ViewGroup parent = (ViewGroup) card.view.getParent();
+            if (null != parent) {
+                parent.removeView(card.view);
+            }
+            if (null != card.holder && card.holder != holder && key.equals(card.holder.key)) {
+                card.holder.key = null; // Lost its view - rebuild on next bind
+            }
+        }
+        card.holder = holder;
+        holder.key = key;
         holder.card.removeAllViews();
-        TaskView card = fill(holder.itemView.getContext(), json, info, urgMin, urgMax);
-        holder.card.addView(card.removeView.apply(holder.itemView.getContext(), holder.card));
+        holder.card.addView(card.view);
         setupLabelListeners(holder.itemView.getContext(), json,
                 (ViewGroup) holder.card.findViewById(R.id.task_labels_left), card.leftColumn);
         setupLabelListeners(holder.itemView.getContext(), json,
                 (ViewGroup) holder.card.findViewById(R.id.task_labels_right), card.rightColumn);
-        final View bottomBtns = holder.card.findViewById(R.id.task_bottom_btns);
-        final ViewGroup annotations = (ViewGroup) holder.card.findViewById(R.id.task_annotations);
-        final View id = holder.card.findViewById(R.id.task_id);
-        bottomBtns.setVisibility(View.GONE);
+        final String uuid = json.optString("uuid");
+        final boolean withAnnotations = card.annotations;
+        final CardView cardView = holder.card;
         holder.card.findViewById(R.id.task_more_btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                boolean visible = bottomBtns.getVisibility() == View.VISIBLE;
-                int newVisibility = visible ? View.GONE : View.VISIBLE;
-                bottomBtns.setVisibility(newVisibility);
-                annotations.setVisibility(newVisibility);
-                id.setVisibility(newVisibility);
+                boolean visible = !expanded.contains(uuid);
+                if (visible) {
+                    expanded.add(uuid);
+                } else {
+                    expanded.remove(uuid);
+                }
+                showExpanded(cardView, json, visible, withAnnotations);
             }
         });
+        showExpanded(holder.card, json, expanded.contains(uuid), withAnnotations);
         bindLongCopyText(json, holder.card.findViewById(R.id.task_description), json.optString("description"));
         holder.card.findViewById(R.id.task_edit_btn).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -153,21 +260,110 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
                             listener.onStartStop(json);
                     }
                 });
-        JSONArray annotationsArr = json.optJSONArray("annotations");
-        if (null != annotationsArr && annotationsArr.length() == annotations.getChildCount()) {
-            // Bind delete button
-            for (int i = 0; i < annotationsArr.length(); i++) { // Show and bind delete button
-                JSONObject jsonAnn = annotationsArr.optJSONObject(i);
-                bindLongCopyText(json,
-                                 annotations.getChildAt(i).findViewById(R.id.task_ann_text),
-                                 jsonAnn.optString("description"));
-                View deleteBtn = annotations.getChildAt(i).findViewById(R.id.task_ann_delete_btn);
-                if (null != deleteBtn) {
-                    deleteBtn.setVisibility(View.VISIBLE);
-                    deleteBtn.setOnClickListener(denotate(json, jsonAnn));
+    }
+
+    private void bindGroup(ListViewHolder holder, final Row row) {
+        boolean groupExpanded = expandedGroups.contains(row.group);
+        holder.groupTitle.setText(row.group);
+        holder.groupCount.setText(String.valueOf(row.count));
+        holder.groupIcon.setRotation(groupExpanded ? 180 : 0);
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleGroup(row.group);
+            }
+        });
+    }
+
+    private void toggleGroup(String group) {
+        if (!expandedGroups.remove(group)) { // Was collapsed
+            expandedGroups.add(group);
+        }
+        showRows();
+    }
+
+    /**
+     * Title of the group task belongs to: value of the field, date part for dates
+     */
+    public static String groupTitle(JSONObject json, String field) {
+        String value = null;
+        if ("tags".equals(field)) {
+            value = join(", ", array2List(json.optJSONArray("tags")));
+        } else {
+            for (String dateField : DATE_FIELDS) {
+                if (dateField.equals(field)) {
+                    value = asDate(json.optString(field), "", formattedFormat);
+                    break;
+                }
+            }
+            if (null == value) {
+                value = json.optString(field);
+            }
+        }
+        return TextUtils.isEmpty(value) ? "(none)" : value;
+    }
+
+    /**
+     * Builds visible rows. Collapsed groups produce only header with the count.
+     */
+    private List<Row> rows(List<JSONObject> list) {
+        List<Row> result = new ArrayList<>();
+        if (null == info || TextUtils.isEmpty(info.group)) { // Flat list
+            for (JSONObject json : list) {
+                result.add(new Row(json));
+            }
+            return result;
+        }
+        Map<String, List<JSONObject>> groups = new LinkedHashMap<>(); // Keep report order
+        for (JSONObject json : list) {
+            String title = groupTitle(json, info.group);
+            List<JSONObject> group = groups.get(title);
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(title, group);
+            }
+            group.add(json);
+        }
+        for (Map.Entry<String, List<JSONObject>> group : groups.entrySet()) {
+            result.add(new Row(group.getKey(), group.getValue().size()));
+            if (expandedGroups.contains(group.getKey())) {
+                for (JSONObject json : group.getValue()) {
+                    result.add(new Row(json));
                 }
             }
         }
+        return result;
+    }
+
+    private void showExpanded(ViewGroup card, JSONObject json, boolean visible, boolean withAnnotations) {
+        int visibility = visible ? View.VISIBLE : View.GONE;
+        ViewGroup annotations = (ViewGroup) card.findViewById(R.id.task_annotations);
+        if (visible && withAnnotations && annotations.getChildCount() == 0) {
+            // Materialize annotations only when they're about to be shown
+            addAnnotations(card.getContext(), json, annotations);
+        }
+        card.findViewById(R.id.task_bottom_btns).setVisibility(visibility);
+        card.findViewById(R.id.task_id).setVisibility(visibility);
+        annotations.setVisibility(visibility);
+    }
+
+    private void addAnnotations(Context context, JSONObject json, ViewGroup annotations) {
+        JSONArray annotationsArr = json.optJSONArray("annotations");
+        if (null == annotationsArr) {
+            return;
+        }
+        LayoutInflater inflater = LayoutInflater.from(context);
+        for (int i = 0; i < annotationsArr.length(); i++) { // Create, show and bind delete button
+            JSONObject jsonAnn = annotationsArr.optJSONObject(i);
+            View annView = inflater.inflate(R.layout.item_one_annotation, annotations, false);
+            TextView text = (TextView) annView.findViewById(R.id.task_ann_text);
+            text.setText(jsonAnn.optString("description", "Untitled"));
+            ((TextView) annView.findViewById(R.id.task_ann_date)).setText(
+                asDate(jsonAnn.optString("entry"), "", formattedFormatDT));
+            bindLongCopyText(json, text, jsonAnn.optString("description"));
+            annView.findViewById(R.id.task_ann_delete_btn).setOnClickListener(denotate(json, jsonAnn));
+            annotations.addView(annView);
+        }
     }
 
     private void setupLabelListeners(final Context context, final JSONObject json, ViewGroup groupView, List<String> column) {
@@ -222,32 +418,62 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
         return -1;
     }
 
-    public <O, V> void morph(List<O> from, List<O> to, Accessor<O, V> acc) {
-        for (int i = 0; i < to.size();) {
-            O item = to.get(i);
-            V id = acc.get(item);
-            boolean remove = indexOf(from, acc, id) == -1; // Item not found in new array
-            if (remove) { //
-                notifyItemRemoved(i);
-                to.remove(i);
-            } else {
-                i++;
+    /**
+     * Turns old rows into new ones with removes, moves and inserts, O(n log n).
+     * Items not placed yet keep their old relative order after the placed ones, so position of an item is
+     * the number of placed ones plus remaining ones before it (counted in a Fenwick tree over old positions).
+     */
+    public <O, V, K> void morph(List<O> from, List<O> to, Accessor<O, V> acc, Accessor<O, K> keyAcc) {
+        Set<V> ids = new HashSet<>(from.size());
+        for (O item : from) {
+            ids.add(acc.get(item));
+        }
+        List<O> kept = new ArrayList<>(to.size());
+        for (O item : to) {
+            if (ids.contains(acc.get(item))) {
+                kept.add(item);
+            } else { // Item not found in new array
+                notifyItemRemoved(kept.size());
             }
         }
+        Map<V, Integer> positions = new HashMap<>(kept.size() * 2);
+        int[] remaining = new int[kept.size() + 1];
+        for (int i = 0; i < kept.size(); i++) {
+            positions.put(acc.get(kept.get(i)), i);
+            count(remaining, i, 1);
+        }
         for (int i = 0; i < from.size(); i++) {
             O item = from.get(i);
-            V id = acc.get(item);
-            int idx =  indexOf(to, acc, id); // Location in old array
-            if (idx == -1) { // Add item
+            Integer old = positions.get(acc.get(item)); // Location in old array
+            if (null == old) { // Add item
                 notifyItemInserted(i);
-                to.add(i, item);
             } else {
-                notifyItemMoved(idx, i);
-                to.remove(idx);
-                to.add(i, item);
-                notifyItemChanged(i);
+                int idx = i + countBefore(remaining, old);
+                count(remaining, old, -1);
+                if (idx != i) {
+                    notifyItemMoved(idx, i);
+                }
+                if (!keyAcc.get(kept.get(old)).equals(keyAcc.get(item))) { // Only rebind when content differs
+                    notifyItemChanged(i);
+                }
             }
         }
+        to.clear();
+        to.addAll(from);
+    }
+
+    private static void count(int[] tree, int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private static int countBefore(int[] tree, int index) {
+        int result = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            result += tree[i];
+        }
+        return result;
     }
 
     public void update(List<JSONObject> list, ReportInfo info) {
@@ -268,26 +494,59 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
             urgMin = (int) Math.floor(min);
             urgMax = (int) Math.ceil(max);
         }
-        morph(list, data, uuidAcc);
+        signature = String.format("%s/%s/%d/%d", info.fields, info.priorities, urgMin, urgMax);
+        Set<String> uuids = new HashSet<>();
+        for (JSONObject json : list) { // Forget expanded state of gone tasks
+            uuids.add(uuidAcc.get(json));
+        }
+        expanded.retainAll(uuids);
+        tasks = list;
+        showRows();
 //        data.clear();
 //        data.addAll(list);
 //        notifyDataSetChanged();
     }
 
+    private void showRows() {
+        String lastId = data.isEmpty() ? null : rowIdAcc.get(data.get(data.size() - 1));
+        morph(rows(tasks), data, rowIdAcc, rowKeyAcc);
+        if (null != lastId && !data.isEmpty() && !lastId.equals(rowIdAcc.get(data.get(data.size() - 1)))) {
+            // Bottom margin moves to another card
+            int oldLast = indexOf(data, rowIdAcc, lastId);
+            if (oldLast != -1) notifyItemChanged(oldLast);
+            notifyItemChanged(data.size() - 1);
+        }
+    }
+
+    public String cacheStats() {
+        return String.format("Card cache: hits %d, misses %d, skipped binds %d, size %d",
+                             cacheHits, cacheMisses, bindSkips, cardCache.size());
+    }
+
     public static class ListViewHolder extends RecyclerView.ViewHolder {
 
         private final CardView card;
+        private final TextView groupTitle;
+        private final TextView groupCount;
+        private final View groupIcon;
+        private String key = null; // What card is shown now
 
         public ListViewHolder(View itemView) {
             super(itemView);
             card = (CardView) itemView.findViewById(R.id.card_card);
+            groupTitle = (TextView) itemView.findViewById(R.id.group_title);
+            groupCount = (TextView) itemView.findViewById(R.id.group_count);
+            groupIcon = itemView.findViewById(R.id.group_icon);
         }
     }
 
     public static class TaskView {
         public RemoteViews removeView = null;
+        View view = null; // Applied removeView, shown by one holder at a time
+        ListViewHolder holder = null;
         public List<String> leftColumn = new ArrayList<>();
         public List<String> rightColumn = new ArrayList<>();
+        public boolean annotations = false;
     }
 
     public static TaskView fill(Context context, JSONObject json, ReportInfo info, int urgMin, int urgMax) {
@@ -311,15 +570,8 @@ public class MainListAdapter extends RecyclerView.Adapter<MainListAdapter.ListVi
                 if (null != annotations && annotations.length() > 0) {
                     // Have annotations
                     views.setViewVisibility(R.id.task_annotations_flag, View.VISIBLE);
-                    if ("".equals(field.getValue())) {
-                        for (int i = 0; i < annotations.length(); i++) {
-                            JSONObject ann = annotations.optJSONObject(i);
-                            RemoteViews annView = new RemoteViews(context.getPackageName(), R.layout.item_one_annotation);
-                            annView.setTextViewText(R.id.task_ann_text, ann.optString("description", "Untitled"));
-                            annView.setTextViewText(R.id.task_ann_date, asDate(ann.optString("entry"), "", formattedFormatDT));
-                            views.addView(R.id.task_annotations, annView);
-                        }
-                    }
+                    // Annotation views are created on expand
+                    result.annotations = "".equals(field.getValue());
                 }
             }
             if (field.getKey().equalsIgnoreCase("id")) {
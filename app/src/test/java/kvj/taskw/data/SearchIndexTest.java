@@ -0,0 +1,121 @@
+package kvj.taskw.data;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    private static JSONObject task(String uuid, String modified, double urgency, String description,
+                                   String... annotations) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("uuid", uuid);
+        json.put("modified", modified);
+        json.put("urgency", urgency);
+        json.put("description", description);
+        if (annotations.length > 0) {
+            JSONArray array = new JSONArray();
+            for (String annotation : annotations) {
+                array.put(new JSONObject().put("description", annotation));
+            }
+            json.put("annotations", array);
+        }
+        return json;
+    }
+
+    private static List<String> uuids(List<JSONObject> found) {
+        List<String> result = new ArrayList<>();
+        for (JSONObject json : found) {
+            result.add(json.optString("uuid"));
+        }
+        return result;
+    }
+
+    private static List<JSONObject> report() throws Exception {
+        return Arrays.asList( // Report order: most urgent first
+                task("b", "1", 9, "Call plumber about the sink"),
+                task("d", "1", 7, "Submit budget report"),
+                task("a", "1", 5, "Buy milk"),
+                task("c", "1", 1, "Review budget", "ask about milk prices"));
+    }
+
+    private static SearchIndex index(List<JSONObject> report) {
+        SearchIndex index = new SearchIndex();
+        index.update(report);
+        return index;
+    }
+
+    @Test
+    public void trigrams() throws Exception {
+        List<JSONObject> report = report();
+        SearchIndex index = index(report);
+        assertEquals(Arrays.asList("a", "c"), uuids(index.search("milk", report))); // Description first, then annotation
+        assertEquals(Arrays.asList("d", "c"), uuids(index.search("BUDG", report))); // Same match - report order
+        assertEquals(Arrays.asList("b"), uuids(index.search("plumb sink", report)));
+        assertEquals(Arrays.asList("c"), uuids(index.search("budget milk", report))); // Every word should match
+        assertTrue(index.search("plumber milk", report).isEmpty());
+        assertTrue(index.search("xyz", report).isEmpty()); // Trigram not in index
+        assertSame(report.get(2), index.search("milk", report).get(0)); // Report's own objects
+    }
+
+    @Test
+    public void shortQueries() throws Exception {
+        List<JSONObject> report = report();
+        SearchIndex index = index(report);
+        // Shorter than trigram: all tasks of the report are scanned
+        assertEquals(Arrays.asList("a", "d", "c"), uuids(index.search("bu", report)));
+        assertEquals(Arrays.asList("c", "d"), uuids(index.search("re", report))); // Description prefix before word prefix
+        assertEquals(Arrays.asList("b", "c"), uuids(index.search("a", report))); // Inside a word, annotation
+        assertEquals(Arrays.asList("c"), uuids(index.search("re milk", report)));
+        assertNull(index.search(" ", report));
+        assertNull(index.search("+work pro:home -next", report)); // Filter syntax only
+        assertEquals(Arrays.asList("a", "c"), uuids(index.search("+work milk", report)));
+    }
+
+    @Test
+    public void narrowsReport() throws Exception {
+        List<JSONObject> report = report();
+        SearchIndex index = index(report);
+        // Another report loaded: merged into the index
+        List<JSONObject> completed = Arrays.asList(task("e", "1", 0, "Old milk receipt"),
+                                                   task("f", "1", 0, "Milk the cow"));
+        index.update(completed);
+        assertEquals(6, index.size());
+        assertEquals(Arrays.asList("a", "c"), uuids(index.search("milk", report))); // Only tasks of the report
+        assertEquals(Arrays.asList("f", "e"), uuids(index.search("milk", completed)));
+        assertEquals(Arrays.asList("e", "f"), uuids(index.search("o", completed))); // Prefix first
+
+        // Not indexed yet: skipped
+        List<JSONObject> other = Arrays.asList(task("g", "1", 0, "Milk"));
+        assertTrue(index.search("milk", other).isEmpty());
+    }
+
+    @Test
+    public void updates() throws Exception {
+        List<JSONObject> report = report();
+        SearchIndex index = index(report);
+        // Changed task is re-indexed
+        List<JSONObject> reloaded = new ArrayList<>(report);
+        reloaded.set(2, task("a", "2", 5, "Buy bread"));
+        index.update(reloaded);
+        assertEquals(Arrays.asList("c"), uuids(index.search("milk", reloaded)));
+        assertEquals(Arrays.asList("a"), uuids(index.search("bread", reloaded)));
+
+        // Same modification time: grams kept
+        reloaded.set(3, task("c", "1", 1, "Description not indexed again"));
+        index.update(reloaded);
+        assertEquals(Arrays.asList("d", "c"), uuids(index.search("budget", reloaded)));
+
+        index.remove("c");
+        assertEquals(Arrays.asList("d"), uuids(index.search("budget", reloaded)));
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.search("bread", reloaded).isEmpty());
+    }
+}
@@ -0,0 +1,58 @@
+package kvj.taskw.data;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyncHistoryTest {
+
+    private static SyncHistory.Record record(String trigger, long total) {
+        SyncHistory.Record record = new SyncHistory.Record(trigger, "1.0");
+        record.handshake = 10;
+        record.sent = 100;
+        record.received = 200;
+        record.finish(true);
+        record.total = total;
+        return record;
+    }
+
+    @Test
+    public void ringKeepsLast() throws Exception {
+        SyncHistory history = new SyncHistory(null);
+        for (int i = 0; i < SyncHistory.CAPACITY + 5; i++) {
+            history.add(record("periodical", i));
+        }
+        List<SyncHistory.Record> records = history.records();
+        assertEquals(SyncHistory.CAPACITY, records.size());
+        assertEquals(5, records.get(0).total); // Oldest first
+        assertEquals(SyncHistory.CAPACITY + 4, records.get(records.size() - 1).total);
+        assertTrue(history.lines().get(0).contains("total " + (SyncHistory.CAPACITY + 4) + " ms"));
+    }
+
+    @Test
+    public void persisted() throws Exception {
+        File folder = File.createTempFile("history", "");
+        folder.delete();
+        folder.mkdirs();
+        SyncHistory history = new SyncHistory(folder);
+        history.add(record("onchange", 1500));
+        SyncHistory.Record failed = record("notification", 700);
+        failed.finish(false);
+        history.add(failed);
+
+        List<SyncHistory.Record> loaded = new SyncHistory(folder).records();
+        assertEquals(2, loaded.size());
+        assertEquals("onchange", loaded.get(0).trigger);
+        assertEquals(1500, loaded.get(0).total);
+        assertEquals(10, loaded.get(0).handshake);
+        assertEquals(200, loaded.get(0).received);
+        assertTrue(loaded.get(0).success);
+        assertEquals("notification", loaded.get(1).trigger);
+        assertFalse(loaded.get(1).success);
+        new File(folder, SyncHistory.FILE).delete();
+        folder.delete();
+    }
+}
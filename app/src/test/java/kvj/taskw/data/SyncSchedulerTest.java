@@ -0,0 +1,104 @@
+package kvj.taskw.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SyncSchedulerTest {
+
+    private static final long MINUTE = 60000;
+
+    /**
+     * Random with fixed nextDouble(), to get exact jitter.
+     */
+    private static class FixedRandom extends Random {
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    @Test
+    public void burstCoalesced() {
+        SyncScheduler scheduler = new SyncScheduler(new FixedRandom(0));
+        scheduler.configure(0, 0, 1);
+        long now = 1000000;
+        assertEquals(now + MINUTE, scheduler.changed(now));
+        int rearmed = 0;
+        for (int i = 1; i < 20; i++) { // Change every 100 ms
+            if (scheduler.changed(now + i * 100) >= 0) {
+                rearmed++;
+            }
+        }
+        assertTrue(rearmed < 5); // Alarm moved once per second at most
+        // Continuous changes can't delay sync forever
+        assertEquals(now + 4 * MINUTE, scheduler.changed(now + 5 * MINUTE - 1));
+        assertEquals(-1, scheduler.changed(now + 4 * MINUTE - 10 * 1000));
+    }
+
+    @Test
+    public void earlierAlarmKept() {
+        SyncScheduler scheduler = new SyncScheduler(new FixedRandom(0));
+        scheduler.configure(10, 0, 30);
+        assertEquals(10 * MINUTE, scheduler.started(0));
+        assertEquals(-1, scheduler.changed(MINUTE)); // Periodical comes first
+        assertEquals(20 * MINUTE, scheduler.succeeded(10 * MINUTE)); // Took the change
+
+        SyncScheduler quick = new SyncScheduler(new FixedRandom(0));
+        quick.configure(10, 0, 1);
+        assertEquals(10 * MINUTE, quick.started(0));
+        assertEquals(2 * MINUTE, quick.changed(MINUTE)); // Change comes first
+    }
+
+    @Test
+    public void backoffWithJitter() {
+        SyncScheduler scheduler = new SyncScheduler(new FixedRandom(0));
+        scheduler.configure(0, 1, 0);
+        assertEquals(MINUTE, scheduler.failed(0));
+        assertEquals(2 * MINUTE, scheduler.failed(0));
+        assertEquals(4 * MINUTE, scheduler.failed(0));
+        for (int i = 0; i < 40; i++) {
+            scheduler.failed(0);
+        }
+        assertEquals(SyncScheduler.MAX_BACKOFF_FACTOR * MINUTE, scheduler.failed(0)); // Capped
+        scheduler.succeeded(0);
+        assertEquals(0, scheduler.failures());
+        assertEquals(MINUTE, scheduler.failed(0));
+
+        SyncScheduler jittered = new SyncScheduler(new FixedRandom(0.5));
+        jittered.configure(0, 4, 0);
+        assertEquals(3 * MINUTE, jittered.failed(0)); // A quarter off
+    }
+
+    @Test
+    public void changeDoesNotBypassBackoff() {
+        SyncScheduler scheduler = new SyncScheduler(new FixedRandom(0));
+        scheduler.configure(0, 10, 1);
+        assertEquals(10 * MINUTE, scheduler.failed(0));
+        assertEquals(-1, scheduler.changed(MINUTE)); // Retry already scheduled
+        assertEquals(30 * MINUTE, scheduler.failed(10 * MINUTE)); // Retry failed
+        assertEquals(-1, scheduler.changed(11 * MINUTE));
+    }
+
+    @Test
+    public void disabled() {
+        SyncScheduler scheduler = new SyncScheduler();
+        assertFalse(scheduler.configured());
+        scheduler.configure(0, -1, 0);
+        assertTrue(scheduler.configured());
+        assertEquals(-1, scheduler.started(0));
+        assertEquals(-1, scheduler.changed(0));
+        assertEquals(-1, scheduler.failed(0));
+        assertEquals(1, scheduler.failures());
+        assertEquals(-1, scheduler.succeeded(0));
+    }
+}
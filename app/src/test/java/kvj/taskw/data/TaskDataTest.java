@@ -0,0 +1,225 @@
+package kvj.taskw.data;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * FF4 lines as task 2.5 writes them (Task::composeF4) and replace of data files by Java sync.
+ */
+public class TaskDataTest {
+
+    private static final String KEY = "c0ffee00-1111-2222-3333-444455556666";
+    private static final String NEW_KEY = "c0ffee00-1111-2222-3333-777788889999";
+    private static final String A = "1f9c3c2e-8c0b-4e1a-9a8f-0c6a2d7e5b11";
+    private static final String B = "2a7d4f10-3b6e-4c2d-8e9f-1a2b3c4d5e6f";
+
+    private File folder;
+
+    @Before
+    public void createFolder() throws Exception {
+        folder = File.createTempFile("taskdata", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void removeFolder() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    private List<String> lines(String name) throws Exception {
+        List<String> result = new ArrayList<>();
+        File file = new File(folder, name);
+        if (!file.exists()) {
+            return result;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                result.add(line);
+            }
+        } finally {
+            br.close();
+        }
+        return result;
+    }
+
+    private void write(String name, String... lines) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(folder, name)), "utf-8");
+        try {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String task(String uuid, String status, String description) {
+        return String.format("{\"description\":\"%s\",\"entry\":\"20160410T120000Z\",\"modified\":\"20160410T130000Z\","
+                             + "\"status\":\"%s\",\"uuid\":\"%s\"}", description, status, uuid);
+    }
+
+    private static String ff4(String uuid, String status, String description) {
+        return String.format("[description:\"%s\" entry:\"1460289600\" modified:\"1460293200\" status:\"%s\" uuid:\"%s\"]",
+                             description, status, uuid);
+    }
+
+    @Test
+    public void composeF4() throws Exception {
+        Map<String, String> udas = new HashMap<>();
+        udas.put("estimate", "numeric");
+        udas.put("reviewed", "date");
+        udas.put("size", "string");
+        String json = "{\"id\":1,\"description\":\"Fix [bug] in \\\"parser\\\" \\/ lexer\\tnow\","
+                      + "\"due\":\"20160501T220000Z\",\"entry\":\"20160410T120000Z\","
+                      + "\"modified\":\"20160410T130000Z\",\"project\":\"Home.Repairs\",\"status\":\"pending\","
+                      + "\"tags\":[\"home\",\"urgent\"],\"uuid\":\"" + A + "\",\"priority\":\"\","
+                      + "\"annotations\":[{\"entry\":\"20160410T121500Z\",\"description\":\"first\"},"
+                      + "{\"entry\":\"20160410T121500Z\",\"description\":\"second [x]\"},"
+                      + "{\"entry\":\"20160410T121501Z\",\"description\":\"third\"}],"
+                      + "\"depends\":\"" + B + "\",\"estimate\":2.50,\"reviewed\":\"20160411T080000Z\","
+                      + "\"size\":\"M\",\"urgency\":8.2}";
+        assertEquals("[annotation_1460290500:\"first\" annotation_1460290501:\"second &open;x&close;\" "
+                     + "annotation_1460290502:\"third\" depends:\"" + B + "\" "
+                     + "description:\"Fix &open;bug&close; in \\\"parser\\\" \\/ lexer\\tnow\" due:\"1462140000\" "
+                     + "entry:\"1460289600\" estimate:\"2.5\" modified:\"1460293200\" project:\"Home.Repairs\" "
+                     + "reviewed:\"1460361600\" size:\"M\" status:\"pending\" tags:\"home,urgent\" uuid:\"" + A + "\"]",
+                     TaskData.toF4(new JSONObject(json), udas));
+
+        // Recurring instance: numeric and duration are not escaped, depends as array (2.6 export)
+        json = "{\"description\":\"Water plants\",\"entry\":\"1460289600\",\"imask\":3,\"modified\":\"1460293200\","
+               + "\"parent\":\"" + B + "\",\"recur\":\"weekly\",\"status\":\"pending\",\"uuid\":\"" + A + "\","
+               + "\"depends\":[\"" + B + "\",\"" + A + "\"],\"note\":\"a/b\"}";
+        assertEquals("[depends:\"" + B + "," + A + "\" description:\"Water plants\" entry:\"1460289600\" imask:\"3\" "
+                     + "modified:\"1460293200\" note:\"a\\/b\" parent:\"" + B + "\" recur:\"weekly\" "
+                     + "status:\"pending\" uuid:\"" + A + "\"]",
+                     TaskData.toF4(new JSONObject(json)));
+
+        assertEquals("a\\\\b\\nc &open;&close; \\\"d\\\" \\/", TaskData.encode("a\\b\nc [] \"d\" /"));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        write(TaskData.PENDING, ff4(A, "pending", "one"), ff4(B, "pending", "two"));
+        write(TaskData.BACKLOG, KEY, task(A, "pending", "one"));
+        TaskData data = new TaskData(folder);
+        TaskData.Backlog backlog = data.backlog();
+        assertEquals(KEY, backlog.syncKey);
+        assertEquals(Collections.singletonList(task(A, "pending", "one")), backlog.changes);
+
+        TaskData.Update update = data.update();
+        String c = "3b8e5a21-4d7f-4e6a-9c1b-2d3e4f5a6b7c";
+        update.put(task(c, "pending", "three"));
+        update.put(task(A, "pending", "one changed"));
+        assertEquals(2, update.size());
+        update.commit(NEW_KEY);
+        assertEquals(Arrays.asList(ff4(A, "pending", "one changed"), ff4(B, "pending", "two"),
+                                   ff4(c, "pending", "three")), lines(TaskData.PENDING)); // IDs kept
+        assertEquals(Collections.<String>emptyList(), lines(TaskData.COMPLETED));
+        assertEquals(Collections.singletonList(NEW_KEY), lines(TaskData.BACKLOG));
+        assertEquals(Arrays.asList(TaskData.BACKLOG, TaskData.COMPLETED, TaskData.PENDING),
+                     sorted(folder.list()));
+
+        backlog = new TaskData(folder).backlog();
+        assertEquals(NEW_KEY, backlog.syncKey);
+        assertTrue(backlog.changes.isEmpty());
+
+        // Nothing received: only key changes
+        update = data.update();
+        update.commit(KEY);
+        assertEquals(3, lines(TaskData.PENDING).size());
+        assertEquals(Collections.singletonList(KEY), lines(TaskData.BACKLOG));
+    }
+
+    private static List<String> sorted(String[] names) {
+        List<String> result = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(result);
+        return result;
+    }
+
+    private void completedOnServer() throws Exception {
+        write(TaskData.PENDING, ff4(A, "pending", "one"), ff4(B, "pending", "two"));
+        write(TaskData.COMPLETED);
+        write(TaskData.BACKLOG, KEY);
+    }
+
+    private void assertMoved() throws Exception {
+        assertEquals(Collections.singletonList(ff4(B, "pending", "two")), lines(TaskData.PENDING));
+        assertEquals(Collections.singletonList(ff4(A, "completed", "one")), lines(TaskData.COMPLETED));
+        assertEquals(Collections.singletonList(NEW_KEY), lines(TaskData.BACKLOG));
+        assertFalse(new File(folder, TaskData.JOURNAL).exists());
+    }
+
+    private void assertNotMoved() throws Exception {
+        assertEquals(Arrays.asList(ff4(A, "pending", "one"), ff4(B, "pending", "two")), lines(TaskData.PENDING));
+        assertTrue(lines(TaskData.COMPLETED).isEmpty());
+        assertEquals(Collections.singletonList(KEY), lines(TaskData.BACKLOG));
+    }
+
+    private TaskData.Update prepared() throws Exception {
+        TaskData.Update update = new TaskData(folder).update();
+        update.put(task(A, "completed", "one"));
+        update.prepare(NEW_KEY);
+        return update;
+    }
+
+    @Test
+    public void pendingToCompleted() throws Exception {
+        completedOnServer();
+        TaskData.Update update = new TaskData(folder).update();
+        update.put(task(A, "completed", "one"));
+        update.commit(NEW_KEY);
+        assertMoved();
+    }
+
+    @Test
+    public void interruptedAfterJournal() throws Exception {
+        completedOnServer();
+        prepared();
+        assertNotMoved(); // Files are not replaced yet
+        new TaskData(folder).backlog(); // Next use finishes
+        assertMoved();
+
+        // Interrupted between renames: pending.data is new, completed.data is old
+        completedOnServer();
+        prepared();
+        assertTrue(new File(folder, TaskData.PENDING + TaskData.NEW).renameTo(new File(folder, TaskData.PENDING)));
+        assertFalse(lines(TaskData.PENDING).contains(ff4(A, "pending", "one"))); // Task is in neither file
+        assertTrue(lines(TaskData.COMPLETED).isEmpty());
+        new TaskData(folder).update();
+        assertMoved();
+    }
+
+    @Test
+    public void interruptedBeforeJournal() throws Exception {
+        completedOnServer();
+        prepared();
+        assertTrue(new File(folder, TaskData.JOURNAL).delete()); // Crash before commit point
+        new TaskData(folder).update();
+        assertNotMoved();
+        assertEquals(Arrays.asList(TaskData.BACKLOG, TaskData.COMPLETED, TaskData.PENDING), sorted(folder.list()));
+    }
+}
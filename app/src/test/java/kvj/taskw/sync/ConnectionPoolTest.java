@@ -0,0 +1,98 @@
+package kvj.taskw.sync;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+
+    /**
+     * Blocks until released or aborted.
+     */
+    private static class Blocking implements ConnectionPool.Connection {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean aborted = false;
+
+        @Override
+        public void run() throws Exception {
+            if (!release.await(10, TimeUnit.SECONDS) || aborted) {
+                throw new Exception("Aborted");
+            }
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void accountLimit() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4, 4);
+        ConnectionPool.Account account = pool.account("one", 2);
+        Blocking[] conns = new Blocking[5];
+        int accepted = 0;
+        for (int i = 0; i < conns.length; i++) {
+            conns[i] = new Blocking();
+            if (account.submit(conns[i])) {
+                accepted++;
+            }
+        }
+        assertEquals(2, accepted);
+        assertEquals(3, account.rejected());
+        assertTrue(conns[4].aborted);
+        conns[0].release.countDown();
+        conns[1].release.countDown();
+        assertTrue(account.awaitIdle(5000));
+        account.transferred(10, 20);
+        assertEquals(2, account.total());
+        assertEquals(0, account.failed());
+        assertEquals(10, account.sent());
+        assertEquals(20, account.received());
+    }
+
+    @Test(timeout = 10000)
+    public void boundedThreads() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 2);
+        Blocking[] conns = new Blocking[10];
+        int accepted = 0;
+        for (int i = 0; i < conns.length; i++) { // Burst from many accounts
+            conns[i] = new Blocking();
+            if (pool.account("account" + i).submit(conns[i])) {
+                accepted++;
+            }
+        }
+        assertEquals(4, accepted); // 2 running, 2 queued
+        assertTrue(pool.threads() <= 2);
+        for (Blocking conn : conns) {
+            conn.release.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void gracefulShutdown() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 2);
+        ConnectionPool.Account account = pool.account("one", 2);
+        Blocking running = new Blocking();
+        assertTrue(account.submit(running));
+        account.shutdown(5000);
+        assertFalse(account.submit(new Blocking())); // No new connections
+        assertFalse(running.aborted); // Running one can finish
+        running.release.countDown();
+        assertTrue(account.awaitIdle(5000));
+        assertEquals(0, account.failed());
+
+        ConnectionPool.Account stuck = pool.account("two", 2);
+        Blocking hanging = new Blocking();
+        assertTrue(stuck.submit(hanging));
+        stuck.shutdown(100);
+        assertTrue(stuck.awaitIdle(5000)); // Aborted after grace period
+        assertTrue(hanging.aborted);
+        assertEquals(1, stuck.failed());
+    }
+}
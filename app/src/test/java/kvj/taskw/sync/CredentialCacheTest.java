@@ -0,0 +1,128 @@
+package kvj.taskw.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+
+import static org.junit.Assert.*;
+
+public class CredentialCacheTest {
+
+    private static TestCertificates.Credentials ca;
+    private static TestCertificates.Credentials client;
+
+    private File folder;
+    private File caFile;
+    private File certFile;
+    private File keyFile;
+
+    /**
+     * Builds key store from generated credentials instead of PEM files, counts parse calls.
+     */
+    private static class CountingCache extends CredentialCache {
+
+        int parsed = 0;
+
+        private CountingCache(File folder) {
+            super(folder);
+        }
+
+        @Override
+        protected KeyStore parse(byte[] caData, byte[] cert, byte[] key) {
+            parsed++;
+            try {
+                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                keyStore.load(null);
+                keyStore.setCertificateEntry(SSLHelper.CA_ALIAS, ca.certificate);
+                keyStore.setKeyEntry(SSLHelper.KEY_ALIAS, client.keys.getPrivate(), SSLHelper.PASSWORD,
+                                     new Certificate[]{client.certificate});
+                return keyStore;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void write(File file, String text) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(text.getBytes("utf-8"));
+        stream.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        if (null == ca) {
+            ca = TestCertificates.selfSigned("Test CA");
+            client = TestCertificates.issue("Test client", ca);
+        }
+        File root = File.createTempFile("credentials", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        folder = new File(root, "cache");
+        caFile = new File(root, "ca.pem");
+        certFile = new File(root, "cert.pem");
+        keyFile = new File(root, "key.pem");
+        write(caFile, "ca");
+        write(certFile, "cert");
+        write(keyFile, "key");
+    }
+
+    @Test
+    public void memoryDiskAndChange() throws Exception {
+        CountingCache cache = new CountingCache(folder);
+        CredentialCache.Credentials first = cache.load(caFile, certFile, keyFile);
+        assertEquals(CredentialCache.Source.Parsed, first.source);
+        CredentialCache.Credentials second = cache.load(caFile, certFile, keyFile);
+        assertEquals(CredentialCache.Source.Memory, second.source);
+        assertSame(first.keyStore, second.keyStore);
+        assertEquals(1, cache.parsed);
+
+        CountingCache restarted = new CountingCache(folder); // Cold start
+        CredentialCache.Credentials fromDisk = restarted.load(caFile, certFile, keyFile);
+        assertEquals(CredentialCache.Source.Disk, fromDisk.source);
+        assertEquals(0, restarted.parsed);
+        assertEquals(first.hash, fromDisk.hash);
+        assertEquals(ca.certificate, fromDisk.keyStore.getCertificate(SSLHelper.CA_ALIAS));
+        assertEquals(client.keys.getPrivate(), fromDisk.keyStore.getKey(SSLHelper.KEY_ALIAS, SSLHelper.PASSWORD));
+
+        write(keyFile, "new key");
+        CredentialCache.Credentials changed = restarted.load(caFile, certFile, keyFile);
+        assertEquals(CredentialCache.Source.Parsed, changed.source);
+        assertFalse(first.hash.equals(changed.hash));
+        assertEquals(1, restarted.parsed);
+    }
+
+    @Test
+    public void brokenFileIsReparsed() throws Exception {
+        CountingCache cache = new CountingCache(folder);
+        String hash = cache.load(caFile, certFile, keyFile).hash;
+        File stored = new File(folder, hash + ".keystore");
+        assertTrue(stored.isFile());
+        write(stored, "garbage");
+        CountingCache restarted = new CountingCache(folder);
+        assertEquals(CredentialCache.Source.Parsed, restarted.load(caFile, certFile, keyFile).source);
+        assertEquals(1, restarted.parsed);
+    }
+
+    @Test
+    public void pinFiles() throws Exception {
+        CredentialCache cache = new CredentialCache(folder);
+        File pin = cache.pinFile("work", "0123");
+        assertEquals(folder, pin.getParentFile());
+        assertEquals(pin, new CredentialCache(folder).pinFile("work", "0123"));
+        assertFalse(pin.equals(cache.pinFile("home", "0123")));
+        assertFalse(pin.equals(cache.pinFile("work", "4567")));
+    }
+
+    @Test
+    public void hashSeparatesFiles() throws Exception {
+        assertFalse(CredentialCache.hash("ab".getBytes(), "c".getBytes()).equals(
+                    CredentialCache.hash("a".getBytes(), "bc".getBytes())));
+    }
+}
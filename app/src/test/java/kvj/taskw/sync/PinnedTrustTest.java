@@ -0,0 +1,158 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import static org.junit.Assert.*;
+
+/**
+ * taskd.trust = pin: full validation on first contact and key change, pin after that.
+ */
+public class PinnedTrustTest {
+
+    private static TestCertificates.Pki pki;
+    private static TaskdStandIn server;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        pki = new TestCertificates.Pki();
+        server = new TaskdStandIn(pki.serverContext(), true);
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    private static void sync(SessionCache.Endpoint endpoint, TaskdStandIn server) throws IOException {
+        SSLSocket socket = endpoint.connect();
+        try {
+            endpoint.handshake(socket);
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(TaskdStandIn.message(100)), socket.getOutputStream());
+            assertEquals(1024 + ProxyPump.HEADER_SIZE, pump.relay(socket.getInputStream(), new ByteArrayOutputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static SessionCache.Endpoint endpoint(TaskdStandIn server, SSLContext context) {
+        return new SessionCache().put(server.host(), server.port(), "pin", context, 0); // Full handshakes
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(SSLHelper.TrustType.Pinned, SSLHelper.parseTrustType("pin"));
+        assertEquals(SSLHelper.TrustType.Strict, SSLHelper.parseTrustType(null));
+    }
+
+    @Test(timeout = 60000)
+    public void pinned() throws Exception {
+        TrustManager[] trust = SSLHelper.trustManagers(Collections.singletonList(pki.ca.certificate),
+                                                       SSLHelper.TrustType.Pinned);
+        PinnedTrustManager pinned = (PinnedTrustManager) trust[0];
+        SSLContext context = SSLHelper.tlsContext(pki.client.keyManagers(), trust);
+        SessionCache.Endpoint endpoint = endpoint(server, context);
+
+        sync(endpoint, server);
+        assertEquals(1, pinned.validated());
+        assertEquals(0, pinned.pinned());
+        assertTrue(SSLHelper.lastTrustCheck().startsWith("validated, key pinned in "));
+        assertNull(SSLHelper.lastTrustCheck()); // Taken
+        for (int i = 0; i < 3; i++) {
+            sync(endpoint, server);
+        }
+        assertEquals(1, pinned.validated());
+        assertEquals(3, pinned.pinned());
+        assertTrue(SSLHelper.lastTrustCheck().startsWith("key pinned in "));
+
+        // Untrusted server: rejected by full validation, pin stays
+        TestCertificates.Credentials stranger = TestCertificates.selfSigned("localhost");
+        TaskdStandIn impostor = new TaskdStandIn(TestCertificates.context(stranger, pki.ca), true);
+        try {
+            sync(endpoint(impostor, context), impostor);
+            fail("Untrusted server accepted");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            impostor.close();
+        }
+        assertTrue(SSLHelper.lastTrustCheck().startsWith("rejected"));
+        sync(endpoint, server);
+        assertEquals(4, pinned.pinned());
+
+        // Another key from the same CA: validated, pin replaced
+        TaskdStandIn renewed = new TaskdStandIn(
+                TestCertificates.context(TestCertificates.issue("localhost", pki.ca, "EC"), pki.ca), true);
+        try {
+            sync(endpoint(renewed, context), renewed);
+            sync(endpoint(renewed, context), renewed);
+        } finally {
+            renewed.close();
+        }
+        assertEquals(2, pinned.validated());
+        assertEquals(5, pinned.pinned());
+        sync(endpoint, server); // Key changed back
+        assertEquals(3, pinned.validated());
+    }
+
+    private static PinnedTrustManager pinnedTrust(File file) throws Exception {
+        return (PinnedTrustManager) SSLHelper.trustManagers(Collections.singletonList(pki.ca.certificate),
+                                                            SSLHelper.TrustType.Pinned, file)[0];
+    }
+
+    private static PinnedTrustManager syncOnce(File file) throws Exception {
+        PinnedTrustManager pinned = pinnedTrust(file);
+        SSLContext context = SSLHelper.tlsContext(pki.client.keyManagers(), new TrustManager[]{pinned});
+        sync(endpoint(server, context), server);
+        return pinned;
+    }
+
+    @Test(timeout = 60000)
+    public void persisted() throws Exception {
+        File file = File.createTempFile("server", ".pin");
+        file.delete();
+        try {
+            PinnedTrustManager first = syncOnce(file);
+            assertEquals(1, first.validated());
+            assertEquals(32, file.length());
+
+            // App restart: new context loads pin
+            PinnedTrustManager restarted = syncOnce(file);
+            assertEquals(0, restarted.validated());
+            assertEquals(1, restarted.pinned());
+            assertTrue(SSLHelper.lastTrustCheck().startsWith("key pinned in "));
+
+            // Broken file is dropped, pin saved again
+            FileOutputStream out = new FileOutputStream(file);
+            out.write("garbage".getBytes("utf-8"));
+            out.close();
+            PinnedTrustManager broken = syncOnce(file);
+            assertEquals(1, broken.validated());
+            assertEquals(32, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void strictNotWrapped() throws Exception {
+        TrustManager[] trust = SSLHelper.trustManagers(Collections.singletonList(pki.ca.certificate),
+                                                       SSLHelper.TrustType.Strict);
+        for (TrustManager manager : trust) {
+            assertFalse(manager instanceof PinnedTrustManager);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+public class ProxyPumpTest {
+
+    private static TaskdStandIn server;
+    private static TestCertificates.Credentials ca;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        ca = TestCertificates.selfSigned("Test CA");
+        server = new TaskdStandIn(TestCertificates.context(ca, null));
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Returns at most one byte per read, like a slow socket.
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+
+        private TrickleInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+
+        int flushes = 0;
+        int writes = 0;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    @Test
+    public void shortReads() throws Exception {
+        byte[] msg = TaskdStandIn.message(1000);
+        CountingOutputStream out = new CountingOutputStream();
+        long bytes = new ProxyPump().relay(new TrickleInputStream(new ByteArrayInputStream(msg)), out);
+        assertEquals(msg.length, bytes);
+        assertTrue(Arrays.equals(msg, out.toByteArray()));
+        assertEquals(1, out.flushes);
+        assertEquals(1, out.writes);
+    }
+
+    @Test
+    public void stopsAtMessageEnd() throws Exception {
+        byte[] first = TaskdStandIn.message(300);
+        byte[] second = TaskdStandIn.message(10);
+        ByteArrayOutputStream both = new ByteArrayOutputStream();
+        both.write(first);
+        both.write(second);
+        InputStream in = new ByteArrayInputStream(both.toByteArray());
+        ProxyPump pump = new ProxyPump(128);
+        CountingOutputStream out = new CountingOutputStream();
+        assertEquals(first.length, pump.relay(in, out));
+        assertEquals(1, out.flushes);
+        assertTrue(Arrays.equals(first, out.toByteArray()));
+        out = new CountingOutputStream();
+        assertEquals(second.length, pump.relay(in, out));
+        assertTrue(Arrays.equals(second, out.toByteArray()));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncated() throws Exception {
+        byte[] msg = TaskdStandIn.message(100);
+        new ProxyPump().relay(new ByteArrayInputStream(msg, 0, 50), new ByteArrayOutputStream());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSize() throws Exception {
+        new ProxyPump().relay(new ByteArrayInputStream(new byte[]{0, 0, 0, 2}), new ByteArrayOutputStream());
+    }
+
+    @Test(timeout = 60000)
+    public void largeMessages() throws Exception {
+        int requestSize = 4 * 1024 * 1024;
+        int responseSize = 16 * 1024 * 1024;
+        server.setResponseSize(responseSize);
+        SSLSocket socket = ProxyPump.connect(TestCertificates.context(null, ca).getSocketFactory(),
+                                             server.host(), server.port());
+        try {
+            socket.startHandshake();
+            ProxyPump pump = new ProxyPump();
+            long sent = pump.relay(new ByteArrayInputStream(TaskdStandIn.message(requestSize)), socket.getOutputStream());
+            CountingOutputStream out = new CountingOutputStream();
+            long received = pump.relay(socket.getInputStream(), out);
+            assertEquals(requestSize + ProxyPump.HEADER_SIZE, sent);
+            assertEquals(requestSize + ProxyPump.HEADER_SIZE, server.lastRequest());
+            assertEquals(responseSize + ProxyPump.HEADER_SIZE, received);
+            assertEquals(responseSize + ProxyPump.HEADER_SIZE, out.size());
+            assertEquals(1, out.flushes);
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+public class SessionCacheTest {
+
+    private static TaskdStandIn server;
+    private static TestCertificates.Credentials ca;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        ca = TestCertificates.selfSigned("Test CA");
+        server = new TaskdStandIn(TestCertificates.context(ca, null));
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    private boolean sync(SessionCache.Endpoint endpoint) throws Exception {
+        SSLSocket socket = endpoint.connect();
+        try {
+            boolean resumed = endpoint.handshake(socket);
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(TaskdStandIn.message(100)), socket.getOutputStream());
+            pump.relay(socket.getInputStream(), new ByteArrayOutputStream());
+            return resumed;
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void resumes() throws Exception {
+        SessionCache cache = new SessionCache();
+        SessionCache.Endpoint endpoint = cache.put(server.host(), server.port(), "creds",
+                                                   TestCertificates.context(null, ca), SessionCache.DEFAULT_LIFETIME);
+        assertFalse(sync(endpoint));
+        assertSame(endpoint, cache.get(server.host(), server.port(), "creds", SessionCache.DEFAULT_LIFETIME));
+        assertTrue(sync(cache.get(server.host(), server.port(), "creds", SessionCache.DEFAULT_LIFETIME)));
+        assertTrue(sync(endpoint));
+        assertEquals(3, endpoint.handshakes());
+        assertEquals(2, endpoint.resumed());
+        assertTrue(endpoint.toString(), endpoint.toString().contains("handshakes 3, resumed 2 (66%)"));
+    }
+
+    @Test(timeout = 60000)
+    public void disabled() throws Exception {
+        SessionCache cache = new SessionCache();
+        SessionCache.Endpoint endpoint = cache.put(server.host(), server.port(), "creds",
+                                                   TestCertificates.context(null, ca), 0);
+        assertFalse(sync(endpoint));
+        assertFalse(sync(endpoint));
+        assertEquals(0, endpoint.resumed());
+    }
+
+    @Test
+    public void configChange() throws Exception {
+        SessionCache cache = new SessionCache();
+        cache.put("host", 53589, "old", TestCertificates.context(null, ca), 60);
+        assertNull(cache.get("host", 53589, "new", 60));
+        assertNull(cache.get("host", 53590, "old", 60));
+        assertNull(cache.get("host", 53589, "old", 120));
+        assertNotNull(cache.get("HOST", 53589, "old", 60));
+    }
+}
@@ -0,0 +1,200 @@
+package kvj.taskw.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Sync path numbers on plain JVM, against taskd stand-in with client authentication:
+ * TLS handshake cost (full and resumed, by TLS profile), relay throughput by message size, Java client round trip.
+ * Not a part of unit tests, run from test classpath.
+ * Usage: SyncBenchmark [handshakes] [profiles] [relay] [client] - all of them by default.
+ */
+public class SyncBenchmark {
+
+    private static final int HANDSHAKES = 10;
+    private static final int[] SIZES = {1024, 64 * 1024, 1024 * 1024, 8 * 1024 * 1024};
+    private static final long RELAY_BYTES = 32 * 1024 * 1024; // Per size, both directions
+    private static final int MAX_ROUNDS = 50;
+
+    private final TestCertificates.Pki pki;
+    private final TaskdStandIn server;
+
+    private static final TaskdClient.LineConsumer IGNORE = new TaskdClient.LineConsumer() {
+        @Override
+        public void line(String line) {
+        }
+    };
+
+    /**
+     * Counts and drops bytes.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    private SyncBenchmark() throws Exception {
+        pki = new TestCertificates.Pki();
+        server = new TaskdStandIn(pki.serverContext(), true);
+    }
+
+    /**
+     * Results are printed, this only checks that work was done.
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * @return ms of handshake
+     */
+    private static double exchange(SessionCache.Endpoint endpoint, byte[] request, NullOutputStream out) throws IOException {
+        SSLSocket socket = endpoint.connect();
+        try {
+            long started = System.nanoTime();
+            endpoint.handshake(socket);
+            double handshake = (System.nanoTime() - started) / 1e6;
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(request), socket.getOutputStream());
+            pump.relay(socket.getInputStream(), out);
+            return handshake;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private SessionCache.Endpoint endpoint(int lifetime) throws Exception {
+        return new SessionCache().put(server.host(), server.port(), "bench", pki.clientContext(), lifetime);
+    }
+
+    public void handshakes() throws Exception {
+        server.setResponseSize(16);
+        byte[] request = TaskdStandIn.message(16);
+        SessionCache.Endpoint full = endpoint(0);
+        SessionCache.Endpoint resumed = endpoint(SessionCache.DEFAULT_LIFETIME);
+        exchange(full, request, new NullOutputStream()); // Warm up
+        exchange(resumed, request, new NullOutputStream());
+        double fullTotal = 0;
+        double resumedTotal = 0;
+        for (int i = 0; i < HANDSHAKES; i++) {
+            fullTotal += exchange(full, request, new NullOutputStream());
+            resumedTotal += exchange(resumed, request, new NullOutputStream());
+        }
+        System.out.printf("Handshake with client certificate: full %.2f ms, resumed %.2f ms (%d rounds)%n",
+                          fullTotal / HANDSHAKES, resumedTotal / HANDSHAKES, HANDSHAKES);
+        check(0 == full.resumed(), "Full handshake endpoint resumed");
+        check(HANDSHAKES == resumed.resumed(), "Not resumed: " + resumed); // Warm up was full
+    }
+
+    /**
+     * Full handshakes by TLS profile (null - platform defaults), with RSA and ECDSA server certificates.
+     */
+    public void profileHandshakes() throws Exception {
+        server.setResponseSize(16);
+        byte[] request = TaskdStandIn.message(16);
+        TaskdStandIn ec = new TaskdStandIn(
+                TestCertificates.context(TestCertificates.issue("localhost", pki.ca, "EC"), pki.ca), true);
+        ec.setResponseSize(16);
+        TlsProfile[] profiles = {null, new TlsProfile(false, false), new TlsProfile(false, true),
+                                 new TlsProfile(true, false), new TlsProfile(true, true)};
+        try {
+            for (TaskdStandIn target : new TaskdStandIn[]{server, ec}) {
+                for (TlsProfile profile : profiles) {
+                    SessionCache.Endpoint endpoint = new SessionCache().put(target.host(), target.port(), "bench",
+                                                                            pki.clientContext(), 0, profile);
+                    exchange(endpoint, request, new NullOutputStream()); // Warm up
+                    double total = 0;
+                    for (int i = 0; i < HANDSHAKES; i++) {
+                        total += exchange(endpoint, request, new NullOutputStream());
+                    }
+                    SSLSocket socket = endpoint.connect();
+                    try {
+                        endpoint.handshake(socket);
+                        System.out.printf("Handshake %s server, profile %-17s: %.2f ms, %s %s%n",
+                                          target == ec ? "EC " : "RSA", null == profile ? "platform" : profile,
+                                          total / HANDSHAKES, socket.getSession().getProtocol(),
+                                          socket.getSession().getCipherSuite());
+                    } finally {
+                        socket.close();
+                    }
+                    check(0 == endpoint.resumed(), "Full handshake endpoint resumed");
+                }
+            }
+        } finally {
+            ec.close();
+        }
+    }
+
+    public void relayThroughput() throws Exception {
+        SessionCache.Endpoint endpoint = endpoint(SessionCache.DEFAULT_LIFETIME);
+        for (int size : SIZES) {
+            server.setResponseSize(size);
+            byte[] request = TaskdStandIn.message(size);
+            int rounds = (int) Math.max(3, Math.min(MAX_ROUNDS, RELAY_BYTES / 2 / size));
+            NullOutputStream out = new NullOutputStream();
+            exchange(endpoint, request, out); // Warm up
+            out.bytes = 0;
+            long started = System.nanoTime();
+            double handshakes = 0;
+            for (int i = 0; i < rounds; i++) {
+                handshakes += exchange(endpoint, request, out);
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long bytes = out.bytes + (long) request.length * rounds;
+            System.out.printf("Relay %8d byte messages: %4d syncs, %.2f ms per sync (handshake %.2f), %.1f MB/s%n",
+                              size, rounds, seconds * 1000 / rounds, handshakes / rounds,
+                              bytes / seconds / 1024 / 1024);
+            check((long) rounds * (size + ProxyPump.HEADER_SIZE) == out.bytes, "Relayed " + out.bytes);
+        }
+    }
+
+    public void clientSync() throws Exception {
+        int tasks = 5000;
+        server.setHandler(TaskdStandIn.syntheticSync(tasks));
+        try {
+            TaskdClient client = new TaskdClient(endpoint(SessionCache.DEFAULT_LIFETIME), "Org/User/key", "bench");
+            client.sync(null, Collections.<String>emptyList(), IGNORE); // Warm up
+            long started = System.nanoTime();
+            TaskdClient.Response response = client.sync(null, Collections.<String>emptyList(),
+                                                        IGNORE);
+            double ms = (System.nanoTime() - started) / 1e6;
+            System.out.printf("Java client sync: %d tasks, %d bytes in %.1f ms (handshake %d ms, response %d ms)%n",
+                              response.tasks, response.received, ms, response.handshake, response.response);
+            check(tasks == response.tasks, "Received " + response.tasks);
+        } finally {
+            server.setHandler(null);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> runs = Arrays.asList(args.length > 0 ? args
+                                                          : new String[]{"handshakes", "profiles", "relay", "client"});
+        SyncBenchmark benchmark = new SyncBenchmark();
+        try {
+            if (runs.contains("handshakes")) benchmark.handshakes();
+            if (runs.contains("profiles")) benchmark.profileHandshakes();
+            if (runs.contains("relay")) benchmark.relayThroughput();
+            if (runs.contains("client")) benchmark.clientSync();
+        } finally {
+            benchmark.server.close();
+        }
+    }
+}
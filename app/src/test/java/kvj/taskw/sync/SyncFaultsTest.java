@@ -0,0 +1,157 @@
+package kvj.taskw.sync;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Proxy relay and Java client against taskd stand-in with client authentication and injected faults.
+ */
+public class SyncFaultsTest {
+
+    private static TestCertificates.Pki pki;
+    private static TaskdStandIn server;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        pki = new TestCertificates.Pki();
+        server = new TaskdStandIn(pki.serverContext(), true);
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    @After
+    public void reset() {
+        server.setFault(TaskdStandIn.Fault.None);
+        server.setHandler(null);
+        server.setLatency(0);
+    }
+
+    private long relay(SSLContext context) throws IOException {
+        SSLSocket socket = ProxyPump.connect(context.getSocketFactory(), server.host(), server.port());
+        try {
+            socket.setSoTimeout(2000);
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(TaskdStandIn.message(100)), socket.getOutputStream());
+            return pump.relay(socket.getInputStream(), new ByteArrayOutputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void pemCredentials() throws Exception {
+        File folder = File.createTempFile("pki", "");
+        folder.delete();
+        folder.mkdirs();
+        pki.writePEM(folder);
+        SSLContext context = SSLHelper.tlsContext(new FileInputStream(new File(folder, TestCertificates.CA_FILE)),
+                                                  new FileInputStream(new File(folder, TestCertificates.CERT_FILE)),
+                                                  new FileInputStream(new File(folder, TestCertificates.KEY_FILE)),
+                                                  SSLHelper.TrustType.Strict);
+        assertEquals(1024 + ProxyPump.HEADER_SIZE, relay(context));
+    }
+
+    @Test(timeout = 30000)
+    public void clientCertificateRequired() throws Exception {
+        int failures = server.handshakeFailures();
+        try {
+            relay(TestCertificates.context(null, pki.ca));
+            fail("Server accepted client without certificate");
+        } catch (IOException e) {
+            // Expected
+        }
+        Thread.sleep(100);
+        assertEquals(failures + 1, server.handshakeFailures());
+        TestCertificates.Credentials stranger = TestCertificates.selfSigned("Stranger");
+        try {
+            relay(TestCertificates.context(stranger, pki.ca));
+            fail("Server accepted untrusted certificate");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void faults() throws Exception {
+        SSLContext context = pki.clientContext();
+        server.setFault(TaskdStandIn.Fault.Handshake);
+        try {
+            relay(context);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        server.setFault(TaskdStandIn.Fault.NoResponse);
+        try {
+            relay(context);
+            fail();
+        } catch (EOFException e) {
+            // Expected
+        }
+        server.setFault(TaskdStandIn.Fault.Truncated);
+        try {
+            relay(context);
+            fail();
+        } catch (EOFException e) {
+            assertTrue(e.getMessage().startsWith("Message truncated"));
+        }
+        server.setFault(TaskdStandIn.Fault.InvalidSize);
+        try {
+            relay(context);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Invalid message size"));
+        }
+        server.setFault(TaskdStandIn.Fault.Stall);
+        try {
+            relay(context);
+            fail();
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+        server.setFault(TaskdStandIn.Fault.None);
+        assertEquals(1024 + ProxyPump.HEADER_SIZE, relay(context));
+    }
+
+    @Test(timeout = 30000)
+    public void clientRecovers() throws Exception {
+        SessionCache.Endpoint endpoint = new SessionCache().put(server.host(), server.port(), "creds",
+                                                                pki.clientContext(), SessionCache.DEFAULT_LIFETIME);
+        TaskdClient client = new TaskdClient(endpoint, "Org/User/key", "test");
+        server.setHandler(TaskdStandIn.syntheticSync(10));
+        server.setFault(TaskdStandIn.Fault.Truncated);
+        try {
+            client.sync(null, Collections.<String>emptyList(), TaskdClientTest.IGNORE);
+            fail();
+        } catch (EOFException e) {
+            // Expected
+        }
+        server.setFault(TaskdStandIn.Fault.None);
+        server.setLatency(200);
+        TaskdClient.Response response = client.sync(null, Collections.<String>emptyList(),
+                                                    TaskdClientTest.IGNORE);
+        assertEquals(200, response.code);
+        assertEquals(10, response.tasks);
+        assertNotNull(response.syncKey);
+        assertTrue("Response: " + response.response, response.response >= 200);
+    }
+}
@@ -0,0 +1,112 @@
+package kvj.taskw.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SyncOrchestratorTest {
+
+    private static class Sleeping implements SyncOrchestrator.Target {
+
+        static final AtomicInteger active = new AtomicInteger();
+        static final AtomicInteger maxActive = new AtomicInteger();
+
+        final String name;
+        final long sleep;
+        final String error;
+
+        Sleeping(String name, long sleep, String error) {
+            this.name = name;
+            this.sleep = sleep;
+            this.error = error;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String sync(String trigger) {
+            int now = active.incrementAndGet();
+            synchronized (maxActive) {
+                maxActive.set(Math.max(maxActive.get(), now));
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+            } finally {
+                active.decrementAndGet();
+            }
+            return error;
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void parallelAndBounded() throws Exception {
+        SyncOrchestrator orchestrator = new SyncOrchestrator(3);
+        List<Sleeping> targets = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            targets.add(new Sleeping("account" + i, 300, i == 2 ? "Failed" : null));
+        }
+        long started = System.currentTimeMillis();
+        List<SyncOrchestrator.Result> results = orchestrator.sync(targets, "alarm");
+        long elapsed = System.currentTimeMillis() - started;
+        assertTrue("Elapsed: " + elapsed, elapsed < 6 * 300); // Not sequential
+        assertTrue(Sleeping.maxActive.get() <= 3);
+        assertEquals(6, results.size());
+        assertEquals("account0", results.get(0).name);
+        assertTrue(results.get(0).success());
+        assertFalse(results.get(2).success());
+        assertEquals("Failed", results.get(2).error);
+    }
+
+    @Test(timeout = 10000)
+    public void runningSkipped() throws Exception {
+        final SyncOrchestrator orchestrator = new SyncOrchestrator(2);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SyncOrchestrator.Target blocking = new SyncOrchestrator.Target() {
+            @Override
+            public String name() {
+                return "one";
+            }
+
+            @Override
+            public String sync(String trigger) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return null;
+            }
+        };
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    orchestrator.sync(Arrays.asList(blocking), "alarm");
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        first.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertTrue(orchestrator.running("one"));
+        List<SyncOrchestrator.Result> results = orchestrator.sync(
+                Arrays.asList(blocking, new Sleeping("two", 10, null)), "manual");
+        assertTrue(results.get(0).skipped);
+        assertTrue(results.get(1).success());
+        release.countDown();
+        first.join();
+        assertFalse(orchestrator.running("one"));
+    }
+}
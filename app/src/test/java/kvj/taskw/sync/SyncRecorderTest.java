@@ -0,0 +1,128 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+public class SyncRecorderTest {
+
+    private static TestCertificates.Pki pki;
+    private static TaskdStandIn server;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        pki = new TestCertificates.Pki();
+        server = new TaskdStandIn(pki.serverContext(), true);
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    private static File folder() throws IOException {
+        File folder = File.createTempFile("records", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    private SessionCache.Endpoint endpoint() throws Exception {
+        return new SessionCache().put(server.host(), server.port(), "creds", pki.clientContext(),
+                                      SessionCache.DEFAULT_LIFETIME);
+    }
+
+    /**
+     * Same as LocalSocketThread does with recording enabled.
+     */
+    private byte[] proxy(SyncRecorder recorder, byte[] request) throws Exception {
+        SessionCache.Endpoint endpoint = endpoint();
+        SSLSocket socket = endpoint.connect();
+        try {
+            endpoint.handshake(socket);
+            ByteArrayOutputStream local = new ByteArrayOutputStream();
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(request), recorder.tee(SyncRecorder.REQUEST, socket.getOutputStream()));
+            pump.relay(socket.getInputStream(), recorder.tee(SyncRecorder.RESPONSE, local));
+            return local.toByteArray();
+        } finally {
+            recorder.close();
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void recordAndReplay() throws Exception {
+        File folder = folder();
+        TaskdClient.Message sync = new TaskdClient.Message()
+                .header("client", "test")
+                .header("key", "secret-key")
+                .header("type", "sync");
+        sync.lines.add("{\"uuid\":\"a\"}");
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        sync.write(request);
+        server.setHandler(TaskdStandIn.syntheticSync(200));
+        server.setLatency(100);
+        byte[] response;
+        SyncRecorder recorder = SyncRecorder.create(folder);
+        try {
+            response = proxy(recorder, request.toByteArray());
+        } finally {
+            server.setHandler(null);
+            server.setLatency(0);
+        }
+
+        List<SyncRecorder.Message> messages = SyncRecorder.read(recorder.file());
+        assertEquals(2, messages.size());
+        assertEquals(SyncRecorder.REQUEST, messages.get(0).direction);
+        assertEquals(SyncRecorder.RESPONSE, messages.get(1).direction);
+        assertTrue(messages.get(1).time - messages.get(0).time >= 100); // Server delay
+        String recorded = new String(messages.get(0).body(), "utf-8");
+        assertFalse(recorded.contains("secret-key"));
+        assertTrue(recorded.contains("key: xxxxxxxxxx\n"));
+        assertEquals(request.size(), messages.get(0).data.length);
+        assertArrayEquals(response, messages.get(1).data);
+
+        SyncReplay.Result result = new SyncReplay(recorder.file()).run(server, endpoint(), true);
+        server.setHandler(null);
+        server.setLatency(0);
+        assertEquals(1, result.exchanges);
+        assertTrue(result.identical);
+        assertEquals(request.size(), result.sent);
+        assertEquals(response.length, result.received);
+        assertTrue(result.time >= 100);
+    }
+
+    @Test(timeout = 30000)
+    public void truncatedAndPruned() throws Exception {
+        File folder = folder();
+        server.setFault(TaskdStandIn.Fault.Truncated);
+        SyncRecorder recorder = SyncRecorder.create(folder);
+        try {
+            proxy(recorder, TaskdStandIn.message(100));
+            fail();
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            server.setFault(TaskdStandIn.Fault.None);
+        }
+        List<SyncRecorder.Message> messages = SyncRecorder.read(recorder.file());
+        assertEquals(1, messages.size()); // Cut response dropped
+
+        for (int i = 0; i < SyncRecorder.KEEP + 2; i++) {
+            SyncRecorder.create(folder).close();
+            Thread.sleep(5); // Different names
+        }
+        assertEquals(SyncRecorder.KEEP, SyncRecorder.recordings(folder).length);
+    }
+}
@@ -0,0 +1,98 @@
+package kvj.taskw.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Feeds recorded sync sessions (see SyncRecorder) back through the proxy path: every recorded request
+ * is relayed over TLS to taskd stand-in, which answers with the recorded response.
+ * Usage: SyncReplay recording [rounds] [realtime] - realtime keeps recorded server delay.
+ */
+public class SyncReplay {
+
+    public static class Result {
+        public int exchanges = 0;
+        public long sent = 0;
+        public long received = 0;
+        public long time = 0; // ms
+        public boolean identical = true; // Responses as recorded
+
+        @Override
+        public String toString() {
+            return String.format("%d exchanges, sent %d, received %d bytes in %d ms%s",
+                                 exchanges, sent, received, time, identical ? "" : ", responses differ");
+        }
+    }
+
+    private final List<SyncRecorder.Message> messages;
+
+    public SyncReplay(File recording) throws IOException {
+        messages = SyncRecorder.read(recording);
+    }
+
+    public SyncReplay(List<SyncRecorder.Message> messages) {
+        this.messages = messages;
+    }
+
+    public Result run(TaskdStandIn server, SessionCache.Endpoint endpoint, boolean realtime) throws IOException {
+        Result result = new Result();
+        long started = System.currentTimeMillis();
+        for (int i = 0; i + 1 < messages.size(); i++) {
+            final SyncRecorder.Message request = messages.get(i);
+            final SyncRecorder.Message response = messages.get(i + 1);
+            if (request.direction != SyncRecorder.REQUEST || response.direction != SyncRecorder.RESPONSE) {
+                continue;
+            }
+            server.setHandler(new TaskdStandIn.Handler() {
+                @Override
+                public byte[] respond(byte[] body) throws IOException {
+                    return response.body();
+                }
+            });
+            server.setLatency(realtime ? Math.max(0, response.time - request.time) : 0);
+            SSLSocket socket = endpoint.connect();
+            try {
+                endpoint.handshake(socket);
+                ProxyPump pump = new ProxyPump();
+                ByteArrayOutputStream local = new ByteArrayOutputStream(response.data.length);
+                result.sent += pump.relay(new ByteArrayInputStream(request.data), socket.getOutputStream());
+                result.received += pump.relay(socket.getInputStream(), local);
+                result.identical &= Arrays.equals(response.data, local.toByteArray());
+                result.exchanges++;
+            } finally {
+                socket.close();
+            }
+        }
+        result.time = System.currentTimeMillis() - started;
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SyncReplay recording [rounds] [realtime]");
+            System.exit(1);
+        }
+        SyncReplay replay = new SyncReplay(new File(args[0]));
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean realtime = args.length > 2 && "realtime".equals(args[2]);
+        TestCertificates.Pki pki = new TestCertificates.Pki();
+        TaskdStandIn server = new TaskdStandIn(pki.serverContext(), true);
+        try {
+            SessionCache.Endpoint endpoint = new SessionCache().put(server.host(), server.port(), "replay",
+                                                                    pki.clientContext(),
+                                                                    SessionCache.DEFAULT_LIFETIME);
+            for (int i = 0; i < rounds; i++) {
+                System.out.printf("Round %d: %s%n", i + 1, replay.run(server, endpoint, realtime));
+            }
+            System.out.println(endpoint);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TaskdClientTest {
+
+    private static final String KEY = "c0ffee00-1111-2222-3333-444455556666";
+    private static final String NEW_KEY = "c0ffee00-1111-2222-3333-777788889999";
+
+    static final TaskdClient.LineConsumer IGNORE = new TaskdClient.LineConsumer() {
+        @Override
+        public void line(String line) {
+        }
+    };
+
+    /**
+     * Gives out data in small pieces, counts what was read.
+     */
+    private static class SlowInputStream extends ByteArrayInputStream {
+
+        int read = 0;
+
+        SlowInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int result = super.read(b, off, Math.min(len, 100));
+            read += Math.max(result, 0);
+            return result;
+        }
+
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+    }
+
+    private static TaskdStandIn server;
+    private static TestCertificates.Credentials ca;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        ca = TestCertificates.selfSigned("Test CA");
+        server = new TaskdStandIn(TestCertificates.context(ca, null));
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        server.close();
+    }
+
+    private TaskdClient client() throws Exception {
+        SessionCache.Endpoint endpoint = new SessionCache().put(server.host(), server.port(), "creds",
+                                                                TestCertificates.context(null, ca),
+                                                                SessionCache.DEFAULT_LIFETIME);
+        return new TaskdClient(endpoint, "Org/User Name/key-1", "test 1.0");
+    }
+
+    @Test
+    public void messageRoundTrip() throws Exception {
+        TaskdClient.Message message = new TaskdClient.Message()
+                .header("type", "sync")
+                .header("client", "test");
+        message.lines.add(KEY);
+        message.lines.add("{\"description\":\"Unicode: \u00e9\u4e2d\"}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = message.write(out);
+        assertEquals(out.size(), size);
+        assertEquals(size, ProxyPump.messageSize(out.toByteArray()));
+        TaskdClient.Message read = TaskdClient.Message.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(message.headers, read.headers);
+        assertEquals(message.lines, read.lines);
+        assertEquals(size, read.size);
+    }
+
+    @Test
+    public void streamed() throws Exception {
+        TaskdClient.Message message = new TaskdClient.Message().header("code", "200");
+        for (int i = 0; i < 1000; i++) {
+            message.lines.add(String.format("{\"uuid\":\"%d\",\"description\":\"Task \u00e9 %d\"}", i, i));
+        }
+        message.lines.add(NEW_KEY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.write(out);
+        out.write(new byte[]{0, 0, 0, 4}); // Next message is not touched
+        final byte[] data = out.toByteArray();
+        final SlowInputStream in = new SlowInputStream(data);
+        final List<String> lines = new ArrayList<>();
+        final int[] readAtFirst = {-1};
+        TaskdClient.Message read = TaskdClient.Message.read(in, new TaskdClient.LineConsumer() {
+            @Override
+            public void line(String line) {
+                if (lines.isEmpty()) {
+                    readAtFirst[0] = in.read;
+                }
+                lines.add(line);
+            }
+        });
+        assertEquals("200", read.header("code"));
+        assertTrue(read.lines.isEmpty()); // Handed over, not kept
+        assertEquals(message.lines, lines);
+        assertTrue("Read before first line: " + readAtFirst[0], readAtFirst[0] < 1000);
+        assertEquals(data.length - 4, in.read);
+
+        try { // Connection closed inside the message
+            TaskdClient.Message.read(new ByteArrayInputStream(data, 0, data.length / 2), IGNORE);
+            fail("Truncated message accepted");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCredentials() throws Exception {
+        new TaskdClient(null, "org/user", "test");
+    }
+
+    @Test(timeout = 60000)
+    public void sync() throws Exception {
+        final AtomicReference<TaskdClient.Message> received = new AtomicReference<>();
+        server.setHandler(new TaskdStandIn.Handler() {
+            @Override
+            public byte[] respond(byte[] request) throws IOException {
+                received.set(TaskdClient.Message.parse(new String(request, "utf-8")));
+                return ("code: 200\nstatus: Ok\n\n"
+                        + "{\"uuid\":\"a\",\"description\":\"one\"}\n"
+                        + "{\"uuid\":\"b\",\"description\":\"two\"}\n"
+                        + NEW_KEY + "\n").getBytes("utf-8");
+            }
+        });
+        try {
+            final List<String> tasks = new ArrayList<>();
+            TaskdClient.Response response = client().sync(KEY, Arrays.asList("{\"uuid\":\"c\"}"),
+                                                           new TaskdClient.LineConsumer() {
+                @Override
+                public void line(String line) {
+                    tasks.add(line);
+                }
+            });
+            TaskdClient.Message request = received.get();
+            assertEquals("sync", request.header("type"));
+            assertEquals("Org", request.header("org"));
+            assertEquals("User Name", request.header("user"));
+            assertEquals("key-1", request.header("key"));
+            assertEquals("v1", request.header("protocol"));
+            assertEquals(Arrays.asList(KEY, "{\"uuid\":\"c\"}"), request.lines);
+
+            assertTrue(response.success());
+            assertEquals(200, response.code);
+            assertEquals("Ok", response.status);
+            assertEquals(2, response.tasks);
+            assertEquals(Arrays.asList("{\"uuid\":\"a\",\"description\":\"one\"}",
+                                       "{\"uuid\":\"b\",\"description\":\"two\"}"), tasks);
+            assertEquals(NEW_KEY, response.syncKey);
+            assertFalse(response.noChange());
+            assertTrue(response.sent > 0);
+            assertTrue(response.received > 0);
+            assertTrue(response.handshake >= 0);
+        } finally {
+            server.setHandler(null);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void noChange() throws Exception {
+        server.setHandler(TaskdStandIn.syntheticSync(0));
+        try {
+            TaskdClient.Response response = client().sync(KEY, Arrays.<String>asList(), IGNORE);
+            assertTrue(response.success());
+            assertEquals(201, response.code);
+            assertEquals(0, response.tasks);
+            assertNull(response.syncKey);
+            assertTrue(response.noChange()); // Not a failure, stored key is kept
+        } finally {
+            server.setHandler(null);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void failure() throws Exception {
+        server.setHandler(new TaskdStandIn.Handler() {
+            @Override
+            public byte[] respond(byte[] request) throws IOException {
+                return "code: 430\nstatus: Access denied\n\n".getBytes("utf-8");
+            }
+        });
+        try {
+            TaskdClient.Response response = client().sync(null, Arrays.<String>asList(), IGNORE);
+            assertFalse(response.success());
+            assertEquals(430, response.code);
+            assertEquals("Access denied", response.status);
+            assertNull(response.syncKey);
+            assertFalse(response.noChange());
+        } finally {
+            server.setHandler(null);
+        }
+    }
+}
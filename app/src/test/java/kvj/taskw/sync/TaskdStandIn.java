@@ -0,0 +1,230 @@
+package kvj.taskw.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Minimal TLS server speaking taskd framing: reads one message, answers with a message of configured size
+ * or with what handler returns. Can require client certificate, delay responses and inject faults.
+ */
+public class TaskdStandIn {
+
+    public interface Handler {
+        /**
+         * @param request message body, without size header
+         * @return response body, without size header
+         */
+        byte[] respond(byte[] request) throws IOException;
+    }
+
+    public enum Fault {
+        None,
+        Handshake, // Connection closed before handshake
+        NoResponse, // Request read, connection closed
+        Truncated, // Half of response sent
+        InvalidSize, // Size header below minimum
+        Stall // Request read, nothing sent until client gives up
+    }
+
+    private final SSLServerSocket server;
+    private volatile Handler handler = null;
+    private volatile Fault fault = Fault.None;
+    private volatile long latency = 0; // Before response, ms
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger handshakeFailures = new AtomicInteger();
+    private volatile int responseSize = 1024;
+    private volatile long lastRequest = 0;
+
+    public TaskdStandIn(SSLContext context) throws IOException {
+        this(context, false);
+    }
+
+    /**
+     * @param clientAuth require client certificate, as taskd does
+     */
+    public TaskdStandIn(SSLContext context, boolean clientAuth) throws IOException {
+        this(context, clientAuth, false);
+    }
+
+    /**
+     * @param clientOrder pick cipher suite by client preference instead of own order (taskd uses its own)
+     */
+    public TaskdStandIn(SSLContext context, boolean clientAuth, boolean clientOrder) throws IOException {
+        server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setNeedClientAuth(clientAuth);
+        SSLParameters parameters = server.getSSLParameters(); // Before accept: it takes a copy
+        parameters.setUseCipherSuitesOrder(!clientOrder);
+        server.setSSLParameters(parameters);
+        Thread acceptThread = new Thread() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket conn = server.accept();
+                        connections.incrementAndGet();
+                        Thread thread = new Thread() {
+                            @Override
+                            public void run() {
+                                serve((SSLSocket) conn);
+                            }
+                        };
+                        thread.setDaemon(true);
+                        thread.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Builds framed message: total length (with header) followed by payload.
+     */
+    public static byte[] message(int payloadSize) {
+        byte[] result = new byte[payloadSize + ProxyPump.HEADER_SIZE];
+        int size = result.length;
+        result[0] = (byte) (size >>> 24);
+        result[1] = (byte) (size >>> 16);
+        result[2] = (byte) (size >>> 8);
+        result[3] = (byte) size;
+        for (int i = ProxyPump.HEADER_SIZE; i < size; i++) {
+            result[i] = (byte) ('a' + i % 26);
+        }
+        return result;
+    }
+
+    static byte[] frame(byte[] body) {
+        byte[] result = message(body.length);
+        System.arraycopy(body, 0, result, ProxyPump.HEADER_SIZE, body.length);
+        return result;
+    }
+
+    /**
+     * Sync response with given number of generated tasks and new sync key.
+     * Without tasks it's 201 with no key, as taskd sends when nothing changed.
+     */
+    public static Handler syntheticSync(final int tasks) {
+        return new Handler() {
+            @Override
+            public byte[] respond(byte[] request) throws IOException {
+                StringBuilder body = new StringBuilder(tasks * 200 + 100);
+                body.append(tasks > 0 ? "code: 200\nstatus: Ok\n\n" : "code: 201\nstatus: No change\n\n");
+                for (int i = 0; i < tasks; i++) {
+                    body.append(String.format(
+                            "{\"description\":\"Task %d\",\"entry\":\"20160101T120000Z\",\"modified\":\"20160102T120000Z\","
+                                    + "\"status\":\"pending\",\"tags\":[\"one\",\"two\"],\"uuid\":\"%s\"}\n",
+                            i, UUID.randomUUID()));
+                }
+                if (tasks > 0) {
+                    body.append(UUID.randomUUID()).append('\n');
+                }
+                return body.toString().getBytes("utf-8");
+            }
+        };
+    }
+
+    private void serve(SSLSocket conn) {
+        try {
+            Fault fault = this.fault;
+            if (fault == Fault.Handshake) {
+                return;
+            }
+            try {
+                conn.startHandshake();
+            } catch (IOException e) {
+                handshakeFailures.incrementAndGet();
+                return;
+            }
+            InputStream in = conn.getInputStream();
+            OutputStream out = conn.getOutputStream();
+            byte[] head = new byte[ProxyPump.HEADER_SIZE];
+            ProxyPump.readFully(in, head, 0, head.length);
+            int size = ProxyPump.messageSize(head);
+            byte[] body = new byte[size - head.length];
+            ProxyPump.readFully(in, body, 0, body.length);
+            lastRequest = size;
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            Handler h = handler;
+            byte[] response = null == h ? message(responseSize) : frame(h.respond(body));
+            switch (fault) {
+                case NoResponse:
+                    return;
+                case Truncated:
+                    out.write(response, 0, response.length / 2);
+                    break;
+                case InvalidSize:
+                    out.write(new byte[]{0, 0, 0, 2});
+                    break;
+                case Stall:
+                    while (in.read() != -1) { // Until client closes
+                    }
+                    return;
+                default:
+                    out.write(response);
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // Client gone
+        } finally {
+            try {
+                conn.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    public void setResponseSize(int responseSize) {
+        this.responseSize = responseSize;
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void setFault(Fault fault) {
+        this.fault = fault;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public String host() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    public int connections() {
+        return connections.get();
+    }
+
+    public int handshakeFailures() {
+        return handshakeFailures.get();
+    }
+
+    public long lastRequest() {
+        return lastRequest;
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,238 @@
+package kvj.taskw.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import kvj.taskw.sync.der.DerInputStream;
+import kvj.taskw.sync.der.DerOutputStream;
+import kvj.taskw.sync.der.DerValue;
+import kvj.taskw.sync.der.ObjectIdentifier;
+
+/**
+ * Generates RSA (or EC) certificates signed with RSA for tests, encoded with our own DER classes.
+ */
+public class TestCertificates {
+
+    private static final String SIGNATURE = "SHA256withRSA";
+    private static final String SIGNATURE_OID = "1.2.840.113549.1.1.11";
+    private static final String CN_OID = "2.5.4.3";
+    private static final String BASIC_CONSTRAINTS_OID = "2.5.29.19";
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    public static class Credentials {
+        public final String name;
+        public final KeyPair keys;
+        public final X509Certificate certificate;
+        public final Credentials issuer;
+
+        private Credentials(String name, KeyPair keys, X509Certificate certificate, Credentials issuer) {
+            this.name = name;
+            this.keys = keys;
+            this.certificate = certificate;
+            this.issuer = issuer;
+        }
+
+        public KeyManager[] keyManagers() throws Exception {
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null);
+            Certificate[] chain = null == issuer ?
+                    new Certificate[]{certificate} :
+                    new Certificate[]{certificate, issuer.certificate};
+            keyStore.setKeyEntry("private-key", keys.getPrivate(), "".toCharArray(), chain);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, "".toCharArray());
+            return kmf.getKeyManagers();
+        }
+
+        public TrustManager[] trustManagers() throws Exception {
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null);
+            keyStore.setCertificateEntry("ca", certificate);
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(keyStore);
+            return tmf.getTrustManagers();
+        }
+    }
+
+    /**
+     * CA with server and client certificates issued by it, as taskd setup makes.
+     */
+    public static class Pki {
+        public final Credentials ca;
+        public final Credentials server;
+        public final Credentials client;
+
+        public Pki() throws Exception {
+            ca = selfSigned("Test CA");
+            server = issue("localhost", ca);
+            client = issue("Test client", ca);
+        }
+
+        public SSLContext serverContext() throws Exception {
+            return context(server, ca);
+        }
+
+        public SSLContext clientContext() throws Exception {
+            return context(client, ca);
+        }
+
+        /**
+         * Writes files for taskd.ca, taskd.certificate and taskd.key settings. Key is PKCS#1, like from certtool.
+         */
+        public void writePEM(File folder) throws Exception {
+            write(new File(folder, CA_FILE), pem("CERTIFICATE", ca.certificate.getEncoded()));
+            write(new File(folder, CERT_FILE), pem("CERTIFICATE", client.certificate.getEncoded()));
+            write(new File(folder, KEY_FILE), pem("RSA PRIVATE KEY", pkcs1(client.keys.getPrivate())));
+        }
+    }
+
+    public static final String CA_FILE = "ca.cert.pem";
+    public static final String CERT_FILE = "client.cert.pem";
+    public static final String KEY_FILE = "client.key.pem";
+
+    public static String pem(String type, byte[] der) {
+        return String.format("-----BEGIN %s-----\n%s\n-----END %s-----\n", type,
+                             Base64.getMimeEncoder(64, "\n".getBytes()).encodeToString(der), type);
+    }
+
+    /**
+     * PKCS#8 wraps PKCS#1 key as octet string: version, algorithm, key.
+     */
+    static byte[] pkcs1(PrivateKey key) throws IOException {
+        return new DerInputStream(key.getEncoded()).getSequence(3)[2].getOctetString();
+    }
+
+    private static void write(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("utf-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static KeyPair keyPair(String algorithm) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize("EC".equals(algorithm) ? 256 : 2048);
+        return generator.generateKeyPair();
+    }
+
+    private static void putName(DerOutputStream out, String cn) throws Exception {
+        DerOutputStream atv = new DerOutputStream();
+        atv.putOID(new ObjectIdentifier(CN_OID));
+        atv.putUTF8String(cn);
+        DerOutputStream rdn = new DerOutputStream();
+        rdn.write(DerValue.tag_Sequence, atv);
+        DerOutputStream name = new DerOutputStream();
+        name.write(DerValue.tag_Set, rdn);
+        out.write(DerValue.tag_Sequence, name);
+    }
+
+    private static void putAlgorithm(DerOutputStream out) throws Exception {
+        DerOutputStream alg = new DerOutputStream();
+        alg.putOID(new ObjectIdentifier(SIGNATURE_OID));
+        alg.putNull();
+        out.write(DerValue.tag_Sequence, alg);
+    }
+
+    private static void putCAExtension(DerOutputStream out) throws Exception {
+        DerOutputStream constraints = new DerOutputStream();
+        constraints.putBoolean(true);
+        DerOutputStream constraintsSeq = new DerOutputStream();
+        constraintsSeq.write(DerValue.tag_Sequence, constraints);
+        DerOutputStream ext = new DerOutputStream();
+        ext.putOID(new ObjectIdentifier(BASIC_CONSTRAINTS_OID));
+        ext.putBoolean(true); // Critical
+        ext.putOctetString(constraintsSeq.toByteArray());
+        DerOutputStream exts = new DerOutputStream();
+        exts.write(DerValue.tag_Sequence, ext);
+        DerOutputStream extsSeq = new DerOutputStream();
+        extsSeq.write(DerValue.tag_Sequence, exts);
+        out.write(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 3), extsSeq);
+    }
+
+    private static Credentials create(String cn, Credentials issuer, boolean ca, String algorithm) throws Exception {
+        KeyPair keys = keyPair(algorithm);
+        DerOutputStream tbs = new DerOutputStream();
+        DerOutputStream version = new DerOutputStream();
+        version.putInteger(2); // v3
+        tbs.write(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 0), version);
+        tbs.putInteger(new BigInteger(63, new SecureRandom()));
+        putAlgorithm(tbs);
+        putName(tbs, null == issuer ? cn : issuer.name);
+        DerOutputStream validity = new DerOutputStream();
+        long now = System.currentTimeMillis();
+        validity.putUTCTime(new Date(now - DAY));
+        validity.putUTCTime(new Date(now + 30 * DAY));
+        tbs.write(DerValue.tag_Sequence, validity);
+        putName(tbs, cn);
+        tbs.write(keys.getPublic().getEncoded());
+        if (ca) {
+            putCAExtension(tbs);
+        }
+        DerOutputStream tbsSeq = new DerOutputStream();
+        tbsSeq.write(DerValue.tag_Sequence, tbs);
+        byte[] tbsBytes = tbsSeq.toByteArray();
+
+        DerOutputStream cert = new DerOutputStream();
+        cert.write(tbsBytes);
+        putAlgorithm(cert);
+        cert.putBitString(sign(null == issuer ? keys : issuer.keys, tbsBytes));
+        DerOutputStream certSeq = new DerOutputStream();
+        certSeq.write(DerValue.tag_Sequence, cert);
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        X509Certificate certificate = (X509Certificate) factory.generateCertificate(
+                new ByteArrayInputStream(certSeq.toByteArray()));
+        return new Credentials(cn, keys, certificate, issuer);
+    }
+
+    private static byte[] sign(KeyPair keys, byte[] data) throws Exception {
+        Signature signature = Signature.getInstance(SIGNATURE);
+        signature.initSign(keys.getPrivate());
+        signature.update(data);
+        return signature.sign();
+    }
+
+    public static Credentials selfSigned(String cn) throws Exception {
+        return create(cn, null, true, "RSA");
+    }
+
+    public static Credentials issue(String cn, Credentials issuer) throws Exception {
+        return create(cn, issuer, false, "RSA");
+    }
+
+    /**
+     * @param algorithm of the key pair: RSA or EC (P-256), certificate is signed by RSA issuer anyway
+     */
+    public static Credentials issue(String cn, Credentials issuer, String algorithm) throws Exception {
+        return create(cn, issuer, false, algorithm);
+    }
+
+    public static SSLContext context(Credentials own, Credentials trusted) throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null == own ? null : own.keyManagers(),
+                     null == trusted ? null : trusted.trustManagers(), null);
+        return context;
+    }
+}
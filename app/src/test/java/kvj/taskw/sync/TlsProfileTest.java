@@ -0,0 +1,158 @@
+package kvj.taskw.sync;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * android.sync.tls: option parsing, suite order, handshakes with RSA and ECDSA server certificates.
+ */
+public class TlsProfileTest {
+
+    private static final String[] SUPPORTED = {
+        "TLS_RSA_WITH_AES_128_CBC_SHA",
+        "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA",
+        "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+        "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+        "TLS_AES_256_GCM_SHA384",
+        "TLS_AES_128_GCM_SHA256",
+        "TLS_CHACHA20_POLY1305_SHA256",
+        "TLS_EMPTY_RENEGOTIATION_INFO_SCSV",
+    };
+
+    private static TestCertificates.Pki pki;
+    private static TaskdStandIn rsa;
+    private static TaskdStandIn ec;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        pki = new TestCertificates.Pki();
+        rsa = new TaskdStandIn(pki.serverContext(), true, true);
+        ec = new TaskdStandIn(TestCertificates.context(TestCertificates.issue("localhost", pki.ca, "EC"), pki.ca),
+                              true, true);
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        rsa.close();
+        ec.close();
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(TlsProfile.DEFAULT, TlsProfile.parse(null));
+        assertEquals(TlsProfile.DEFAULT, TlsProfile.parse(" "));
+        assertEquals(new TlsProfile(true, true), TlsProfile.parse("modern chacha"));
+        assertEquals(new TlsProfile(false, false), TlsProfile.parse("Compatible, AES"));
+        assertEquals(TlsProfile.DEFAULT.chachaFirst(), TlsProfile.parse("modern").chachaFirst());
+        assertEquals(new TlsProfile(true, false), TlsProfile.parse(new TlsProfile(true, false).toString()));
+        try {
+            TlsProfile.parse("modern rc4");
+            fail("Unknown option accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("rc4"));
+        }
+    }
+
+    @Test
+    public void cipherSuites() {
+        String[] enabled = {"TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA", "TLS_RSA_WITH_AES_128_CBC_SHA",
+                            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_EMPTY_RENEGOTIATION_INFO_SCSV"};
+        List<String> chacha = Arrays.asList(new TlsProfile(false, true).cipherSuites(SUPPORTED, enabled));
+        assertEquals(Arrays.asList(
+                "TLS_CHACHA20_POLY1305_SHA256", "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384",
+                "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+                "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+                "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+                // Rest of enabled ones, in platform order
+                "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA", "TLS_RSA_WITH_AES_128_CBC_SHA",
+                "TLS_EMPTY_RENEGOTIATION_INFO_SCSV"), chacha);
+
+        List<String> aes = Arrays.asList(new TlsProfile(true, false).cipherSuites(SUPPORTED, enabled));
+        assertEquals(Arrays.asList(
+                "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256",
+                "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+                "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+                "TLS_EMPTY_RENEGOTIATION_INFO_SCSV"), aes); // Modern: only signalling suite of the rest
+
+        // Old platform without any of them: keep its defaults
+        assertNull(new TlsProfile(true, false).cipherSuites(new String[]{"TLS_RSA_WITH_AES_128_CBC_SHA"}, enabled));
+    }
+
+    @Test
+    public void protocols() {
+        String[] supported = {"SSLv3", "TLSv1", "TLSv1.1", "TLSv1.2"};
+        assertArrayEquals(new String[]{"TLSv1.2"}, new TlsProfile(true, false).protocols(supported));
+        assertArrayEquals(new String[]{"TLSv1.2", "TLSv1.1", "TLSv1"}, new TlsProfile(false, false).protocols(supported));
+        assertArrayEquals(new String[]{TlsProfile.TLS13, "TLSv1.2"},
+                          new TlsProfile(true, false).protocols(new String[]{"TLSv1.2", TlsProfile.TLS13}));
+        assertNull(new TlsProfile(true, false).protocols(new String[]{"SSLv3", "TLSv1"}));
+    }
+
+    @Test
+    public void unsupported() {
+        String[] enabled = {"TLS_RSA_WITH_AES_128_CBC_SHA", "TLS_EMPTY_RENEGOTIATION_INFO_SCSV"};
+        assertNull(new TlsProfile(true, true).unsupported(new String[]{"TLSv1", "TLSv1.2"}, SUPPORTED, enabled));
+        // Android 4.0: TLS 1.0 only, no AEAD suites
+        String[] old = {"SSLv3", "TLSv1"};
+        assertEquals("modern aes: no TLS 1.2 or 1.3, platform defaults used",
+                     new TlsProfile(true, false).unsupported(old, SUPPORTED, enabled));
+        assertEquals("modern chacha: no TLS 1.2 or 1.3, no AES-GCM or ChaCha20-Poly1305 suites, platform defaults used",
+                     new TlsProfile(true, true).unsupported(old, enabled, enabled));
+        assertNull(new TlsProfile(false, false).unsupported(old, SUPPORTED, enabled));
+    }
+
+    /**
+     * @return session of a short sync, protocols are limited to given ones if any
+     */
+    private static SSLSession sync(TaskdStandIn server, TlsProfile profile, String... protocols) throws Exception {
+        SessionCache.Endpoint endpoint = new SessionCache().put(server.host(), server.port(), "tls",
+                                                                pki.clientContext(), 0, profile);
+        SSLSocket socket = endpoint.connect();
+        try {
+            if (protocols.length > 0) {
+                socket.setEnabledProtocols(protocols);
+            }
+            endpoint.handshake(socket);
+            ProxyPump pump = new ProxyPump();
+            pump.relay(new ByteArrayInputStream(TaskdStandIn.message(100)), socket.getOutputStream());
+            assertEquals(1024 + ProxyPump.HEADER_SIZE, pump.relay(socket.getInputStream(), new ByteArrayOutputStream()));
+            return socket.getSession();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Stand-ins pick the suite by client order, so the first one of the profile is negotiated.
+     * taskd (GnuTLS) goes by its own priority string instead.
+     */
+    @Test(timeout = 60000)
+    public void handshakes() throws Exception {
+        for (TlsProfile profile : new TlsProfile[]{new TlsProfile(true, true), new TlsProfile(true, false),
+                                                   new TlsProfile(false, true)}) {
+            String cipher = profile.chachaFirst() ? "CHACHA20_POLY1305_SHA256" : "AES_128_GCM_SHA256";
+            for (TaskdStandIn server : new TaskdStandIn[]{rsa, ec}) {
+                SSLSession session = sync(server, profile);
+                assertEquals(TlsProfile.TLS13, session.getProtocol());
+                assertEquals("TLS_" + cipher, session.getCipherSuite());
+            }
+            assertEquals("TLS_ECDHE_ECDSA_WITH_" + cipher, sync(ec, profile, "TLSv1.2").getCipherSuite());
+            assertEquals("TLS_ECDHE_RSA_WITH_" + cipher, sync(rsa, profile, "TLSv1.2").getCipherSuite());
+        }
+    }
+}
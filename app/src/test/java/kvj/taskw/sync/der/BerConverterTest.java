@@ -0,0 +1,195 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import kvj.taskw.sync.TestCertificates;
+
+import static org.junit.Assert.*;
+
+public class BerConverterTest {
+
+    /**
+     * DER and equivalent BER: some constructed values with indefinite length, some definite lengths not minimal
+     * (unless minimal).
+     * Converters copy contents of definite length values as is, so values around the ones that differ from DER
+     * get indefinite length.
+     *
+     * @return true if top value has indefinite length
+     */
+    private static boolean generate(Random random, int depth, boolean minimal, DerOutputStream der,
+                                    DerOutputStream ber) throws IOException {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            int[] sizes = {0, 1, 5, 127, 128, 255, 256, 1000};
+            int size = random.nextInt(50) == 0 ? 70000 : sizes[random.nextInt(sizes.length)];
+            byte[] octets = DerInputBufferTest.octets(size);
+            der.putOctetString(octets);
+            ber.putOctetString(octets);
+            return false;
+        }
+        DerOutputStream derContents = new DerOutputStream();
+        DerOutputStream berContents = new DerOutputStream();
+        int children = random.nextInt(4);
+        for (int i = 0; i < children; i++) {
+            generate(random, depth - 1, minimal, derContents, berContents);
+        }
+        byte tag = random.nextBoolean() ? DerValue.tag_Sequence
+                                        : DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) random.nextInt(3));
+        der.write(tag, derContents);
+        if (!Arrays.equals(derContents.toByteArray(), berContents.toByteArray()) || random.nextBoolean()) {
+            ber.write(tag);
+            ber.write(0x80);
+            berContents.writeTo(ber);
+            ber.write(0);
+            ber.write(0);
+            return true;
+        }
+        if (!minimal && random.nextBoolean() && berContents.size() < 0x10000) {
+            ber.write(tag);
+            ber.write(0x82);
+            ber.write(berContents.size() >> 8);
+            ber.write(berContents.size());
+            berContents.writeTo(ber);
+        } else {
+            ber.write(tag, berContents);
+        }
+        return false;
+    }
+
+    @Test
+    public void sameAsDerIndefLenConverter() throws Exception {
+        Random random = new Random(47);
+        BerConverter converter = new BerConverter();
+        for (int round = 0; round < 300; round++) {
+            boolean minimal = round % 2 == 0;
+            DerOutputStream der = new DerOutputStream();
+            DerOutputStream ber = new DerOutputStream();
+            while (!generate(random, 5, minimal, der, ber)) { // Top level value has to be indefinite
+                der = new DerOutputStream();
+                ber = new DerOutputStream();
+            }
+            byte[] expected = der.toByteArray();
+            byte[] input = ber.toByteArray();
+            if (minimal) { // Old one does not count definite lengths made shorter
+                assertArrayEquals(expected, new DerIndefLenConverter().convert(input.clone()));
+            }
+
+            assertArrayEquals(expected, converter.convert(input, 0, input.length).toByteArray());
+
+            byte[] padded = new byte[input.length + 10];
+            System.arraycopy(input, 0, padded, 3, input.length);
+            assertArrayEquals(expected, converter.convert(new ByteArrayInputStream(padded, 3, padded.length - 3))
+                    .toByteArray());
+
+            try {
+                int len = converter.convertInPlace(padded, 3, input.length);
+                assertArrayEquals(expected, Arrays.copyOfRange(padded, 3, 3 + len));
+            } catch (IOException e) { // Only values of 64K and more can grow
+                assertTrue(e.getMessage().contains("does not fit in place"));
+                assertTrue(expected.length > 0x10000);
+            }
+        }
+    }
+
+    private static byte[] certificate() throws Exception {
+        return TestCertificates.selfSigned("BER").certificate.getEncoded();
+    }
+
+    @Test
+    public void certificates() throws Exception {
+        byte[] certificate = certificate();
+        byte[] indefinite = BerConverter.toIndefinite(certificate);
+        byte[] doubled = new byte[indefinite.length * 2];
+        System.arraycopy(indefinite, 0, doubled, 0, indefinite.length);
+        System.arraycopy(indefinite, 0, doubled, indefinite.length, indefinite.length);
+
+        BerConverter converter = new BerConverter();
+        // Stream: one value only, the next one is left
+        ByteArrayInputStream in = new ByteArrayInputStream(doubled);
+        assertArrayEquals(certificate, converter.convert(in).toByteArray());
+        assertEquals(indefinite.length, in.available());
+
+        byte[] both = converter.convert(doubled, 0, doubled.length).toByteArray();
+        assertArrayEquals(new DerIndefLenConverter().convert(doubled), both);
+        assertEquals(certificate.length * 2, both.length);
+        assertEquals(certificate.length * 2, converter.convertInPlace(doubled, 0, doubled.length));
+        assertArrayEquals(both, Arrays.copyOf(doubled, both.length));
+    }
+
+    @Test
+    public void parsers() throws Exception {
+        byte[] certificate = certificate();
+        byte[] indefinite = BerConverter.toIndefinite(certificate);
+        byte[] twice = new byte[indefinite.length * 2];
+        System.arraycopy(indefinite, 0, twice, 0, indefinite.length);
+        System.arraycopy(indefinite, 0, twice, indefinite.length, indefinite.length);
+
+        DerInputStream in = new DerInputStream(twice);
+        assertArrayEquals(certificate, in.getDerValue().toByteArray());
+        assertArrayEquals(certificate, in.getDerValue().toByteArray());
+        assertEquals(0, in.available());
+
+        // Stream is read up to the end of the value, not what is available
+        ByteArrayInputStream stream = new ByteArrayInputStream(twice);
+        assertArrayEquals(certificate, new DerValue(stream).toByteArray());
+        assertEquals(indefinite.length, stream.available());
+
+        // Indefinite values inside definite length sequence, followed by other data
+        DerOutputStream contents = new DerOutputStream();
+        contents.write(twice);
+        contents.putInteger(7);
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, contents);
+        DerValue[] values = new DerInputStream(out.toByteArray()).getSequence(3);
+        assertEquals(3, values.length);
+        assertArrayEquals(certificate, values[0].toByteArray());
+        assertArrayEquals(certificate, values[1].toByteArray());
+        assertEquals(7, values[2].getInteger());
+
+        DerInputStream data = new DerValue(out.toByteArray()).data;
+        assertEquals(3, data.getSequence(3).length);
+        assertEquals(3, data.getSequence(3).length);
+        assertEquals(7, data.getInteger());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        byte[][] invalid = {
+            {0x30, (byte) 0x80, 0x02, 0x01, 0x01}, // No end-of-contents
+            {0x30, (byte) 0x80, 0x02, 0x05, 0x01, 0x00, 0x00}, // Value longer than data
+            {0x00, 0x00}, // Unexpected end-of-contents
+            {0x04, (byte) 0x80, 0x00, 0x00}, // Primitive
+            {0x30, (byte) 0x80, 0x04, (byte) 0x85, 1, 0, 0, 0, 0, 0x00, 0x00}, // Length too big
+        };
+        BerConverter converter = new BerConverter();
+        for (byte[] ber : invalid) {
+            try {
+                converter.convert(ber, 0, ber.length);
+                fail("Accepted " + Arrays.toString(ber));
+            } catch (IOException e) {
+                // Expected
+            }
+            try {
+                converter.convert(new ByteArrayInputStream(ber));
+                fail("Accepted from stream " + Arrays.toString(ber));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        byte[] deep = new byte[(DerReader.MAX_DEPTH + 1) * 4];
+        for (int i = 0; i <= DerReader.MAX_DEPTH; i++) {
+            deep[i * 2] = DerValue.tag_Sequence;
+            deep[i * 2 + 1] = (byte) 0x80;
+        }
+        try {
+            converter.convert(deep, 0, deep.length);
+            fail("Accepted too deep nesting");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Nested too deep"));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Word packed BitArray against LegacyBitArray (byte units, bit by bit) on random data.
+ */
+public class BitArrayTest {
+
+    private static final int ROUNDS = 2000;
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[(length + 7) / 8 + random.nextInt(3)]; // Extra bytes are ignored
+        random.nextBytes(bytes);
+        if (random.nextInt(4) == 0) { // Sparse: trailing zeros
+            Arrays.fill(bytes, random.nextInt(bytes.length + 1), bytes.length, (byte) 0);
+        }
+        return bytes;
+    }
+
+    private static int length(Random random) {
+        return random.nextInt(5) == 0 ? random.nextInt(2000) : random.nextInt(200);
+    }
+
+    private static void same(LegacyBitArray expected, BitArray actual) {
+        assertEquals(expected.length(), actual.length());
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertTrue(Arrays.equals(expected.toBooleanArray(), actual.toBooleanArray()));
+        assertEquals(expected.length() > 0 ? expected.toString() : "", actual.toString()); // Old one throws
+    }
+
+    @Test
+    public void sameAsLegacy() throws Exception {
+        Random random = new Random(48);
+        for (int round = 0; round < ROUNDS; round++) {
+            int length = length(random);
+            byte[] bytes = bytes(random, length);
+            LegacyBitArray legacy = new LegacyBitArray(length, bytes);
+            BitArray bits = new BitArray(length, bytes);
+            same(legacy, bits);
+            same(legacy, new BitArray(legacy.toBooleanArray()));
+            same(legacy, (BitArray) bits.clone());
+
+            LegacyBitArray legacyTruncated = legacy.truncate();
+            BitArray truncated = bits.truncate();
+            same(legacyTruncated, truncated);
+
+            for (int i = 0; i < length; i++) {
+                assertEquals(legacy.get(i), bits.get(i));
+                if (random.nextInt(8) == 0) {
+                    boolean value = random.nextBoolean();
+                    legacy.set(i, value);
+                    bits.set(i, value);
+                }
+            }
+            same(legacy, bits);
+            int set = 0;
+            for (boolean bit : legacy.toBooleanArray()) {
+                set += bit ? 1 : 0;
+            }
+            assertEquals(set, bits.cardinality());
+
+            BitArray equal = new BitArray(length, legacy.toByteArray());
+            assertEquals(bits, equal);
+            assertEquals(bits.hashCode(), equal.hashCode());
+            if (length > 0) {
+                equal.set(length - 1, !equal.get(length - 1));
+                assertFalse(bits.equals(equal));
+            }
+            assertFalse(bits.equals(new BitArray(length + 1, Arrays.copyOf(bits.toByteArray(), length / 8 + 1))));
+        }
+    }
+
+    @Test
+    public void bulk() throws Exception {
+        Random random = new Random(480);
+        for (int round = 0; round < ROUNDS; round++) {
+            int length = length(random);
+            BitArray a = new BitArray(length, bytes(random, length));
+            BitArray b = new BitArray(length, bytes(random, length));
+            boolean[] x = a.toBooleanArray();
+            boolean[] y = b.toBooleanArray();
+            boolean[] and = new boolean[length];
+            boolean[] or = new boolean[length];
+            boolean[] xor = new boolean[length];
+            for (int i = 0; i < length; i++) {
+                and[i] = x[i] & y[i];
+                or[i] = x[i] | y[i];
+                xor[i] = x[i] ^ y[i];
+            }
+            BitArray result = (BitArray) a.clone();
+            result.and(b);
+            same(new LegacyBitArray(and), result);
+            result = (BitArray) a.clone();
+            result.or(b);
+            same(new LegacyBitArray(or), result);
+            result = (BitArray) a.clone();
+            result.xor(b);
+            same(new LegacyBitArray(xor), result);
+            result.xor(result);
+            assertEquals(0, result.cardinality());
+            assertEquals(new BitArray(length), result);
+
+            int from = random.nextInt(length + 1);
+            int to = from + random.nextInt(length - from + 1);
+            same(new LegacyBitArray(Arrays.copyOfRange(x, from, to)), a.subArray(from, to));
+        }
+        try {
+            new BitArray(10).and(new BitArray(11));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new BitArray(10).subArray(5, 11);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void derBitStrings() throws Exception {
+        Random random = new Random(4800);
+        for (int round = 0; round < ROUNDS / 4; round++) {
+            int length = length(random);
+            byte[] bytes = bytes(random, length);
+            BitArray bits = new BitArray(length, bytes);
+            LegacyBitArray legacy = new LegacyBitArray(length, bytes);
+
+            DerOutputStream out = new DerOutputStream();
+            out.putUnalignedBitString(bits);
+            out.putTruncatedUnalignedBitString(bits);
+            byte[] der = out.toByteArray();
+
+            DerOutputStream expected = new DerOutputStream();
+            byte[] repn = legacy.toByteArray();
+            expected.write(DerValue.tag_BitString);
+            expected.putLength(repn.length + 1);
+            expected.write(repn.length * 8 - length);
+            expected.write(repn);
+            LegacyBitArray truncated = legacy.truncate();
+            repn = truncated.toByteArray();
+            expected.write(DerValue.tag_BitString);
+            expected.putLength(repn.length + 1);
+            expected.write(repn.length * 8 - truncated.length());
+            expected.write(repn);
+            assertArrayEquals(expected.toByteArray(), der);
+
+            DerInputStream in = new DerInputStream(der);
+            assertEquals(bits, in.getUnalignedBitString());
+            assertEquals(bits.truncate(), in.getUnalignedBitString());
+        }
+    }
+}
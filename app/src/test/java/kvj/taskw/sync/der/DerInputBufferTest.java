@@ -0,0 +1,153 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DerInputBufferTest {
+
+    /**
+     * SEQUENCE { INTEGER, OCTET STRING, SEQUENCE { UTF8String, INTEGER } }
+     */
+    static byte[] encoded(byte[] octets) throws IOException {
+        DerOutputStream inner = new DerOutputStream();
+        inner.putUTF8String("nested");
+        inner.putInteger(-5);
+        DerOutputStream seq = new DerOutputStream();
+        seq.putInteger(new BigInteger("123456789012345678901234567890"));
+        seq.putOctetString(octets);
+        seq.write(DerValue.tag_Sequence, inner);
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, seq);
+        return out.toByteArray();
+    }
+
+    static byte[] octets(int size) {
+        byte[] octets = new byte[size];
+        for (int i = 0; i < octets.length; i++) {
+            octets[i] = (byte) i;
+        }
+        return octets;
+    }
+
+    private static void check(DerValue value, byte[] octets) throws IOException {
+        assertEquals(DerValue.tag_Sequence, value.tag);
+        DerInputStream in = value.toDerInputStream();
+        assertEquals(new BigInteger("123456789012345678901234567890"), in.getBigInteger());
+        ByteBuffer view = in.getOctetStringBuffer();
+        assertTrue(view.isReadOnly());
+        assertEquals(octets.length, view.remaining());
+        byte[] read = new byte[view.remaining()];
+        view.get(read);
+        assertArrayEquals(octets, read);
+        DerValue[] inner = in.getSequence(2);
+        assertEquals("nested", inner[0].getUTF8String());
+        assertEquals(-5, inner[1].getInteger());
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void heapViews() throws Exception {
+        byte[] octets = octets(1000);
+        byte[] bytes = encoded(octets);
+        DerValue value = new DerValue(bytes);
+        check(value, octets);
+        assertArrayEquals(bytes, value.toByteArray());
+
+        // Views share the array
+        ByteBuffer data = value.getDataBuffer();
+        assertEquals(value.length(), data.remaining());
+        int first = data.get(0);
+        bytes[bytes.length - value.length()]++;
+        assertEquals(first + 1, data.get(0));
+    }
+
+    @Test
+    public void byteBufferSource() throws Exception {
+        byte[] octets = octets(300);
+        byte[] bytes = encoded(octets);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+        direct.position(5);
+        direct.put(bytes);
+        direct.position(5);
+        direct.limit(5 + bytes.length);
+        DerValue value = new DerValue(direct);
+        check(value, octets);
+        assertEquals(5, direct.position()); // Source untouched
+        assertArrayEquals(bytes, value.toByteArray());
+
+        DerInputStream in = new DerInputStream(direct);
+        DerInputStream sub = in.subStream(10, false);
+        assertEquals(10, sub.available());
+        assertEquals(bytes.length, in.available());
+        assertArrayEquals(new DerValue(bytes).getDataBytes(), new DerValue(direct).getDataBytes());
+    }
+
+    @Test
+    public void mappedFile() throws Exception {
+        byte[] octets = octets(64 * 1024);
+        byte[] bytes = encoded(octets);
+        File file = File.createTempFile("der", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+            check(new DerValue(mapped), octets);
+            DerValue[] seq = new DerInputStream(mapped).getSequence(3);
+            assertEquals(octets.length, seq[1].getOctetStringBuffer().remaining());
+            assertArrayEquals(octets, seq[1].getDataBytes());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void streamCompatibility() throws Exception {
+        byte[] bytes = {1, 2, 3, 4, 5, 6};
+        DerInputBuffer buffer = new DerInputBuffer(bytes, 1, 4);
+        assertEquals(4, buffer.available());
+        assertEquals(2, buffer.read());
+        buffer.mark(0);
+        byte[] two = new byte[2];
+        assertEquals(2, buffer.read(two));
+        assertArrayEquals(new byte[]{3, 4}, two);
+        buffer.reset();
+        DerInputBuffer dup = buffer.dup();
+        dup.truncate(1);
+        assertEquals(1, dup.available());
+        assertEquals(3, buffer.available());
+        assertEquals(2, buffer.skip(2));
+        assertArrayEquals(new byte[]{5}, buffer.toByteArray());
+        assertEquals(1, buffer.read(new byte[10]));
+        assertEquals(-1, buffer.read());
+        assertEquals(-1, buffer.read(two));
+        assertTrue(dup.equals(new DerInputBuffer(new byte[]{3})));
+        try {
+            dup.truncate(2);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void extraData() throws Exception {
+        byte[] bytes = encoded(octets(10));
+        new DerValue(Arrays.copyOf(bytes, bytes.length + 1));
+    }
+}
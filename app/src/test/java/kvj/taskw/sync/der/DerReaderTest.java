@@ -0,0 +1,119 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DerReaderTest {
+
+    @Test
+    public void events() throws Exception {
+        byte[] octets = DerInputBufferTest.octets(200);
+        byte[] bytes = DerInputBufferTest.encoded(octets);
+        DerReader reader = new DerReader(bytes);
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        assertEquals(1, reader.getDepth());
+        assertEquals(bytes.length - reader.getOffset(), reader.getLength());
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        assertEquals(new BigInteger("123456789012345678901234567890"), reader.getBigInteger());
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        ByteBuffer view = reader.getOctetString();
+        assertTrue(view.isReadOnly());
+        assertEquals(octets.length, view.remaining());
+        assertEquals(octets[199], view.get(199));
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        assertEquals(2, reader.getDepth());
+        reader.require(DerReader.PRIMITIVE, DerValue.tag_UTF8String);
+        assertEquals("nested", new String(reader.getBytes(), "UTF8"));
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        assertEquals(-5, reader.getInteger());
+        assertEquals(DerReader.END, reader.next());
+        assertEquals(DerReader.END, reader.next());
+        assertEquals(0, reader.getDepth());
+        assertEquals(DerReader.END_DOCUMENT, reader.next());
+    }
+
+    @Test
+    public void skip() throws Exception {
+        byte[] bytes = DerInputBufferTest.encoded(DerInputBufferTest.octets(10));
+        DerReader reader = new DerReader(bytes);
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        reader.skip();
+        assertEquals(DerReader.END_DOCUMENT, reader.next());
+
+        reader = new DerReader(bytes);
+        reader.next();
+        reader.next();
+        reader.skip(); // Primitive: nothing to do
+        reader.next();
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        reader.skip();
+        assertEquals(1, reader.getDepth());
+        assertEquals(DerReader.END, reader.next());
+        assertEquals(DerReader.END_DOCUMENT, reader.next());
+    }
+
+    @Test
+    public void indefiniteLength() throws Exception {
+        // SEQUENCE (indefinite) { INTEGER 5, SEQUENCE (indefinite) { NULL } } INTEGER 7
+        byte[] bytes = {0x30, (byte) 0x80, 0x02, 0x01, 0x05, 0x30, (byte) 0x80, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00,
+                        0x02, 0x01, 0x07};
+        DerReader reader = new DerReader(bytes);
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        assertEquals(-1, reader.getLength());
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        assertEquals(5, reader.getInteger());
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        reader.require(DerReader.PRIMITIVE, DerValue.tag_Null);
+        assertEquals(DerReader.END, reader.next());
+        assertEquals(DerReader.END, reader.next());
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        assertEquals(7, reader.getInteger());
+        assertEquals(DerReader.END_DOCUMENT, reader.next());
+
+        reader = new DerReader(bytes);
+        reader.next();
+        reader.skip();
+        assertEquals(DerReader.PRIMITIVE, reader.next());
+        assertEquals(7, reader.getInteger());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        byte[][] inputs = {
+            {0x30, 0x05, 0x02, 0x01}, // Length beyond data
+            {0x30, 0x03, 0x02, 0x05, 0x01, 0x02, 0x03}, // Child beyond parent
+            {0x02, (byte) 0x85, 0x01, 0x01, 0x01, 0x01, 0x01}, // 5 length bytes
+            {0x04, (byte) 0x80, 0x00, 0x00}, // Indefinite primitive
+            {0x30, (byte) 0x80, 0x02, 0x01, 0x01}, // No end-of-contents
+        };
+        for (byte[] input : inputs) {
+            DerReader reader = new DerReader(input);
+            try {
+                while (reader.next() != DerReader.END_DOCUMENT) {
+                }
+                fail("Accepted " + input.length);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        byte[] deep = new byte[(DerReader.MAX_DEPTH + 1) * 2];
+        for (int i = 0; i < deep.length; i += 2) {
+            deep[i] = 0x30;
+            deep[i + 1] = (byte) 0x80;
+        }
+        DerReader reader = new DerReader(deep);
+        try {
+            for (int i = 0; i <= DerReader.MAX_DEPTH; i++) {
+                reader.next();
+            }
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DerWriterTest {
+
+    @Test
+    public void sameAsDerOutputStream() throws Exception {
+        byte[] big = DerInputBufferTest.octets(70000); // 3 length bytes
+        byte[] medium = DerInputBufferTest.octets(200);
+        ObjectIdentifier oid = new ObjectIdentifier("1.2.840.113549.1.1.11");
+
+        DerOutputStream inner = new DerOutputStream();
+        inner.putOID(oid);
+        inner.putNull();
+        inner.putBoolean(true);
+        DerOutputStream tagged = new DerOutputStream();
+        tagged.putUTF8String("tagged");
+        DerOutputStream seq = new DerOutputStream();
+        seq.putInteger(BigInteger.valueOf(-129));
+        seq.putInteger(BigInteger.valueOf(128));
+        seq.putInteger(new BigInteger("-123456789012345678901234567890"));
+        seq.write(DerValue.tag_Sequence, inner);
+        seq.putOctetString(big);
+        seq.write(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 0), tagged);
+        seq.putOctetString(medium);
+        seq.putPrintableString("printable");
+        seq.putIA5String("ia5");
+        DerOutputStream expected = new DerOutputStream();
+        expected.write(DerValue.tag_Sequence, seq);
+
+        DerWriter writer = new DerWriter()
+                .startSequence()
+                .putInteger(-129)
+                .putInteger(128)
+                .putInteger(new BigInteger("-123456789012345678901234567890"))
+                .startSequence().putOID(oid).putNull().putBoolean(true).end()
+                .putOctetString(big)
+                .start(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 0)).putUTF8String("tagged").end()
+                .putOctetString(medium)
+                .putPrintableString("printable")
+                .putIA5String("ia5")
+                .end();
+        assertEquals(expected.size(), writer.size());
+        assertArrayEquals(expected.toByteArray(), writer.toByteArray());
+
+        // Reused, and DerValue / encoded input
+        DerValue value = new DerValue(expected.toByteArray());
+        writer.reset();
+        writer.putDerValue(value).putEncoded(expected.toByteArray());
+        DerOutputStream twice = new DerOutputStream();
+        twice.putDerValue(value);
+        twice.putDerValue(value);
+        assertArrayEquals(twice.toByteArray(), writer.toByteArray());
+    }
+
+    @Test
+    public void integers() throws Exception {
+        int[] values = {0, 1, -1, 127, 128, -128, -129, 255, 256, 32767, 32768, -32769, 1 << 23, -(1 << 23) - 1,
+                        Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            DerOutputStream out = new DerOutputStream();
+            out.putInteger(BigInteger.valueOf(value));
+            assertArrayEquals("" + value, out.toByteArray(), new DerWriter().putInteger(value).toByteArray());
+            assertEquals(value, new DerReader(out.toByteArray()).next() == DerReader.PRIMITIVE ?
+                    new DerInputStream(out.toByteArray()).getInteger() : 0);
+        }
+    }
+
+    @Test
+    public void orderedSets() throws Exception {
+        String[] strings = {"b", "a", "ab", "", "ba", "a"};
+        DerOutputStream[] elements = new DerOutputStream[strings.length + 2];
+        DerWriter writer = new DerWriter().startOrderedSetOf(DerValue.tag_Set);
+        for (int i = 0; i < strings.length; i++) {
+            elements[i] = new DerOutputStream();
+            elements[i].putUTF8String(strings[i]);
+            writer.putUTF8String(strings[i]);
+        }
+        elements[strings.length] = new DerOutputStream();
+        elements[strings.length].putInteger(BigInteger.valueOf(1000));
+        writer.putInteger(1000);
+        elements[strings.length + 1] = new DerOutputStream();
+        DerOutputStream nested = new DerOutputStream();
+        nested.putNull();
+        elements[strings.length + 1].write(DerValue.tag_Sequence, nested);
+        writer.startSequence().putNull().end();
+        writer.end();
+        DerOutputStream expected = new DerOutputStream();
+        expected.putOrderedSetOf(DerValue.tag_Set, elements);
+        assertArrayEquals(expected.toByteArray(), writer.toByteArray());
+        byte[] sortedStrings = new DerWriter().startSequence()
+                .putUTF8String("").putUTF8String("a").putUTF8String("a").putUTF8String("b")
+                .putUTF8String("ab").putUTF8String("ba").end().toByteArray();
+        // Integer (02) and sequence (30) around the strings (0c), shorter encodings first
+        assertArrayEquals(Arrays.copyOfRange(sortedStrings, 2, sortedStrings.length),
+                          Arrays.copyOfRange(expected.toByteArray(), 6, 6 + sortedStrings.length - 2));
+
+        DerWriter set = new DerWriter().startOrderedSet(DerValue.tag_Set)
+                .putUTF8String("x")
+                .startSequence().end()
+                .putInteger(1)
+                .putEncoded(elements[strings.length + 1].toByteArray())
+                .putBoolean(false)
+                .end();
+        DerOutputStream[] setElements = new DerOutputStream[5];
+        for (int i = 0; i < setElements.length; i++) {
+            setElements[i] = new DerOutputStream();
+        }
+        setElements[0].putUTF8String("x");
+        setElements[1].write(DerValue.tag_Sequence, new DerOutputStream());
+        setElements[2].putInteger(BigInteger.ONE);
+        setElements[3].write(DerValue.tag_Sequence, nested);
+        setElements[4].putBoolean(false);
+        DerOutputStream expectedSet = new DerOutputStream();
+        expectedSet.putOrderedSet(DerValue.tag_Set, setElements);
+        assertArrayEquals(expectedSet.toByteArray(), set.toByteArray());
+    }
+
+    @Test
+    public void sequenceOfValues() throws Exception {
+        DerValue[] values = new DerValue[3];
+        values[0] = new DerValue(DerValue.tag_OctetString, DerInputBufferTest.octets(300));
+        values[1] = new DerValue("text");
+        values[2] = new DerValue(DerValue.tag_Integer, new byte[]{5});
+        DerOutputStream out = new DerOutputStream();
+        out.putSequence(values);
+        DerValue[] read = new DerInputStream(out.toByteArray()).getSequence(3);
+        assertEquals(3, read.length);
+        assertArrayEquals(DerInputBufferTest.octets(300), read[0].getOctetString());
+        assertEquals("text", read[1].getAsString());
+        assertEquals(5, read[2].getInteger());
+        DerWriter writer = new DerWriter().startSequence();
+        for (DerValue value : values) {
+            writer.putDerValue(value);
+        }
+        assertArrayEquals(out.toByteArray(), writer.end().toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notEnded() {
+        new DerWriter().startSequence().toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+package kvj.taskw.sync.der;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ObjectIdentifierTest {
+
+    private static final byte[] SHA256_RSA = {
+        0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x0b
+    };
+
+    @Test
+    public void interned() throws Exception {
+        ObjectIdentifier known = ObjectIdentifier.of("1.2.840.113549.1.1.11");
+        assertSame(known, ObjectIdentifier.of("1.2.840.113549.1.1.11"));
+        assertSame(known, new DerInputStream(SHA256_RSA).getOID());
+        assertSame(known, new DerValue(SHA256_RSA).getOID());
+        assertSame(known, new DerInputStream(ByteBuffer.wrap(SHA256_RSA)).getOID());
+        DerReader reader = new DerReader(SHA256_RSA);
+        reader.require(DerReader.PRIMITIVE, DerValue.tag_ObjectId);
+        assertSame(known, reader.getOID());
+
+        ObjectIdentifier created = new ObjectIdentifier("1.2.840.113549.1.1.11");
+        assertNotSame(known, created);
+        assertEquals(known, created);
+        assertEquals(known.hashCode(), created.hashCode());
+        assertSame(known, created.intern());
+
+        // Seen ones are shared too
+        ObjectIdentifier seen = ObjectIdentifier.of("1.3.6.1.4.1.99999.1");
+        DerOutputStream out = new DerOutputStream();
+        out.putOID(new ObjectIdentifier("1.3.6.1.4.1.99999.1"));
+        assertSame(seen, new DerInputStream(out.toByteArray()).getOID());
+    }
+
+    @Test
+    public void encoding() throws Exception {
+        String[] oids = {"0.0", "0.39", "1.2", "2.5.4.3", "2.999.1", "1.2.840.10045.3.1.7",
+                         "1.3.6.1.4.1." + Integer.MAX_VALUE};
+        for (String s : oids) {
+            ObjectIdentifier oid = new ObjectIdentifier(s);
+            DerOutputStream out = new DerOutputStream();
+            out.putOID(oid);
+            byte[] der = out.toByteArray();
+            assertArrayEquals(der, new DerWriter().putOID(oid).toByteArray());
+            DerInputStream in = new DerInputStream(der);
+            ObjectIdentifier parsed = in.getOID();
+            assertEquals(0, in.available());
+            assertEquals(s, parsed.toString());
+            assertEquals(oid, parsed);
+        }
+        assertFalse(ObjectIdentifier.of("1.2.3").equals((Object) ObjectIdentifier.of("1.2.4")));
+        assertFalse(ObjectIdentifier.of("1.2.3").equals((Object) ObjectIdentifier.of("1.2.3.0")));
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            String s = "1.3.6.1.4.1.12345." + i;
+            DerOutputStream out = new DerOutputStream();
+            out.putOID(new ObjectIdentifier(s));
+            assertEquals(s, new DerInputStream(out.toByteArray()).getOID().toString());
+            assertEquals(s, ObjectIdentifier.of(s).toString());
+        }
+    }
+
+    @Test
+    public void invalid() throws Exception {
+        byte[][] invalid = {
+            {0x04, 0x01, 0x2a}, // Not an OID
+            {0x06, 0x03, 0x2a, 0x03}, // Not enough data
+            {0x06, 0x02, 0x2a, (byte) 0x80}, // Unterminated component
+            {0x06, 0x03, 0x2a, (byte) 0x80, 0x01}, // Leading 0x80
+            {0x06, 0x06, 0x2a, (byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00}, // 2^31
+        };
+        for (byte[] der : invalid) {
+            try {
+                new DerInputStream(der).getOID();
+                fail("Accepted " + ByteBuffer.wrap(der));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+}
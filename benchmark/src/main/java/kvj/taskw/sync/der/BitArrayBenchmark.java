@@ -0,0 +1,89 @@
+package kvj.taskw.sync.der;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BitArray of 251 bits (not byte aligned): conversions, single bits and bulk operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitArrayBenchmark {
+
+    private static final int LENGTH = 251;
+
+    private byte[] bytes;
+    private BitArray bits;
+    private BitArray other;
+    private BitArray copy;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 37);
+        }
+        bits = new BitArray(LENGTH, bytes);
+        other = new BitArray(LENGTH, bytes);
+        copy = (BitArray) bits.clone();
+    }
+
+    @Benchmark
+    public byte[] fromToByteArray() {
+        return new BitArray(LENGTH, bytes).toByteArray();
+    }
+
+    @Benchmark
+    public int getSet() {
+        int count = 0;
+        for (int i = 0; i < copy.length(); i++) {
+            if (copy.get(i)) {
+                count++;
+            }
+            copy.set(i, !copy.get(i));
+        }
+        return count;
+    }
+
+    @Benchmark
+    public boolean equalsHashCode() {
+        return bits.equals(other) && bits.hashCode() == other.hashCode();
+    }
+
+    @Benchmark
+    public int toBooleanArrayToString() {
+        return bits.toBooleanArray().length + bits.toString().length();
+    }
+
+    @Benchmark
+    public BitArray truncate() {
+        return bits.truncate();
+    }
+
+    @Benchmark
+    public int xorOrAndCardinality() {
+        copy.xor(bits);
+        copy.or(bits);
+        copy.and(bits);
+        return copy.cardinality();
+    }
+
+    @Benchmark
+    public BitArray subArray() {
+        return bits.subArray(3, 200);
+    }
+}
@@ -0,0 +1,117 @@
+package kvj.taskw.sync.der;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequences and sets of 16 values, nested values: DerOutputStream and DerWriter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerEncodingBenchmark {
+
+    private byte[] certificate;
+    private DerValue[] values;
+    private DerOutputStream[] encoders;
+    private byte[][] encoded;
+    private DerValue parsed;
+
+    @Setup
+    public void setUp() throws Exception {
+        certificate = new Fixtures().certificate;
+        values = new DerValue[16];
+        encoders = new DerOutputStream[values.length];
+        encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            DerOutputStream out = new DerOutputStream();
+            if (i % 2 == 0) {
+                out.putInteger(BigInteger.valueOf(1000L * (values.length - i)));
+            } else {
+                out.putUTF8String("Value #" + i);
+            }
+            values[i] = new DerValue(out.toByteArray());
+            encoders[i] = out;
+            encoded[i] = out.toByteArray();
+        }
+        parsed = new DerValue(certificate);
+    }
+
+    @Benchmark
+    public byte[] putSequence() throws IOException {
+        DerOutputStream out = new DerOutputStream();
+        out.putSequence(values);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] putOrderedSet() throws IOException {
+        DerOutputStream out = new DerOutputStream();
+        out.putOrderedSetOf(DerValue.tag_Set, encoders);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writerSequence() throws IOException {
+        DerWriter writer = new DerWriter().startSequence();
+        for (DerValue value : values) {
+            writer.putDerValue(value);
+        }
+        return writer.end().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writerOrderedSet() throws IOException {
+        DerWriter writer = new DerWriter().startOrderedSetOf(DerValue.tag_Set);
+        for (byte[] value : encoded) {
+            writer.putEncoded(value);
+        }
+        return writer.end().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] nested() throws IOException {
+        DerOutputStream out = new DerOutputStream();
+        out.putOctetString(certificate);
+        for (int i = 0; i < 8; i++) {
+            DerOutputStream parent = new DerOutputStream();
+            parent.putInteger(i);
+            parent.write(DerValue.tag_Sequence, out);
+            out = parent;
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writerNested() throws IOException {
+        DerWriter writer = new DerWriter();
+        for (int i = 0; i < 8; i++) {
+            writer.putInteger(7 - i).startSequence();
+        }
+        writer.putOctetString(certificate);
+        for (int i = 0; i < 8; i++) {
+            writer.end();
+        }
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] certificateToByteArray() throws IOException {
+        return parsed.toByteArray();
+    }
+}
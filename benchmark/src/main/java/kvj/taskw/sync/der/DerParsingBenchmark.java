@@ -0,0 +1,121 @@
+package kvj.taskw.sync.der;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a certificate and an RSA key: DerValue, DerInputStream, DerReader and BER to DER converters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerParsingBenchmark {
+
+    private byte[] certificate;
+    private byte[] rsaKey; // PKCS#1
+    private byte[] indefinite; // Certificate in BER indefinite length form
+    private byte[] copy;
+    private BerConverter converter;
+
+    @Setup
+    public void setUp() throws Exception {
+        Fixtures fixtures = new Fixtures();
+        certificate = fixtures.certificate;
+        rsaKey = fixtures.rsaKey;
+        indefinite = BerConverter.toIndefinite(certificate);
+        copy = new byte[indefinite.length];
+        converter = new BerConverter();
+        if (!Arrays.equals(certificate, new DerIndefLenConverter().convert(indefinite))
+            || !Arrays.equals(certificate, converter.convert(indefinite, 0, indefinite.length).toByteArray())) {
+            throw new IllegalStateException("BER converters don't restore certificate");
+        }
+    }
+
+    /**
+     * Reads every value of the tree.
+     */
+    private static int walk(DerValue value) throws IOException {
+        int count = 1;
+        if (value.isConstructed()) {
+            while (value.data.available() > 0) {
+                count += walk(value.data.getDerValue());
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int certificateWalk() throws IOException {
+        return walk(new DerValue(certificate));
+    }
+
+    @Benchmark
+    public DerValue[] certificateSequence() throws IOException {
+        return new DerInputStream(certificate).getSequence(3);
+    }
+
+    @Benchmark
+    public BigInteger rsaKeyDerInputStream() throws IOException {
+        DerValue[] seq = new DerInputStream(rsaKey).getSequence(0);
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 1; i < 9; i++) {
+            sum = sum.xor(seq[i].getBigInteger());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public BigInteger rsaKeyDerReader() throws IOException {
+        DerReader reader = new DerReader(rsaKey);
+        reader.require(DerReader.START_CONSTRUCTED, DerValue.tag_Sequence);
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 0; i < 9; i++) {
+            reader.next();
+            sum = sum.xor(reader.getBigInteger());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] indefLenConverter() throws IOException {
+        return new DerIndefLenConverter().convert(indefinite);
+    }
+
+    @Benchmark
+    public Object berConverter() throws IOException {
+        return converter.convert(indefinite, 0, indefinite.length);
+    }
+
+    @Benchmark
+    public int berConverterInPlace() throws IOException {
+        System.arraycopy(indefinite, 0, copy, 0, copy.length);
+        return converter.convertInPlace(copy, 0, copy.length);
+    }
+
+    @Benchmark
+    public Object berConverterStream() throws IOException {
+        return converter.convert(new ByteArrayInputStream(indefinite));
+    }
+
+    @Benchmark
+    public DerValue indefiniteCertificate() throws IOException {
+        return new DerValue(indefinite);
+    }
+}
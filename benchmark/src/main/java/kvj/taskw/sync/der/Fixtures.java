@@ -0,0 +1,80 @@
+package kvj.taskw.sync.der;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Date;
+
+/**
+ * Real DER input for benchmarks: self-signed RSA certificate and PKCS#1 key, as taskd setup makes them.
+ */
+public class Fixtures {
+
+    private static final String SIGNATURE_OID = "1.2.840.113549.1.1.11"; // SHA256withRSA
+    private static final String CN_OID = "2.5.4.3";
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    public final KeyPair keys;
+    public final byte[] certificate;
+    public final byte[] rsaKey;
+
+    public Fixtures() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+        certificate = certificate("Benchmark client");
+        // PKCS#8 wraps PKCS#1 key as octet string: version, algorithm, key
+        rsaKey = new DerInputStream(keys.getPrivate().getEncoded()).getSequence(3)[2].getOctetString();
+    }
+
+    private static void putName(DerOutputStream out, String cn) throws IOException {
+        DerOutputStream atv = new DerOutputStream();
+        atv.putOID(new ObjectIdentifier(CN_OID));
+        atv.putUTF8String(cn);
+        DerOutputStream rdn = new DerOutputStream();
+        rdn.write(DerValue.tag_Sequence, atv);
+        DerOutputStream name = new DerOutputStream();
+        name.write(DerValue.tag_Set, rdn);
+        out.write(DerValue.tag_Sequence, name);
+    }
+
+    private static void putAlgorithm(DerOutputStream out) throws IOException {
+        DerOutputStream alg = new DerOutputStream();
+        alg.putOID(new ObjectIdentifier(SIGNATURE_OID));
+        alg.putNull();
+        out.write(DerValue.tag_Sequence, alg);
+    }
+
+    private byte[] certificate(String cn) throws Exception {
+        DerOutputStream tbs = new DerOutputStream();
+        DerOutputStream version = new DerOutputStream();
+        version.putInteger(2); // v3
+        tbs.write(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 0), version);
+        tbs.putInteger(BigInteger.valueOf(System.currentTimeMillis()));
+        putAlgorithm(tbs);
+        putName(tbs, cn);
+        DerOutputStream validity = new DerOutputStream();
+        long now = System.currentTimeMillis();
+        validity.putUTCTime(new Date(now - DAY));
+        validity.putUTCTime(new Date(now + 30 * DAY));
+        tbs.write(DerValue.tag_Sequence, validity);
+        putName(tbs, cn);
+        tbs.write(keys.getPublic().getEncoded());
+        DerOutputStream tbsSeq = new DerOutputStream();
+        tbsSeq.write(DerValue.tag_Sequence, tbs);
+        byte[] tbsBytes = tbsSeq.toByteArray();
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(tbsBytes);
+        DerOutputStream cert = new DerOutputStream();
+        cert.write(tbsBytes);
+        putAlgorithm(cert);
+        cert.putBitString(signature.sign());
+        DerOutputStream certSeq = new DerOutputStream();
+        certSeq.write(DerValue.tag_Sequence, cert);
+        return certSeq.toByteArray();
+    }
+}
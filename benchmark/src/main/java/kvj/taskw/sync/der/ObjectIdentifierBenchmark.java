@@ -0,0 +1,78 @@
+package kvj.taskw.sync.der;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ObjectIdentifier parse, encode, decode and compare, new and interned instances.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectIdentifierBenchmark {
+
+    private static final String OID = "1.2.840.113549.1.1.11";
+
+    private ObjectIdentifier oid;
+    private ObjectIdentifier other;
+    private ObjectIdentifier known;
+    private ObjectIdentifier decoded;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        oid = new ObjectIdentifier(OID);
+        other = new ObjectIdentifier(OID);
+        DerOutputStream out = new DerOutputStream();
+        out.putOID(oid);
+        encoded = out.toByteArray();
+        known = ObjectIdentifier.of(OID);
+        decoded = new DerInputStream(encoded).getOID();
+    }
+
+    @Benchmark
+    public ObjectIdentifier parse() throws IOException {
+        return new ObjectIdentifier(OID);
+    }
+
+    @Benchmark
+    public ObjectIdentifier interned() throws IOException {
+        return ObjectIdentifier.of(OID);
+    }
+
+    @Benchmark
+    public DerOutputStream encode() throws IOException {
+        DerOutputStream out = new DerOutputStream();
+        out.putOID(oid);
+        return out;
+    }
+
+    @Benchmark
+    public ObjectIdentifier decode() throws IOException {
+        return new DerInputStream(encoded).getOID();
+    }
+
+    @Benchmark
+    public boolean equalsNew() {
+        return oid.equals((Object) other) && oid.hashCode() == other.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsInterned() {
+        return known.equals((Object) decoded) && known.hashCode() == decoded.hashCode();
+    }
+}